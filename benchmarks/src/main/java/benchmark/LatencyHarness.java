@@ -0,0 +1,307 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package benchmark;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import broker.Broker;
+import directory.Directory;
+import remote.Envelope;
+import remote.IRemoteBPub;
+import remote.IRemoteBSub;
+import remote.IRemoteSub;
+import util.Histogram;
+
+/**
+ * Measures latency from publisher to subscriber across a whole cluster started inside
+ * this JVM: a directory and a number of brokers, each on its own loopback registry, with
+ * publishers and subscribers calling them through RMI as separate processes would.
+ * Each scenario publishes messages at a fixed rate from one broker and records, in
+ * microseconds:
+ * <ul>
+ * <li>publisher to broker: from the send time in the message to the time the broker stamped on it.</li>
+ * <li>broker to subscriber: from the broker's stamp to receipt, for subscribers on the
+ * publishing broker and, separately, for subscribers reached through a peer broker.</li>
+ * <li>end to end: from the send time to receipt, split the same way.</li>
+ * </ul>
+ * The scenarios are:
+ * <ul>
+ * <li>single: one subscriber on the publishing broker.</li>
+ * <li>cross: one subscriber on the publishing broker and one on another broker.</li>
+ * <li>fanout: many subscribers spread over every broker.</li>
+ * </ul>
+ * The first messages of each scenario warm up the JVM and are not recorded. The brokers'
+ * console logging is discarded unless -Dharness.verbose=true. The registries use ports
+ * from -Dharness.port, default 4700, upwards.
+ * Usage: "java -cp benchmarks/target/benchmarks.jar benchmark.LatencyHarness [single,cross,fanout] [messages] [messages_per_second] [fanout_subscribers]".
+ */
+public class LatencyHarness {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int BROKERS = 3;
+	private static final int PAYLOAD_BYTES = 100;
+	private static final int WARMUP_MESSAGES = 2000;
+	private static final long ROUTE_SETTLE = 500;  // Time for peers to learn of new subscribers before publishing
+	private static final long STALL_TIMEOUT = 30000;
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+	private final int basePort;
+	private final int messages;
+	private final int rate;
+	private final int fanout;
+	private final PrintStream report;
+	private final List<IRemoteBPub> pubs = new ArrayList<>();
+	private final List<IRemoteBSub> subs = new ArrayList<>();
+	private int nextTopicId = 1;
+
+	/**
+	 * Constructs a harness.
+	 *
+	 * @param basePort The directory's registry port, brokers use the ports after it.
+	 * @param messages The number of messages recorded per scenario.
+	 * @param rate     The messages published per second.
+	 * @param fanout   The number of subscribers in the fanout scenario.
+	 * @param report   Where results are printed.
+	 */
+	public LatencyHarness(int basePort, int messages, int rate, int fanout, PrintStream report) {
+		this.basePort = basePort;
+		this.messages = messages;
+		this.rate = rate;
+		this.fanout = fanout;
+		this.report = report;
+	}
+
+	// Starts the directory and brokers and looks up each broker's publisher and subscriber interfaces.
+	private void startCluster() throws Exception {
+		Directory.start(basePort);
+		for (int i = 1; i <= BROKERS; i++) {
+			Broker.start(basePort, HOST, basePort + i);
+			Registry registry = LocateRegistry.getRegistry(HOST, basePort + i);
+			pubs.add((IRemoteBPub) registry.lookup("remotePub"));
+			subs.add((IRemoteBSub) registry.lookup("remoteSub"));
+		}
+		report.println("Started a directory and " + BROKERS + " brokers on ports " + basePort + "-" + (basePort + BROKERS) + ".");
+	}
+
+	// Runs a scenario by name.
+	private void run(String scenario) throws Exception {
+		switch (scenario) {
+			case "single":
+				run("single broker", new int[] { 0 });
+				break;
+			case "cross":
+				run("cross broker", new int[] { 0, 1 });
+				break;
+			case "fanout":
+				int[] brokers = new int[fanout];
+				for (int i = 0; i < fanout; i++) {
+					brokers[i] = i % BROKERS;
+				}
+				run("fan-out to " + fanout, brokers);
+				break;
+			default:
+				report.println("Unknown scenario " + scenario + ", expected single, cross or fanout.");
+		}
+	}
+
+	// Publishes from the first broker to subscribers on the given brokers and prints the latencies.
+	private void run(String name, int[] subscriberBrokers) throws Exception {
+		int topicId = nextTopicId++;
+		String pubName = "harness-pub-" + topicId;
+		IRemoteBPub pub = pubs.get(0);
+		Latencies latencies = new Latencies();
+		check(pub.create(topicId, name, pubName));
+		List<Receiver> receivers = new ArrayList<>();
+		for (int i = 0; i < subscriberBrokers.length; i++) {
+			Receiver receiver = new Receiver(latencies, subscriberBrokers[i] == 0, i == 0);
+			UnicastRemoteObject.exportObject(receiver, 0);
+			check(subs.get(subscriberBrokers[i]).sub(topicId, receiver, subName(topicId, i)));
+			receivers.add(receiver);
+		}
+		Thread.sleep(ROUTE_SETTLE);
+		try {
+			int total = WARMUP_MESSAGES + messages;
+			long failed = publish(pub, topicId, pubName, total);
+			long lost = awaitDelivery(receivers, total - failed);
+			report.println();
+			report.println(name + ": " + messages + " messages at " + rate + " msg/s to " + receivers.size() + " subscriber(s)"
+					+ (failed > 0 ? ", " + failed + " failed to publish" : "") + (lost > 0 ? ", " + lost + " deliveries missing" : ""));
+			report.printf("%-32s %9s", "latency (us)", "count");
+			for (double percentile : PERCENTILES) {
+				report.printf(" %9s", "p" + (percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile)));
+			}
+			report.printf(" %9s%n", "max");
+			print("publisher to broker", latencies.publish);
+			print("broker to subscriber, same", latencies.deliverLocal);
+			print("broker to subscriber, via peer", latencies.deliverRemote);
+			print("end to end, same broker", latencies.endToEndLocal);
+			print("end to end, via peer", latencies.endToEndRemote);
+		} finally {
+			for (int i = 0; i < subscriberBrokers.length; i++) {
+				subs.get(subscriberBrokers[i]).subDisconnect(subName(topicId, i));
+				UnicastRemoteObject.unexportObject(receivers.get(i), true);
+			}
+			pub.pubDisconnect(pubName);
+		}
+	}
+
+	// Publishes the messages at the configured rate, each starting with its send time and number, returns how many failed.
+	private long publish(IRemoteBPub pub, int topicId, String pubName, int total) throws RemoteException {
+		long intervalNanos = 1_000_000_000L / rate;
+		long next = System.nanoTime();
+		long failed = 0;
+		for (int i = 0; i < total; i++) {
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			next += intervalNanos;
+			StringBuilder message = new StringBuilder(PAYLOAD_BYTES);
+			message.append(Envelope.now()).append(' ').append(i).append(' ');
+			while (message.length() < PAYLOAD_BYTES) {
+				message.append('x');
+			}
+			if (!pub.publish(topicId, message.toString(), pubName).startsWith("SUCCESS")) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	// Waits until every receiver has the expected number of messages or none has received any for the stall timeout, returns the deliveries missing.
+	private long awaitDelivery(List<Receiver> receivers, long expected) throws InterruptedException {
+		long lastTotal = -1;
+		long lastProgress = System.currentTimeMillis();
+		while (true) {
+			long total = 0;
+			long missing = 0;
+			for (Receiver receiver : receivers) {
+				long received = receiver.received.get();
+				total += received;
+				missing += Math.max(0, expected - received);
+			}
+			if (missing == 0) {
+				return 0;
+			}
+			if (total != lastTotal) {
+				lastTotal = total;
+				lastProgress = System.currentTimeMillis();
+			} else if (System.currentTimeMillis() - lastProgress > STALL_TIMEOUT) {
+				return missing;
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	// Prints one row of the latency table, skipping hops no message took.
+	private void print(String hop, Histogram histogram) {
+		if (histogram.getCount() == 0) {
+			return;
+		}
+		report.printf("%-32s %9d", hop, histogram.getCount());
+		for (double percentile : PERCENTILES) {
+			report.printf(" %9d", histogram.getValueAtPercentile(percentile));
+		}
+		report.printf(" %9d%n", histogram.getMax());
+	}
+
+	// Name of a scenario's subscriber.
+	private static String subName(int topicId, int index) {
+		return "harness-sub-" + topicId + "-" + index;
+	}
+
+	// Stops the harness if the cluster rejected a setup call.
+	private static void check(String result) {
+		if (!result.startsWith("SUCCESS")) {
+			throw new IllegalStateException(result.trim());
+		}
+	}
+
+	/**
+	 * Runs the given scenarios, or all of them, against a cluster started in this JVM.
+	 *
+	 * @param args Optional scenarios separated by commas, messages, messages per second and fan-out subscribers.
+	 */
+	public static void main(String[] args) {
+		try {
+			List<String> scenarios = Arrays.asList((args.length > 0 ? args[0] : "single,cross,fanout").split(","));
+			int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			int rate = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+			int fanout = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+			PrintStream report = System.out;
+			if (!Boolean.getBoolean("harness.verbose")) {
+				QuietConsole.install();
+			}
+			LatencyHarness harness = new LatencyHarness(Integer.getInteger("harness.port", 4700), messages, rate, fanout, report);
+			harness.startCluster();
+			for (String scenario : scenarios) {
+				harness.run(scenario.trim().toLowerCase());
+			}
+			System.exit(0);
+		} catch (NumberFormatException e) {
+			System.err.println("Usage: java -cp benchmarks.jar benchmark.LatencyHarness [single,cross,fanout] [messages] [messages_per_second] [fanout_subscribers]");
+			System.exit(1);
+		} catch (Exception e) {
+			System.err.println("Latency harness failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	// Histograms of one scenario, in microseconds
+	private static final class Latencies {
+		final Histogram publish = new Histogram();
+		final Histogram deliverLocal = new Histogram();
+		final Histogram deliverRemote = new Histogram();
+		final Histogram endToEndLocal = new Histogram();
+		final Histogram endToEndRemote = new Histogram();
+	}
+
+	// Subscriber recording the latency of every message after the warm-up
+	private static final class Receiver implements IRemoteSub {
+
+		private final Latencies latencies;
+		private final boolean local;  // On the publishing broker
+		private final boolean recordsPublish;  // Records the publisher to broker hop, which is the same for every subscriber
+		final AtomicLong received = new AtomicLong();
+
+		Receiver(Latencies latencies, boolean local, boolean recordsPublish) {
+			this.latencies = latencies;
+			this.local = local;
+			this.recordsPublish = recordsPublish;
+		}
+
+		@Override
+		public void receiveMessage(Envelope message) {
+			receiveMessages(Collections.singletonList(message));
+		}
+
+		@Override
+		public void receiveMessages(List<Envelope> messages) {
+			long now = Envelope.now();
+			for (Envelope message : messages) {
+				String[] fields = new String(message.getPayload(), 0, Math.min(message.getPayload().length, 40), StandardCharsets.US_ASCII).split(" ", 3);
+				long sent = Long.parseLong(fields[0]);
+				if (Integer.parseInt(fields[1]) >= WARMUP_MESSAGES) {
+					if (recordsPublish) {
+						latencies.publish.record(message.getOriginTime() - sent);
+					}
+					(local ? latencies.deliverLocal : latencies.deliverRemote).record(now - message.getOriginTime());
+					(local ? latencies.endToEndLocal : latencies.endToEndRemote).record(now - sent);
+				}
+			}
+			received.addAndGet(messages.size());
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Discards console output in a benchmark's JVM. The directory and broker log every
+ * topic and subscription change with System.out.println, which would flood the run's
+ * output; the logging calls are still made and timed, only their text is thrown away.
+ * JMH reports results over its own connection, so they are not affected.
+ */
+public final class QuietConsole {
+
+	private QuietConsole() {
+	}
+
+	/**
+	 * Replaces System.out with a stream that discards everything written to it.
+	 */
+	public static void install() {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+import remote.Envelope;
+import remote.IRemoteBPub;
+import remote.IRemoteBSub;
+import remote.IRemoteSub;
+import transport.DataClient;
+import transport.Frames;
+
+/**
+ * Compares end-to-end throughput of RMI and the socket data plane against a running broker.
+ * Each run creates a topic, subscribes one in-process subscriber and publishes a fixed number
+ * of messages, timing from the first publish until the subscriber has received the last one:
+ * <ul>
+ * <li>rmi: publish and delivery through RMI calls, one publish call per message.</li>
+ * <li>nio: publish and delivery over the data plane, waiting for each publish result.</li>
+ * <li>nio-pipelined: as nio, but with up to a window of publishes in flight.</li>
+ * </ul>
+ * The data plane runs are skipped if the broker was not started with -Dbroker.transport=nio.
+ * Usage: "java -cp benchmarks/target/benchmarks.jar benchmark.TransportBenchmark broker_ip broker_port [messages] [payload_bytes]".
+ */
+public class TransportBenchmark {
+
+	private static final int WINDOW = 1024;
+	private static final long STALL_TIMEOUT = 30000;
+
+	private final String brokerIP;
+	private final IRemoteBPub pub;
+	private final IRemoteBSub sub;
+	private final int messages;
+	private final byte[] payload;
+	private final String runId = Integer.toString(ThreadLocalRandom.current().nextInt(100000, 1000000));
+
+	/**
+	 * Constructs a benchmark against the given broker.
+	 *
+	 * @param brokerIP     The broker host.
+	 * @param brokerPort   The broker's registry port.
+	 * @param messages     The number of messages published per run.
+	 * @param payloadBytes The size of each message.
+	 * @throws RemoteException   If the broker cannot be reached.
+	 * @throws NotBoundException If the broker's remote objects are not bound.
+	 */
+	public TransportBenchmark(String brokerIP, int brokerPort, int messages, int payloadBytes) throws RemoteException, NotBoundException {
+		Registry registry = LocateRegistry.getRegistry(brokerIP, brokerPort);
+		this.brokerIP = brokerIP;
+		this.pub = (IRemoteBPub) registry.lookup("remotePub");
+		this.sub = (IRemoteBSub) registry.lookup("remoteSub");
+		this.messages = messages;
+		this.payload = new byte[payloadBytes];
+		Arrays.fill(payload, (byte) 'x');
+	}
+
+	// Runs every transport and prints one result line per run.
+	private void runAll() throws IOException {
+		int dataPort = sub.getDataPort();
+		System.out.println("Publishing " + messages + " messages of " + payload.length + " bytes per run.");
+		report("rmi", runRmi(1));
+		if (dataPort <= 0) {
+			System.out.println("Broker does not run the data plane, start it with -Dbroker.transport=nio to compare.");
+			return;
+		}
+		report("nio", runDataPlane(2, dataPort, 1));
+		report("nio-pipelined", runDataPlane(3, dataPort, WINDOW));
+	}
+
+	// Publishes through RMI to a subscriber receiving RMI callbacks, returns elapsed nanoseconds.
+	private long runRmi(int run) throws IOException {
+		String pubName = "bench-pub-" + runId + "-" + run;
+		String subName = "bench-sub-" + runId + "-" + run;
+		int topicId = topicId(run);
+		CountingSub counter = new CountingSub();
+		check(pub.create(topicId, "bench", pubName));
+		check(sub.sub(topicId, counter, subName));
+		try {
+			String message = new String(payload, StandardCharsets.US_ASCII);
+			long start = System.nanoTime();
+			for (int i = 0; i < messages; i++) {
+				pub.publish(topicId, message, pubName);
+			}
+			counter.await(messages);
+			return System.nanoTime() - start;
+		} finally {
+			cleanUp(pubName, subName);
+			UnicastRemoteObject.unexportObject(counter, true);
+		}
+	}
+
+	// Publishes over the data plane with the given number of publishes in flight, returns elapsed nanoseconds.
+	private long runDataPlane(int run, int dataPort, int window) throws IOException {
+		String pubName = "bench-pub-" + runId + "-" + run;
+		String subName = "bench-sub-" + runId + "-" + run;
+		int topicId = topicId(run);
+		CountingSub counter = new CountingSub();
+		DataClient subClient = new DataClient(brokerIP, dataPort, Frames.ROLE_SUBSCRIBER, subName, counter);
+		DataClient pubClient = new DataClient(brokerIP, dataPort, Frames.ROLE_PUBLISHER, pubName, null);
+		check(pub.create(topicId, "bench", pubName));
+		check(sub.sub(topicId, counter, subName));
+		try {
+			Semaphore inFlight = new Semaphore(window);
+			long start = System.nanoTime();
+			for (int i = 0; i < messages; i++) {
+				inFlight.acquireUninterruptibly();
+				pubClient.publishAsync(topicId, payload).whenComplete((result, error) -> inFlight.release());
+			}
+			counter.await(messages);
+			return System.nanoTime() - start;
+		} finally {
+			pubClient.close();
+			subClient.close();
+			cleanUp(pubName, subName);
+			UnicastRemoteObject.unexportObject(counter, true);
+		}
+	}
+
+	// Topic ID for a run, random per benchmark so repeated runs against the same broker do not collide.
+	private int topicId(int run) {
+		return Integer.parseInt(runId) * 10 + run;
+	}
+
+	// Removes the run's subscriber and publisher, which also deletes the run's topic.
+	private void cleanUp(String pubName, String subName) throws RemoteException {
+		sub.subDisconnect(subName);
+		pub.pubDisconnect(pubName);
+	}
+
+	// Prints the throughput of a run.
+	private void report(String name, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.printf("%-14s %10.0f msg/s %8.2f MB/s %8.0f ms%n", name, messages / seconds,
+				messages * (double) payload.length / seconds / (1 << 20), elapsedNanos / 1e6);
+	}
+
+	// Stops the benchmark if the broker rejected a setup call.
+	private static void check(String result) throws IOException {
+		if (!result.startsWith("SUCCESS")) {
+			throw new IOException(result.trim());
+		}
+	}
+
+	/**
+	 * Counts delivered messages, whether they arrive as RMI callbacks or data-plane frames.
+	 */
+	private static class CountingSub extends UnicastRemoteObject implements IRemoteSub, DataClient.MessageListener {
+
+		private static final long serialVersionUID = 1L;
+
+		private long received;  // Guarded by this
+
+		CountingSub() throws RemoteException {
+			super();
+		}
+
+		@Override
+		public void receiveMessage(Envelope message) {
+			count(1);
+		}
+
+		@Override
+		public void receiveMessages(List<Envelope> messages) {
+			count(messages.size());
+		}
+
+		@Override
+		public void messagesReceived(List<Envelope> messages) {
+			count(messages.size());
+		}
+
+		// Add delivered messages and wake the waiting benchmark thread
+		private synchronized void count(int delivered) {
+			received += delivered;
+			notifyAll();
+		}
+
+		// Wait until the given number of messages has been delivered, failing if deliveries stop arriving
+		synchronized void await(long expected) throws IOException {
+			long seen = -1;
+			while (received < expected) {
+				if (received == seen) {
+					throw new IOException("Deliveries stalled at " + received + " of " + expected + " messages");
+				}
+				seen = received;
+				try {
+					wait(STALL_TIMEOUT);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for deliveries");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args Command-line arguments: broker IP, broker port, and optionally the message count and payload size.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 4) {
+			System.out.println("Invalid argument length. Usage example \"java -cp benchmarks.jar benchmark.TransportBenchmark broker_ip broker_port [messages] [payload_bytes]\"");
+			System.exit(0);
+		}
+		try {
+			int messages = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+			int payloadBytes = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+			new TransportBenchmark(args[0], Integer.parseInt(args[1]), messages, payloadBytes).runAll();
+		} catch (NumberFormatException e) {
+			System.out.println("Error: Invalid format for port, message count or payload size.");
+		} catch (NotBoundException e) {
+			System.out.println("Remote object not found. " + e.getMessage());
+		} catch (IOException e) {
+			System.out.println("Benchmark failed. " + e.getMessage());
+		}
+		System.exit(0);
+	}
+}
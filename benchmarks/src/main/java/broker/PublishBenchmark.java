@@ -0,0 +1,136 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.QuietConsole;
+import directory.InProcessDirectory;
+import remote.Envelope;
+import remote.IRemoteSub;
+import remote.IRemoteTopic;
+
+/**
+ * Times a publish on a broker with no peers and a given number of local subscribers,
+ * all in one JVM. With no subscribers this is the cost of checking the topic and
+ * publisher, building the message and formatting the result; with subscribers it adds
+ * the fan-out in sendMessage, which queues the message for each of them. The queues are
+ * drained to stub subscribers by the dispatcher's own threads, so the times are those
+ * of the publishing thread; a subscriber that falls behind has messages dropped by the
+ * overflow policy as it would in a broker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+
+	private static final int TOPIC_ID = 1;
+	private static final String PUBLISHER = "bench-pub";
+
+	@Param({ "0", "1", "10", "100" })
+	int subscribers;
+
+	@Param({ "100" })
+	int messageBytes;
+
+	private IRemoteTopic topicList;
+	private DeliveryDispatcher dispatcher;
+	private RemoteBroker broker;
+	private String message;
+	private byte[] payload;
+
+	/**
+	 * Starts a broker, creates the topic and subscribes the stub subscribers.
+	 *
+	 * @throws Exception If the broker or topic list cannot be exported.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		QuietConsole.install();
+		topicList = InProcessDirectory.newTopicList();
+		dispatcher = new DeliveryDispatcher();
+		broker = new RemoteBroker(0, null, topicList, dispatcher, new ConcurrentHashMap<>());
+		broker.create(TOPIC_ID, "bench", PUBLISHER);
+		for (int i = 0; i < subscribers; i++) {
+			broker.sub(TOPIC_ID, new StubSub(), "sub-" + i);
+		}
+		char[] text = new char[messageBytes];
+		Arrays.fill(text, 'x');
+		message = new String(text);
+		payload = message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Stops the dispatcher and the broker's and topic list's RMI exports.
+	 *
+	 * @throws RemoteException If an object cannot be unexported.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws RemoteException {
+		dispatcher.shutdown();
+		UnicastRemoteObject.unexportObject(broker, true);
+		UnicastRemoteObject.unexportObject(topicList, true);
+	}
+
+	/**
+	 * Publishes a text message, as an RMI publish call does.
+	 *
+	 * @return The broker's result.
+	 * @throws RemoteException Not thrown, the broker is called directly.
+	 */
+	@Benchmark
+	public String publishText() throws RemoteException {
+		return broker.publish(TOPIC_ID, message, PUBLISHER);
+	}
+
+	/**
+	 * Publishes a message already in bytes, as a data plane publish does.
+	 *
+	 * @return The broker's result.
+	 */
+	@Benchmark
+	public String publishBytes() {
+		return broker.publish(TOPIC_ID, payload, PUBLISHER);
+	}
+
+	// Subscriber that counts what it is delivered, called directly by the dispatcher's threads
+	private static class StubSub implements IRemoteSub {
+
+		private final AtomicLong received = new AtomicLong();
+
+		@Override
+		public void receiveMessage(Envelope message) {
+			received.incrementAndGet();
+		}
+
+		@Override
+		public void receiveMessages(List<Envelope> messages) {
+			received.addAndGet(messages.size());
+		}
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package directory;
+
+import remote.IRemoteTopic;
+
+/**
+ * Gives benchmarks in other packages a directory topic list running in their own JVM,
+ * so brokers call it directly instead of through RMI.
+ */
+public final class InProcessDirectory {
+
+	private InProcessDirectory() {
+	}
+
+	/**
+	 * Creates a topic list. Every topic list in a JVM shares the same topics and subscriptions.
+	 *
+	 * @return The topic list, exported for RMI like the directory's.
+	 * @throws Exception If the topic list cannot be exported.
+	 */
+	public static IRemoteTopic newTopicList() throws Exception {
+		return new RemoteTopic();
+	}
+}
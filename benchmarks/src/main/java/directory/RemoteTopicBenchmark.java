@@ -0,0 +1,128 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package directory;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.QuietConsole;
+
+/**
+ * Times the directory's subscriber bookkeeping on a topic with a given number of
+ * subscribers: adding a subscriber, listing the subscribers for a broadcast and deleting
+ * the topic, which also removes it from every subscriber's topic set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteTopicBenchmark {
+
+	private static final int TOPIC_ID = 1;
+	private static final int DELETED_TOPIC_ID = 2;
+	private static final int EXTRA_NAMES = 1024;
+
+	@Param({ "10", "1000", "100000" })
+	int subscribers;
+
+	private RemoteTopic topics;
+	private final String[] extraNames = new String[EXTRA_NAMES];
+	private int next;
+
+	/**
+	 * Creates the topic and subscribes the given number of subscribers.
+	 *
+	 * @throws Exception If the topic list cannot be exported.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		QuietConsole.install();
+		topics = new RemoteTopic();
+		topics.addTopic(new Topic(TOPIC_ID, "bench", "bench-pub"));
+		for (int i = 0; i < subscribers; i++) {
+			topics.addSubscriber(TOPIC_ID, "sub-" + i);
+		}
+		for (int i = 0; i < EXTRA_NAMES; i++) {
+			extraNames[i] = "extra-" + i;
+		}
+	}
+
+	/**
+	 * Stops exporting the topic list.
+	 *
+	 * @throws Exception If the topic list cannot be unexported.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		UnicastRemoteObject.unexportObject(topics, true);
+	}
+
+	/**
+	 * Adds one more subscriber to the topic, then removes it so the topic keeps its size.
+	 */
+	@Benchmark
+	public void addSubscriber() {
+		String name = extraNames[next++ & (EXTRA_NAMES - 1)];
+		topics.addSubscriber(TOPIC_ID, name);
+		topics.removeSubscriber(TOPIC_ID, name);
+	}
+
+	/**
+	 * Lists the subscribers of the topic, as a broadcast does.
+	 *
+	 * @return The subscriber names.
+	 */
+	@Benchmark
+	public List<String> getAllRemoteSubscribers() {
+		return topics.getAllRemoteSubscribers(TOPIC_ID);
+	}
+
+	/**
+	 * Deletes a topic with the given number of subscribers, which is recreated before each call.
+	 *
+	 * @param topic The topic to delete.
+	 */
+	@Benchmark
+	public void deleteTopic(SubscribedTopic topic) {
+		topics.deleteTopic(DELETED_TOPIC_ID);
+	}
+
+	/**
+	 * A second topic, recreated with its subscribers before every call of {@link #deleteTopic(SubscribedTopic)}.
+	 */
+	@State(Scope.Thread)
+	public static class SubscribedTopic {
+
+		/**
+		 * Creates the topic and subscribes the benchmark's number of subscribers.
+		 *
+		 * @param benchmark The benchmark state, for the topic list and subscriber count.
+		 * @throws Exception If the topic cannot be created.
+		 */
+		@Setup(Level.Invocation)
+		public void setUp(RemoteTopicBenchmark benchmark) throws Exception {
+			benchmark.topics.addTopic(new Topic(DELETED_TOPIC_ID, "bench-deleted", "bench-pub"));
+			for (int i = 0; i < benchmark.subscribers; i++) {
+				benchmark.topics.addSubscriber(DELETED_TOPIC_ID, "sub-" + i);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package directory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times Java serialization of topics as RMI sends them, from a single topic handed to a
+ * topic listener up to the full list returned by getAllTopics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicSerializationBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	int topicCount;
+
+	private List<Topic> topics;
+	private byte[] serialized;
+
+	/**
+	 * Creates the topics and their serialized form.
+	 *
+	 * @throws IOException If the topics cannot be serialized.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		topics = new ArrayList<>(topicCount);
+		for (int i = 0; i < topicCount; i++) {
+			Topic topic = new Topic(i, "topic-" + i, "publisher-" + (i % 16), i % 8 == 0);
+			topic.addSubCount();
+			topics.add(topic);
+		}
+		serialized = serialize();
+	}
+
+	/**
+	 * Serializes the topics.
+	 *
+	 * @return The serialized form.
+	 * @throws IOException If serialization fails.
+	 */
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(topics);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes the topics.
+	 *
+	 * @return The topics read back.
+	 * @throws IOException If deserialization fails.
+	 * @throws ClassNotFoundException If the Topic class is missing.
+	 */
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+}
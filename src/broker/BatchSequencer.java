@@ -0,0 +1,85 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Puts the publish batches of each publisher session back in order. A publisher with
+ * several batches in flight sends each over its own RMI call, and the calls may reach
+ * the broker in any order. A batch that arrives early waits until the batches before
+ * it have been published, or until the order timeout passes, in case an earlier batch
+ * was lost on the way, after which it is published anyway.
+ */
+class BatchSequencer {
+
+	private final Map<String, Map<Long, Window>> publishers = new ConcurrentHashMap<>();
+	private final long timeoutMillis;
+
+	/**
+	 * Constructs a sequencer.
+	 *
+	 * @param timeoutMillis The longest a batch waits for the batches before it.
+	 */
+	BatchSequencer(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Waits until every earlier batch of the session has been published, or the timeout passes.
+	 *
+	 * @param pubName The name of the publisher.
+	 * @param session The publisher's session.
+	 * @param batchId The number of the batch, starting at 1.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	void awaitTurn(String pubName, long session, long batchId) throws InterruptedException {
+		Window window = publishers.computeIfAbsent(pubName, name -> new ConcurrentHashMap<>()).computeIfAbsent(session, id -> new Window());
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (window) {
+			while (batchId > window.next) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					System.out.println("Batch " + batchId + " of publisher " + pubName + " arrived before batch " + window.next + ", publishing it out of order.");
+					return;
+				}
+				window.wait(remaining);
+			}
+		}
+	}
+
+	/**
+	 * Marks a batch as published, letting the next batch of the session go ahead.
+	 *
+	 * @param pubName The name of the publisher.
+	 * @param session The publisher's session.
+	 * @param batchId The number of the batch.
+	 */
+	void done(String pubName, long session, long batchId) {
+		Map<Long, Window> sessions = publishers.get(pubName);
+		Window window = sessions == null ? null : sessions.get(session);
+		if (window == null) {
+			return;
+		}
+		synchronized (window) {
+			window.next = Math.max(window.next, batchId + 1);
+			window.notifyAll();
+		}
+	}
+
+	/**
+	 * Forgets every session of a publisher, once it disconnects.
+	 *
+	 * @param pubName The name of the publisher.
+	 */
+	void remove(String pubName) {
+		publishers.remove(pubName);
+	}
+
+	// Next batch number expected from a session
+	private static final class Window {
+		long next = 1;
+	}
+}
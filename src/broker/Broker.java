@@ -3,24 +3,27 @@
  */
 package broker;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.rmi.AlreadyBoundException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import directory.RemoteTopic;
+import metrics.RemoteCallMetrics;
 import remote.IRemoteBroker;
 import remote.IRemoteDir;
-import remote.IRemoteSub;
 import remote.IRemoteBPub;
 import remote.IRemoteBSub;
 import remote.IRemoteTopic;
@@ -31,11 +34,7 @@ import remote.IRemoteTopic;
  */
 public class Broker {
 	
-	private static String ip;
-	private static List<IRemoteBroker> connectedBrokers = new ArrayList<>();
-	private static Map<String, IRemoteSub> connectedSubscribers = new HashMap<>();
-	private static Map<String, Set<Integer>> pubTopicList = new HashMap<>();
-	static IRemoteTopic topicList; 
+	private static final Map<Integer, Exported> EXPORTED = new ConcurrentHashMap<>();  // By broker port, RMI only weakly holds exported objects until a client in another JVM looks them up
 	
 	/**
      * The main method initializes the broker, registers it with the directory service, and binds remote interfaces for publishing  and subscribing to topics.
@@ -52,48 +51,11 @@ public class Broker {
 			String dirIP = args[0];
 			InetAddress dirAddress = InetAddress.getByName(dirIP);
 			int dirPort = Integer.parseInt(args[1]);
-			ip = args[2];
+			String ip = args[2];
 			InetAddress inetAddress = InetAddress.getByName(ip);
 			int brokerPort = Integer.parseInt(args[3]);
 			
-			Registry registry = LocateRegistry.createRegistry(brokerPort);
-			Registry dirRegistry = LocateRegistry.getRegistry(dirPort);
-			IRemoteDir directory = (IRemoteDir) dirRegistry.lookup("directory");
-			topicList = (IRemoteTopic) dirRegistry.lookup("topics");
-			
-			List<Integer> activeBrokers = directory.registerBroker(ip, brokerPort);
-			if(!activeBrokers.isEmpty()) {
-				for (Integer port:activeBrokers) {
-					Registry otherBrokerRegistry = LocateRegistry.getRegistry(port);
-					IRemoteBroker otherBroker = (IRemoteBroker) otherBrokerRegistry.lookup("remoteBroker");
-					connectedBrokers.add(otherBroker);
-				}
-				System.out.println();
-			}
-				
-		    
-		    RemoteBroker brokerObj = new RemoteBroker(connectedBrokers, topicList, connectedSubscribers, pubTopicList);
-		    brokerObj.startPubHeartbeatMonitor();
-		    brokerObj.startSubHeartbeatMonitor();
-
-		    IRemoteBPub remoteObjPub = brokerObj;
-		    IRemoteBSub remoteObjSub = brokerObj;
-		    IRemoteBroker remoteObjBroker = brokerObj;
-		    
-		    registry.bind("remotePub", remoteObjPub);
-		    registry.bind("remoteSub", remoteObjSub);
-		    registry.bind("remoteBroker", remoteObjBroker);
-		    
-			
-			// Notify other brokers of connection, and send remote object over
-			if (!connectedBrokers.isEmpty()) {
-				for (IRemoteBroker connectedBroker : connectedBrokers) {
-                    connectedBroker.receiveConnection(brokerPort);
-                }
-            } 
-			    
-		    System.out.println("Broker server ready");
-		    System.out.println("Remote interfaces bound to port: " + brokerPort);
+			start(dirPort, ip, brokerPort);
 			
 		} catch (NumberFormatException e) {
 			System.out.println("Error: Invalid format for directory or broker port.");
@@ -105,7 +67,114 @@ public class Broker {
 		    System.out.println("Remote object already bound.");
 		} catch (NotBoundException e) {
 			System.out.println("Remote object not found.");
+		} catch (IOException e) {
+			System.out.println("Failed to start message log or data plane. " + e.getMessage());
 		} 
 
 	}
+	
+	/**
+     * Starts a broker on its own registry: connects it to the brokers already registered
+     * with the directory, binds its remote interfaces and tells the other brokers about it.
+     * Each broker started gets its own peer links, dispatcher and publisher topics, so
+     * several can run in one JVM. The remote interfaces are bound behind a proxy that
+     * counts and times every call, and the broker's metrics are exported over JMX under
+     * its port.
+     *
+     * @param dirPort The directory's registry port, on this host.
+     * @param ip The broker's IP address, registered with the directory.
+     * @param brokerPort The port of the broker's registry, created here.
+     * @return The started broker.
+     * @throws RemoteException If the directory or another broker cannot be reached.
+     * @throws NotBoundException If the directory or another broker has not bound its remote objects.
+     * @throws AlreadyBoundException If the broker's registry already has its remote objects.
+     * @throws IOException If the message log or data plane cannot be started.
+     */
+	public static RemoteBroker start(int dirPort, String ip, int brokerPort) throws RemoteException, NotBoundException, AlreadyBoundException, IOException {
+		Map<Integer, PeerForwarder> connectedBrokers = new ConcurrentHashMap<>();
+		
+		Registry registry = LocateRegistry.createRegistry(brokerPort);
+		Registry dirRegistry = LocateRegistry.getRegistry(dirPort);
+		IRemoteDir directory = (IRemoteDir) dirRegistry.lookup("directory");
+		IRemoteTopic topicList = (IRemoteTopic) dirRegistry.lookup("topics");
+		
+		List<Integer> activeBrokers = directory.registerBroker(ip, brokerPort);
+		if(!activeBrokers.isEmpty()) {
+			for (Integer port:activeBrokers) {
+				Registry otherBrokerRegistry = LocateRegistry.getRegistry(port);
+				IRemoteBroker otherBroker = (IRemoteBroker) otherBrokerRegistry.lookup("remoteBroker");
+				connectedBrokers.put(port, new PeerForwarder(brokerPort, port, otherBroker));
+			}
+			System.out.println();
+		}
+			
+	    
+	    RemoteBroker brokerObj = new RemoteBroker(brokerPort, connectedBrokers, topicList, new DeliveryDispatcher(), new ConcurrentHashMap<>());
+	    if (BrokerConfig.LOG_DIR != null) {
+	    	brokerObj.openMessageLog(new File(BrokerConfig.LOG_DIR, Integer.toString(brokerPort)));
+	    }
+	    if (BrokerConfig.NIO_TRANSPORT) {
+	    	brokerObj.startDataPlane(BrokerConfig.DATA_PORT);  // Before peers are told, so they can connect to it
+	    }
+	    brokerObj.startLeaseExpiry();
+	    topicList.addTopicListener(brokerObj);  // Directory sends existing topics, then every change
+
+	    // Clients and peers call the broker through a proxy that counts and times each call
+	    BrokerMetrics metrics = brokerObj.getMetrics();
+	    RemoteCallMetrics calls = new RemoteCallMetrics(metrics.getRegistry());
+	    Remote proxy = calls.instrument(brokerObj, IRemoteBPub.class, IRemoteBSub.class, IRemoteBroker.class);
+	    EXPORTED.put(brokerPort, new Exported(registry, brokerObj, proxy));
+	    Remote instrumented = UnicastRemoteObject.exportObject(proxy, 0);
+	    metrics.getRegistry().register(metrics);
+	    metrics.getRegistry().register("RemoteCalls", calls);
+	    
+	    registry.bind("remotePub", instrumented);
+	    registry.bind("remoteSub", instrumented);
+	    registry.bind("remoteBroker", instrumented);
+	    
+		
+		// Notify other brokers of connection, and send remote object over
+		if (!connectedBrokers.isEmpty()) {
+			for (PeerForwarder connectedBroker : connectedBrokers.values()) {
+                connectedBroker.getPeer().receiveConnection(brokerPort);
+            }
+        } 
+		    
+	    System.out.println("Broker server ready");
+	    System.out.println("Remote interfaces bound to port: " + brokerPort);
+	    return brokerObj;
+	}
+	
+	/**
+	 * Stops a broker started in this JVM: stops its threads and unexports its remote
+	 * interfaces and registry. Peers and clients still connected to it can no longer
+	 * reach it, and the directory keeps it registered.
+	 *
+	 * @param brokerPort The port of the broker's registry.
+	 * @throws NoSuchObjectException If the broker's remote objects were already unexported.
+	 */
+	public static void stop(int brokerPort) throws NoSuchObjectException {
+		Exported exported = EXPORTED.remove(brokerPort);
+		if (exported == null) {
+			return;
+		}
+		exported.broker.shutdown();
+		UnicastRemoteObject.unexportObject(exported.proxy, true);
+		UnicastRemoteObject.unexportObject(exported.broker, true);
+		UnicastRemoteObject.unexportObject(exported.registry, true);
+		System.out.println("Broker on port " + brokerPort + " stopped");
+	}
+	
+	// What a broker started in this JVM exported
+	private static final class Exported {
+		final Registry registry;
+		final RemoteBroker broker;
+		final Remote proxy;
+
+		Exported(Registry registry, RemoteBroker broker, Remote proxy) {
+			this.registry = registry;
+			this.broker = broker;
+			this.proxy = proxy;
+		}
+	}
 }
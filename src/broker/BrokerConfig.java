@@ -0,0 +1,102 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+/**
+ * Tunable broker settings. Values are read once from system properties so the
+ * broker command line stays unchanged, e.g.
+ * "java -Dbroker.queueCapacity=5000 -jar broker.jar directory_ip directory_port ip port".
+ */
+final class BrokerConfig {
+
+	// Maximum number of undelivered messages held for a single subscriber
+	static final int QUEUE_CAPACITY = Integer.getInteger("broker.queueCapacity", 10000);
+
+	// Maximum bytes of undelivered messages held for a single subscriber, -1 for no limit
+	static final long QUEUE_MAX_BYTES = Long.getLong("broker.queueMaxBytes", 32L << 20);
+
+	// What to do when a subscriber's queue is at either limit: drop-newest, drop-oldest, disconnect or conflate
+	static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.parse(System.getProperty("broker.overflowPolicy", "drop-newest"), OverflowPolicy.DROP_NEWEST);
+
+	// Number of threads draining subscriber queues
+	static final int DISPATCH_THREADS = Integer.getInteger("broker.dispatchThreads", 16);
+
+	// Maximum number of queued messages sent to a subscriber in one call
+	static final int BATCH_SIZE = Integer.getInteger("broker.batchSize", 256);
+
+	// Time in milliseconds a partially filled batch waits for more messages before it is sent
+	static final long BATCH_LINGER = Long.getLong("broker.batchLinger", 0L);
+
+	// Number of lock stripes serializing operations on the same topic
+	static final int LOCK_STRIPES = Integer.getInteger("broker.lockStripes", 64);
+
+	// Time in milliseconds a publish batch that arrived early waits for the publisher's earlier batches
+	static final long BATCH_ORDER_TIMEOUT = Long.getLong("broker.batchOrderTimeout", 2000L);
+
+	// Maximum number of messages waiting to be forwarded to a single peer broker
+	static final int PEER_QUEUE_CAPACITY = Integer.getInteger("broker.peerQueueCapacity", 50000);
+
+	// Time in milliseconds a publish waits for room in a full peer forwarding queue before the message is dropped for that peer
+	static final long PEER_OFFER_TIMEOUT = Long.getLong("broker.peerOfferTimeout", 1000L);
+
+	// Maximum number of messages sent to a peer broker in one call
+	static final int PEER_BATCH_SIZE = Integer.getInteger("broker.peerBatchSize", 512);
+
+	// Time in milliseconds a partially filled batch for a peer broker waits for more messages
+	static final long PEER_BATCH_LINGER = Long.getLong("broker.peerBatchLinger", 0L);
+
+	// Maximum time in milliseconds a topic deletion waits for its final notice to reach peer brokers, and a subscription for peers to learn of it
+	static final long PEER_FLUSH_TIMEOUT = Long.getLong("broker.peerFlushTimeout", 2000L);
+
+	// Upper bound in milliseconds on the delay between retries to an unreachable peer broker
+	static final long PEER_MAX_BACKOFF = Long.getLong("broker.peerMaxBackoff", 5000L);
+
+	// Time in milliseconds without a heartbeat or other request after which a client is treated as crashed and disconnected
+	static final long LEASE_TIMEOUT = Long.getLong("broker.leaseTimeout", 10000L);
+
+	// Resolution in milliseconds of client lease expiry
+	static final long LEASE_TICK = Long.getLong("broker.leaseTick", 100L);
+
+	// Longest time in milliseconds a subscriber in pull mode may wait in a single poll
+	static final long MAX_POLL_WAIT = Long.getLong("broker.maxPollWait", 30000L);
+
+	// Message transport, "rmi" or "nio" to also serve publishes, forwarding and deliveries over the socket data plane
+	static final boolean NIO_TRANSPORT = "nio".equalsIgnoreCase(System.getProperty("broker.transport", "rmi"));
+
+	// Port of the socket data plane, 0 picks a free port that clients look up through RMI
+	static final int DATA_PORT = Integer.getInteger("broker.dataPort", 0);
+
+	// Number of threads handling data plane frames, a connection whose frames wait on a busy pool stops being read
+	static final int DATA_WORKERS = Integer.getInteger("broker.dataWorkers", 16);
+
+	// Directory of the on-disk message log, each broker logs under a subdirectory named after its port; unset disables the log
+	static final String LOG_DIR = System.getProperty("broker.logDir");
+
+	// Size in bytes of a message log segment file
+	static final int LOG_SEGMENT_BYTES = Integer.getInteger("broker.logSegmentBytes", 64 << 20);
+
+	// Age in milliseconds after which a message log segment is closed and a new one started
+	static final long LOG_SEGMENT_MILLIS = Long.getLong("broker.logSegmentMillis", 3600000L);
+
+	// Time in milliseconds a closed log segment is kept after its last message, -1 keeps segments regardless of age
+	static final long LOG_RETENTION_MILLIS = Long.getLong("broker.logRetentionMillis", 7 * 24 * 3600000L);
+
+	// Bytes of closed and active segments kept per topic before the oldest are deleted, -1 for no limit
+	static final long LOG_RETENTION_BYTES = Long.getLong("broker.logRetentionBytes", -1L);
+
+	// Time in milliseconds between forcing logged messages to disk
+	static final long LOG_FLUSH_INTERVAL = Long.getLong("broker.logFlushInterval", 50L);
+
+	// Number of logged messages that triggers a flush before the interval has passed
+	static final long LOG_FLUSH_MESSAGES = Long.getLong("broker.logFlushMessages", 10000L);
+
+	// Bytes of retained last messages kept across all topics, 0 disables the retained cache
+	static final long RETAINED_MAX_BYTES = Long.getLong("broker.retainedMaxBytes", 64L << 20);
+
+	// Time in milliseconds between sending retained messages to peers without subscribers to their topics
+	static final long RETAINED_SYNC_INTERVAL = Long.getLong("broker.retainedSyncInterval", 200L);
+
+	private BrokerConfig() {
+	}
+}
@@ -0,0 +1,352 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import metrics.LatencySummary;
+import metrics.Meter;
+import metrics.MetricsRegistry;
+import metrics.StripedHistogram;
+import remote.Envelope;
+import util.IntObjectHashMap;
+
+/**
+ * Metrics of one broker, read over JMX through {@link BrokerMetricsMXBean}. Counters
+ * updated for every message are {@link Meter}s, {@link LongAdder}s and
+ * {@link StripedHistogram}s, so publishing and delivery threads do not contend on them.
+ * Queue depths and forwarding lag are read from the dispatcher and peer links when asked
+ * for, and cost nothing in between.
+ * <p>
+ * Topics get their meters when the broker learns of them and lose them when they are
+ * deleted, messages of unknown topics are not counted per topic.
+ */
+public class BrokerMetrics implements BrokerMetricsMXBean {
+
+	private final MetricsRegistry registry;
+	private final DeliveryDispatcher dispatcher;
+	private final Map<Integer, PeerForwarder> peers;
+	private final IntObjectHashMap<TopicMeters> topics = new IntObjectHashMap<>();
+	private final StripedHistogram fanoutLatency = new StripedHistogram();  // Nanoseconds
+	private final StripedHistogram deliveryLatency = new StripedHistogram();  // Microseconds
+	private final LongAdder publisherExpirations = new LongAdder();
+	private final LongAdder subscriberExpirations = new LongAdder();
+
+	/**
+	 * Constructs the metrics of a broker.
+	 *
+	 * @param brokerPort The registry port of the broker, which names its MBeans.
+	 * @param dispatcher The broker's delivery dispatcher, for subscriber queue depths.
+	 * @param peers      The broker's links to its peers, keyed by peer port.
+	 */
+	BrokerMetrics(int brokerPort, DeliveryDispatcher dispatcher, Map<Integer, PeerForwarder> peers) {
+		this.registry = new MetricsRegistry("Broker", brokerPort);
+		this.dispatcher = dispatcher;
+		this.peers = peers;
+	}
+
+	/**
+	 * Returns the registry the broker's MBeans are exported through.
+	 *
+	 * @return The registry.
+	 */
+	MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Starts counting a topic's messages.
+	 *
+	 * @param topicId The ID of the topic.
+	 */
+	void addTopic(int topicId) {
+		topics.computeIfAbsent(topicId, id -> new TopicMeters(registry.newMeter(), registry.newMeter()));
+	}
+
+	/**
+	 * Stops counting a deleted topic's messages.
+	 *
+	 * @param topicId The ID of the topic.
+	 */
+	void removeTopic(int topicId) {
+		TopicMeters meters = topics.remove(topicId);
+		if (meters != null) {
+			registry.removeMeter(meters.published);
+			registry.removeMeter(meters.delivered);
+		}
+	}
+
+	/**
+	 * Counts messages published through this broker.
+	 *
+	 * @param topicId The ID of the messages' topic.
+	 * @param count   The number of messages.
+	 */
+	void published(int topicId, int count) {
+		TopicMeters meters = topics.get(topicId);
+		if (meters != null) {
+			meters.published.mark(count);
+		}
+	}
+
+	/**
+	 * Records the time taken to queue a message for its local subscribers.
+	 *
+	 * @param nanos The time in nanoseconds.
+	 */
+	void fannedOut(long nanos) {
+		fanoutLatency.record(nanos);
+	}
+
+	/**
+	 * Counts a batch of messages handed to a subscriber and records their latency since publishing.
+	 *
+	 * @param batch The messages, in delivery order.
+	 */
+	void delivered(List<Envelope> batch) {
+		long now = Envelope.now();
+		int start = 0;
+		while (start < batch.size()) {
+			int topicId = batch.get(start).getTopicId();
+			int end = start;
+			while (end < batch.size() && batch.get(end).getTopicId() == topicId) {
+				deliveryLatency.record(now - batch.get(end).getOriginTime());
+				end++;
+			}
+			TopicMeters meters = topics.get(topicId);
+			if (meters != null) {
+				meters.delivered.mark(end - start);  // One update for each run of a topic
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Counts a publisher disconnected for letting its lease expire.
+	 */
+	void publisherExpired() {
+		publisherExpirations.increment();
+	}
+
+	/**
+	 * Counts a subscriber disconnected for letting its lease expire.
+	 */
+	void subscriberExpired() {
+		subscriberExpirations.increment();
+	}
+
+	/**
+	 * Returns the messages publishers connected to this broker published to each topic.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	@Override
+	public Map<Integer, Long> getTopicPublishCounts() {
+		Map<Integer, Long> counts = new TreeMap<>();
+		for (int topicId : topics.keys()) {
+			TopicMeters meters = topics.get(topicId);
+			if (meters != null) {
+				counts.put(topicId, meters.published.getCount());
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the recent publish rate of each topic on this broker.
+	 *
+	 * @return Messages per second, keyed by topic ID.
+	 */
+	@Override
+	public Map<Integer, Double> getTopicPublishRates() {
+		Map<Integer, Double> rates = new TreeMap<>();
+		for (int topicId : topics.keys()) {
+			TopicMeters meters = topics.get(topicId);
+			if (meters != null) {
+				rates.put(topicId, meters.published.getRate());
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Returns the messages of each topic handed to subscribers connected to this broker.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	@Override
+	public Map<Integer, Long> getTopicDeliveryCounts() {
+		Map<Integer, Long> counts = new TreeMap<>();
+		for (int topicId : topics.keys()) {
+			TopicMeters meters = topics.get(topicId);
+			if (meters != null) {
+				counts.put(topicId, meters.delivered.getCount());
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the recent delivery rate of each topic on this broker.
+	 *
+	 * @return Messages per second, keyed by topic ID.
+	 */
+	@Override
+	public Map<Integer, Double> getTopicDeliveryRates() {
+		Map<Integer, Double> rates = new TreeMap<>();
+		for (int topicId : topics.keys()) {
+			TopicMeters meters = topics.get(topicId);
+			if (meters != null) {
+				rates.put(topicId, meters.delivered.getRate());
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Returns the time taken to queue a message for every local subscriber of its topic.
+	 *
+	 * @return The latency in nanoseconds, of messages with at least one local subscriber.
+	 */
+	@Override
+	public LatencySummary getFanoutLatencyNanos() {
+		return LatencySummary.of(fanoutLatency.snapshot());
+	}
+
+	/**
+	 * Returns the time from a message being published to it being handed to a local
+	 * subscriber. Messages published on other brokers include the forwarding hop.
+	 *
+	 * @return The latency in microseconds.
+	 */
+	@Override
+	public LatencySummary getDeliveryLatencyMicros() {
+		return LatencySummary.of(deliveryLatency.snapshot());
+	}
+
+	/**
+	 * Returns the number of messages waiting in each local subscriber's queue.
+	 *
+	 * @return The depths, keyed by subscriber name.
+	 */
+	@Override
+	public Map<String, Integer> getSubscriberQueueDepths() {
+		return new TreeMap<>(dispatcher.getQueueDepths());
+	}
+
+	/**
+	 * Returns the encoded size of the messages waiting in each local subscriber's queue.
+	 *
+	 * @return The bytes, keyed by subscriber name.
+	 */
+	@Override
+	public Map<String, Long> getSubscriberQueueBytes() {
+		return new TreeMap<>(dispatcher.getQueuedBytes());
+	}
+
+	/**
+	 * Returns the messages the overflow policy discarded for each subscriber.
+	 *
+	 * @return The counts, keyed by subscriber name.
+	 */
+	@Override
+	public Map<String, Long> getSubscriberDroppedMessages() {
+		Map<String, Long> dropped = new TreeMap<>();
+		for (Map.Entry<String, OverflowCounters> entry : dispatcher.getOverflowCounters().entrySet()) {
+			dropped.put(entry.getKey(), entry.getValue().getDroppedNewest() + entry.getValue().getDroppedOldest());
+		}
+		return dropped;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be forwarded to each peer broker.
+	 *
+	 * @return The depths, keyed by peer broker port.
+	 */
+	@Override
+	public Map<Integer, Long> getPeerQueueDepths() {
+		Map<Integer, Long> depths = new TreeMap<>();
+		for (Map.Entry<Integer, PeerForwarder> entry : peers.entrySet()) {
+			depths.put(entry.getKey(), entry.getValue().getUnsentCount());
+		}
+		return depths;
+	}
+
+	/**
+	 * Returns the messages dropped for each peer broker because its forwarding queue stayed full.
+	 *
+	 * @return The counts, keyed by peer broker port.
+	 */
+	@Override
+	public Map<Integer, Long> getPeerDroppedMessages() {
+		Map<Integer, Long> dropped = new TreeMap<>();
+		for (Map.Entry<Integer, PeerForwarder> entry : peers.entrySet()) {
+			dropped.put(entry.getKey(), entry.getValue().getDroppedCount());
+		}
+		return dropped;
+	}
+
+	/**
+	 * Returns how far forwarding to each peer broker is behind: the age of the oldest
+	 * message the peer has not yet accepted.
+	 *
+	 * @return The lag in microseconds, 0 when nothing is waiting, keyed by peer broker port.
+	 */
+	@Override
+	public Map<Integer, Long> getPeerForwardingLagMicros() {
+		Map<Integer, Long> lags = new TreeMap<>();
+		for (Map.Entry<Integer, PeerForwarder> entry : peers.entrySet()) {
+			lags.put(entry.getKey(), entry.getValue().getLagMicros());
+		}
+		return lags;
+	}
+
+	/**
+	 * Returns the time from a message being published to each peer broker accepting it.
+	 *
+	 * @return The latency in microseconds, keyed by peer broker port.
+	 */
+	@Override
+	public Map<Integer, LatencySummary> getPeerForwardingLatencyMicros() {
+		Map<Integer, LatencySummary> latencies = new TreeMap<>();
+		for (Map.Entry<Integer, PeerForwarder> entry : peers.entrySet()) {
+			latencies.put(entry.getKey(), LatencySummary.of(entry.getValue().getForwardingLatency()));
+		}
+		return latencies;
+	}
+
+	/**
+	 * Returns the number of publishers disconnected for letting their lease expire.
+	 *
+	 * @return The count.
+	 */
+	@Override
+	public long getPublisherHeartbeatExpirations() {
+		return publisherExpirations.sum();
+	}
+
+	/**
+	 * Returns the number of subscribers disconnected for letting their lease expire.
+	 *
+	 * @return The count.
+	 */
+	@Override
+	public long getSubscriberHeartbeatExpirations() {
+		return subscriberExpirations.sum();
+	}
+
+	// Publish and delivery meters of one topic
+	private static final class TopicMeters {
+		final Meter published;
+		final Meter delivered;
+
+		TopicMeters(Meter published, Meter delivered) {
+			this.published = published;
+			this.delivered = delivered;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.Map;
+
+import metrics.LatencySummary;
+
+/**
+ * Management interface of a broker's {@link BrokerMetrics}, exported over JMX as
+ * "pubsub:type=Broker,port=&lt;broker port&gt;". Counts and latencies are since the
+ * broker started, rates are averaged over about the last minute.
+ */
+public interface BrokerMetricsMXBean {
+
+	/**
+	 * Returns the messages publishers connected to this broker published to each topic.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	Map<Integer, Long> getTopicPublishCounts();
+
+	/**
+	 * Returns the recent publish rate of each topic on this broker.
+	 *
+	 * @return Messages per second, keyed by topic ID.
+	 */
+	Map<Integer, Double> getTopicPublishRates();
+
+	/**
+	 * Returns the messages of each topic handed to subscribers connected to this broker.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	Map<Integer, Long> getTopicDeliveryCounts();
+
+	/**
+	 * Returns the recent delivery rate of each topic on this broker.
+	 *
+	 * @return Messages per second, keyed by topic ID.
+	 */
+	Map<Integer, Double> getTopicDeliveryRates();
+
+	/**
+	 * Returns the time taken to queue a message for every local subscriber of its topic.
+	 *
+	 * @return The latency in nanoseconds, of messages with at least one local subscriber.
+	 */
+	LatencySummary getFanoutLatencyNanos();
+
+	/**
+	 * Returns the time from a message being published to it being handed to a local
+	 * subscriber. Messages published on other brokers include the forwarding hop.
+	 *
+	 * @return The latency in microseconds.
+	 */
+	LatencySummary getDeliveryLatencyMicros();
+
+	/**
+	 * Returns the number of messages waiting in each local subscriber's queue.
+	 *
+	 * @return The depths, keyed by subscriber name.
+	 */
+	Map<String, Integer> getSubscriberQueueDepths();
+
+	/**
+	 * Returns the encoded size of the messages waiting in each local subscriber's queue.
+	 *
+	 * @return The bytes, keyed by subscriber name.
+	 */
+	Map<String, Long> getSubscriberQueueBytes();
+
+	/**
+	 * Returns the messages the overflow policy discarded for each subscriber.
+	 *
+	 * @return The counts, keyed by subscriber name.
+	 */
+	Map<String, Long> getSubscriberDroppedMessages();
+
+	/**
+	 * Returns the number of messages waiting to be forwarded to each peer broker.
+	 *
+	 * @return The depths, keyed by peer broker port.
+	 */
+	Map<Integer, Long> getPeerQueueDepths();
+
+	/**
+	 * Returns the messages dropped for each peer broker because its forwarding queue stayed full.
+	 *
+	 * @return The counts, keyed by peer broker port.
+	 */
+	Map<Integer, Long> getPeerDroppedMessages();
+
+	/**
+	 * Returns how far forwarding to each peer broker is behind: the age of the oldest
+	 * message the peer has not yet accepted.
+	 *
+	 * @return The lag in microseconds, 0 when nothing is waiting, keyed by peer broker port.
+	 */
+	Map<Integer, Long> getPeerForwardingLagMicros();
+
+	/**
+	 * Returns the time from a message being published to each peer broker accepting it.
+	 *
+	 * @return The latency in microseconds, keyed by peer broker port.
+	 */
+	Map<Integer, LatencySummary> getPeerForwardingLatencyMicros();
+
+	/**
+	 * Returns the number of publishers disconnected for letting their lease expire.
+	 *
+	 * @return The count.
+	 */
+	long getPublisherHeartbeatExpirations();
+
+	/**
+	 * Returns the number of subscribers disconnected for letting their lease expire.
+	 *
+	 * @return The count.
+	 */
+	long getSubscriberHeartbeatExpirations();
+}
@@ -0,0 +1,43 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.IOException;
+import java.util.List;
+
+import remote.Envelope;
+import transport.Connection;
+import transport.Frames;
+
+/**
+ * Delivers messages to a subscriber over its data-plane connection, one MESSAGES frame per batch.
+ */
+class ConnectionSink implements MessageSink {
+
+	private final Connection connection;
+
+	/**
+	 * Constructs a sink for the given connection.
+	 *
+	 * @param connection The subscriber's data-plane connection.
+	 */
+	ConnectionSink(Connection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public void send(List<Envelope> messages) throws IOException {
+		connection.send(Frames.messages(messages));
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof ConnectionSink && ((ConnectionSink) other).connection == connection;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(connection);
+	}
+}
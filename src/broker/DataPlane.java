@@ -0,0 +1,108 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import remote.Envelope;
+import transport.Connection;
+import transport.DataHandler;
+import transport.DataServer;
+import transport.Frames;
+
+/**
+ * The broker's end of the data plane. Publishes, messages forwarded by peer brokers
+ * and deliveries to subscribers travel over length-prefixed frames on plain sockets
+ * instead of RMI calls, while topic management stays on RMI. Publishes and forwarded
+ * messages go through the same broker logic as their RMI counterparts.
+ */
+class DataPlane implements DataHandler {
+
+	private final RemoteBroker broker;
+	private final DataServer server;
+	private final Map<String, Connection> subscribers = new ConcurrentHashMap<>();
+
+	/**
+	 * Binds the data port and starts accepting connections.
+	 *
+	 * @param port   The data port, or 0 for any free port.
+	 * @param broker The broker handling publishes and forwarded messages.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	DataPlane(int port, RemoteBroker broker) throws IOException {
+		this.broker = broker;
+		this.server = new DataServer(port, BrokerConfig.DATA_WORKERS, this);
+		server.start();
+	}
+
+	/**
+	 * Returns the port clients and peer brokers connect to.
+	 *
+	 * @return The data port.
+	 */
+	int getPort() {
+		return server.getPort();
+	}
+
+	/**
+	 * Stops accepting connections and closes every open one.
+	 */
+	void close() {
+		server.close();
+	}
+
+	/**
+	 * Returns a sink delivering to a subscriber's data-plane connection.
+	 *
+	 * @param subName The name of the subscriber.
+	 * @return The sink, or null if the subscriber has no open data-plane connection.
+	 */
+	MessageSink sinkFor(String subName) {
+		Connection connection = subscribers.get(subName);
+		return connection == null || connection.isClosed() ? null : new ConnectionSink(connection);
+	}
+
+	@Override
+	public void connected(Connection connection) {
+		if (connection.getRole() == Frames.ROLE_SUBSCRIBER) {
+			Connection previous = subscribers.put(connection.getName(), connection);
+			if (previous != null) {
+				previous.close();  // Subscriber reconnected
+			}
+		}
+		System.out.println("Data connection opened by " + connection.getName());
+	}
+
+	@Override
+	public String publish(Connection connection, int topicId, byte[] payload) {
+		if (connection.getRole() != Frames.ROLE_PUBLISHER) {
+			return "ERROR: Only publishers can publish.\n";
+		}
+		return broker.publish(topicId, payload, connection.getName());
+	}
+
+	@Override
+	public void messagesReceived(Connection connection, List<Envelope> messages) {
+		if (connection.getRole() != Frames.ROLE_BROKER) {
+			System.out.println("Ignoring " + messages.size() + " message(s) sent by non-broker " + connection.getName());
+			return;
+		}
+		try {
+			broker.receiveMessagesFromBroker(messages);
+		} catch (RemoteException e) {
+			System.out.println("Failed to accept messages from broker port " + connection.getName() + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		if (connection.getRole() == Frames.ROLE_SUBSCRIBER) {
+			subscribers.remove(connection.getName(), connection);
+		}
+	}
+}
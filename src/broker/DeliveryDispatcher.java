@@ -0,0 +1,319 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import remote.Envelope;
+import remote.IRemoteSub;
+
+/**
+ * The DeliveryDispatcher decouples publishing from delivery. Each subscriber connected
+ * to this broker gets its own bounded {@link SubscriberQueue}, drained by a shared pool
+ * of workers, so publishing a message only enqueues it and returns. Queued messages
+ * are delivered in batches through {@link IRemoteSub#receiveMessages(java.util.List)},
+ * or as frames over the subscriber's data-plane connection. Subscribers in pull mode
+ * have a queue without a sink and fetch their messages with {@link #poll(String, int, long)}.
+ * <p>
+ * The dispatcher also keeps the {@link DurableCursor} of every subscriber with durable
+ * subscriptions. Cursors outlive the subscriber's queue, so when the subscriber returns
+ * its new queue catches up from the broker's message log before going live.
+ * <p>
+ * Queues are bounded by message count and bytes, and apply the configured
+ * {@link OverflowPolicy} to a subscriber that falls behind. The dispatcher keeps every
+ * subscriber's {@link OverflowCounters} and logs those that changed every report interval.
+ */
+public class DeliveryDispatcher {
+
+	// Time in milliseconds between logging the overflow counts of subscribers that hit their queue limits
+	private static final long OVERFLOW_REPORT_INTERVAL = 10000;
+
+	private final Map<String, SubscriberQueue> queues = new ConcurrentHashMap<>();
+	private final Map<String, DurableCursor> cursors = new ConcurrentHashMap<>();
+	private volatile MessageLog log;  // Null until the broker opens its message log
+	private final ScheduledExecutorService workers;
+	private final int queueCapacity;
+	private final long queueMaxBytes;
+	private final OverflowPolicy overflowPolicy;
+	private final Map<String, OverflowCounters> overflowCounters = new ConcurrentHashMap<>();
+	private volatile Consumer<String> disconnectHandler;  // Set by the broker, removes a subscriber the overflow policy disconnects
+	private volatile BiConsumer<String, List<Envelope>> deliveryListener;  // Set by the broker, counts what subscribers were handed and renews their leases
+	private final int maxBatch;
+	private final long lingerMillis;
+
+	/**
+	 * Constructs a dispatcher using the broker's configured pool size, queue limits, overflow policy and batching.
+	 */
+	public DeliveryDispatcher() {
+		this(BrokerConfig.DISPATCH_THREADS, BrokerConfig.QUEUE_CAPACITY, BrokerConfig.QUEUE_MAX_BYTES, BrokerConfig.OVERFLOW_POLICY, BrokerConfig.BATCH_SIZE, BrokerConfig.BATCH_LINGER);
+	}
+
+	/**
+	 * Constructs a dispatcher with the given pool size and per-subscriber queue limits.
+	 *
+	 * @param threads        The number of delivery worker threads.
+	 * @param queueCapacity  The maximum number of undelivered messages per subscriber.
+	 * @param queueMaxBytes  The maximum encoded size of undelivered messages per subscriber, or -1 for no limit.
+	 * @param overflowPolicy What to do with a message for a subscriber whose queue is at a limit.
+	 * @param maxBatch       The maximum number of messages sent to a subscriber in one call.
+	 * @param lingerMillis   The time a partially filled batch waits for more messages.
+	 */
+	DeliveryDispatcher(int threads, int queueCapacity, long queueMaxBytes, OverflowPolicy overflowPolicy, int maxBatch, long lingerMillis) {
+		AtomicInteger count = new AtomicInteger();
+		this.workers = Executors.newScheduledThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "delivery-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.queueCapacity = queueCapacity;
+		this.queueMaxBytes = queueMaxBytes;
+		this.overflowPolicy = overflowPolicy;
+		this.maxBatch = maxBatch;
+		this.lingerMillis = lingerMillis;
+		this.workers.scheduleWithFixedDelay(this::reportOverflows, OVERFLOW_REPORT_INTERVAL, OVERFLOW_REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers a subscriber's callback object, replacing the queue if the subscriber
+	 * reconnected with a new remote object.
+	 *
+	 * @param subName   The name of the subscriber.
+	 * @param remoteSub The remote subscriber object.
+	 */
+	public void register(String subName, IRemoteSub remoteSub) {
+		register(subName, new RemoteSubSink(remoteSub));
+	}
+
+	/**
+	 * Registers where a subscriber's messages are sent, replacing the queue if the
+	 * subscriber reconnected, switched between RMI and the data plane, or its queue
+	 * closed after failing to reach it.
+	 *
+	 * @param subName The name of the subscriber.
+	 * @param sink    The subscriber's RMI callback or data-plane connection, or null if the subscriber polls.
+	 */
+	void register(String subName, MessageSink sink) {
+		queues.compute(subName, (name, existing) -> {
+			if (existing != null && !existing.isClosed() && Objects.equals(existing.getSink(), sink)) {
+				return existing;
+			}
+			if (existing != null) {
+				existing.close();
+			}
+			OverflowCounters counters = overflowCounters.computeIfAbsent(name, key -> new OverflowCounters());
+			return new SubscriberQueue(name, sink, cursors.get(name), log, workers, queueCapacity, queueMaxBytes, overflowPolicy, counters, () -> disconnect(name), batch -> delivered(name, batch), queue -> queues.remove(name, queue), maxBatch, lingerMillis);
+		});
+	}
+
+	/**
+	 * Sets how a subscriber disconnected by the overflow policy is removed from the broker.
+	 *
+	 * @param handler Called with the subscriber's name on a delivery worker.
+	 */
+	void setDisconnectHandler(Consumer<String> handler) {
+		this.disconnectHandler = handler;
+	}
+
+	/**
+	 * Sets what is told of every batch of messages handed to a subscriber.
+	 *
+	 * @param listener Called with the subscriber's name and each batch on the thread that delivered it, after delivery.
+	 */
+	void setDeliveryListener(BiConsumer<String, List<Envelope>> listener) {
+		this.deliveryListener = listener;
+	}
+
+	/**
+	 * Returns the number of undelivered messages of every connected subscriber.
+	 *
+	 * @return The queue depths, keyed by subscriber name.
+	 */
+	Map<String, Integer> getQueueDepths() {
+		Map<String, Integer> depths = new HashMap<>();
+		for (Map.Entry<String, SubscriberQueue> entry : queues.entrySet()) {
+			depths.put(entry.getKey(), entry.getValue().size());
+		}
+		return depths;
+	}
+
+	/**
+	 * Returns the encoded size of the undelivered messages of every connected subscriber.
+	 *
+	 * @return The queued bytes, keyed by subscriber name.
+	 */
+	Map<String, Long> getQueuedBytes() {
+		Map<String, Long> bytes = new HashMap<>();
+		for (Map.Entry<String, SubscriberQueue> entry : queues.entrySet()) {
+			bytes.put(entry.getKey(), entry.getValue().getPendingBytes());
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the overflow counts of every subscriber that has had a queue on this broker.
+	 *
+	 * @return The counts, keyed by subscriber name.
+	 */
+	Map<String, OverflowCounters> getOverflowCounters() {
+		return Collections.unmodifiableMap(overflowCounters);
+	}
+
+	/**
+	 * Sets the message log durable subscribers catch up from.
+	 *
+	 * @param log The broker's message log.
+	 */
+	void setMessageLog(MessageLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Records a durable subscription. Call before registering the subscriber's sink.
+	 *
+	 * @param subName The name of the subscriber.
+	 * @param topicId The ID of the topic.
+	 * @param offset  The sequence number of the last message logged for the topic, delivery starts after it.
+	 */
+	void addDurable(String subName, int topicId, long offset) {
+		DurableCursor cursor = cursors.computeIfAbsent(subName, name -> new DurableCursor());
+		cursor.subscribe(topicId, offset);
+		SubscriberQueue queue = queues.get(subName);
+		if (queue != null) {
+			queue.setCursor(cursor);
+		}
+	}
+
+	/**
+	 * Removes a durable subscription, after an unsubscribe.
+	 *
+	 * @param subName The name of the subscriber.
+	 * @param topicId The ID of the topic.
+	 */
+	void removeDurable(String subName, int topicId) {
+		cursors.computeIfPresent(subName, (name, cursor) -> cursor.unsubscribe(topicId) ? null : cursor);
+	}
+
+	/**
+	 * Removes every durable subscription to a topic, after the topic is deleted.
+	 *
+	 * @param topicId The ID of the topic.
+	 */
+	void removeDurableTopic(int topicId) {
+		for (String subName : cursors.keySet()) {
+			removeDurable(subName, topicId);
+		}
+	}
+
+	/**
+	 * Returns the topics a subscriber has durable subscriptions to.
+	 *
+	 * @param subName The name of the subscriber.
+	 * @return The topic IDs, empty if there are none.
+	 */
+	int[] getDurableTopics(String subName) {
+		DurableCursor cursor = cursors.get(subName);
+		return cursor == null ? new int[0] : cursor.getTopics();
+	}
+
+	/**
+	 * Removes a subscriber and discards its undelivered messages. Its durable
+	 * subscriptions are kept, with offsets at the last messages it was handed.
+	 *
+	 * @param subName The name of the subscriber.
+	 */
+	public void remove(String subName) {
+		SubscriberQueue queue = queues.remove(subName);
+		if (queue != null) {
+			queue.close();
+		}
+	}
+
+	/**
+	 * Queues a message for a subscriber if it is connected to this broker.
+	 *
+	 * @param subName The name of the subscriber.
+	 * @param message The message to deliver.
+	 * @return true if the message was queued.
+	 */
+	public boolean deliver(String subName, Envelope message) {
+		return deliver(subName, message, false);
+	}
+
+	/**
+	 * Queues a message for a subscriber if it is connected to this broker, replacing an
+	 * undelivered message of the same topic if the topic is conflated.
+	 *
+	 * @param subName  The name of the subscriber.
+	 * @param message  The message to deliver.
+	 * @param conflate Whether the message's topic only keeps its latest undelivered message.
+	 * @return true if the message was queued.
+	 */
+	boolean deliver(String subName, Envelope message, boolean conflate) {
+		SubscriberQueue queue = queues.get(subName);
+		return queue != null && queue.enqueue(message, conflate);
+	}
+
+	/**
+	 * Fetches queued messages for a subscriber in pull mode, waiting up to maxWaitMillis
+	 * for the first one.
+	 *
+	 * @param subName       The name of the subscriber.
+	 * @param maxMessages   The maximum number of messages to return.
+	 * @param maxWaitMillis The maximum time to wait for a message.
+	 * @return The messages in order, empty if none arrived in time, or at once if the subscriber has no pull queue.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public List<Envelope> poll(String subName, int maxMessages, long maxWaitMillis) throws InterruptedException {
+		SubscriberQueue queue = queues.get(subName);
+		if (queue == null || queue.getSink() != null) {
+			return Collections.emptyList();  // Unknown or push mode, nothing will arrive to wait for
+		}
+		return queue.poll(maxMessages, maxWaitMillis);
+	}
+
+	// Remove a subscriber its queue gave up on, through the broker so its subscriptions go too
+	private void disconnect(String subName) {
+		Consumer<String> handler = disconnectHandler;
+		if (handler != null) {
+			handler.accept(subName);
+		} else {
+			remove(subName);
+		}
+	}
+
+	// Tell the broker about a batch a subscriber was handed
+	private void delivered(String subName, List<Envelope> batch) {
+		BiConsumer<String, List<Envelope>> listener = deliveryListener;
+		if (listener != null) {
+			listener.accept(subName, batch);
+		}
+	}
+
+	// Log the counts of subscribers that hit their queue limits since the last report
+	private void reportOverflows() {
+		for (Map.Entry<String, OverflowCounters> entry : overflowCounters.entrySet()) {
+			if (entry.getValue().changedSinceReport()) {
+				System.out.println("Slow subscriber " + entry.getKey() + ": " + entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Stops all delivery workers.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remote.Envelope;
+import util.IntObjectHashMap;
+
+/**
+ * Committed offsets of one subscriber's durable subscriptions. For each durable topic
+ * the cursor holds the sequence number of the last message handed to the subscriber.
+ * The broker keeps the cursor while the subscriber is away, so a returning subscriber
+ * is sent the logged messages after its offsets before live delivery resumes. Messages
+ * of topics the subscriber did not subscribe to durably are not tracked.
+ */
+class DurableCursor {
+
+	private final IntObjectHashMap<AtomicLong> offsets = new IntObjectHashMap<>();
+
+	/**
+	 * Adds a durable subscription, keeping the existing offset if there already is one.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param offset  The sequence number of the last message the subscriber is considered to have seen.
+	 */
+	void subscribe(int topicId, long offset) {
+		offsets.putIfAbsent(topicId, new AtomicLong(offset));
+	}
+
+	/**
+	 * Removes a durable subscription.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return true if the cursor has no durable subscriptions left.
+	 */
+	boolean unsubscribe(int topicId) {
+		offsets.remove(topicId);
+		return offsets.isEmpty();
+	}
+
+	/**
+	 * Returns the topics subscribed to durably.
+	 *
+	 * @return A snapshot of the topic IDs.
+	 */
+	int[] getTopics() {
+		return offsets.keys();
+	}
+
+	/**
+	 * Returns the committed offset of a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The sequence number of the last message handed over, or -1 if the topic is not subscribed to durably.
+	 */
+	long getOffset(int topicId) {
+		AtomicLong offset = offsets.get(topicId);
+		return offset == null ? -1 : offset.get();
+	}
+
+	/**
+	 * Returns whether a message still has to be handed to the subscriber, false if it was
+	 * already sent, for example while catching up from the log.
+	 *
+	 * @param message The message.
+	 * @return true if the message is past the committed offset or its topic is not durable.
+	 */
+	boolean isNew(Envelope message) {
+		AtomicLong offset = offsets.get(message.getTopicId());
+		return offset == null || message.getSequence() > offset.get();
+	}
+
+	/**
+	 * Advances the offsets past messages handed to the subscriber.
+	 *
+	 * @param delivered The messages, in delivery order.
+	 */
+	void commit(List<Envelope> delivered) {
+		for (Envelope message : delivered) {
+			AtomicLong offset = offsets.get(message.getTopicId());
+			if (offset != null && message.getSequence() > offset.get()) {
+				offset.accumulateAndGet(message.getSequence(), Math::max);  // A replaced queue may still be finishing a batch
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Expires the leases of clients that have gone quiet, on a hashed timing wheel. Time is
+ * counted in ticks, and the wheel has a slot for each tick of the lease timeout, so
+ * every lease sits in the slot of the tick it expires on. Each tick only visits the
+ * leases in one slot, which costs the same whether the broker has ten clients or a
+ * hundred thousand.
+ * <p>
+ * Renewing a lease only moves its deadline, without touching the wheel, so renewals can
+ * come from every request a client makes at the cost of one map lookup. When the wheel
+ * reaches a lease whose deadline has since moved, the lease is moved to the slot of its
+ * new deadline, so a busy client's lease is visited about once per timeout however often
+ * it is renewed. Leases are created by an explicit {@link #renew(String)}, a client's
+ * heartbeat, and other requests {@link #touch(String)} them, so clients that never send
+ * heartbeats are never expired.
+ */
+class LeaseManager {
+
+	private final String name;
+	private final long tickNanos;
+	private final long timeoutTicks;
+	private final Lease[] slots;  // Head of each slot's list of leases, guarded by the wheel lock
+	private final int mask;
+	private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+	private final Consumer<String> onExpiry;
+	private final Object wheelLock = new Object();
+	private volatile long currentTick;  // Last tick processed, only advanced by the timer thread
+	private long startNanos;
+	private ScheduledExecutorService timer;  // Null until started
+
+	/**
+	 * Constructs a lease manager. Leases expire between timeoutMillis and one tick after
+	 * their last renewal.
+	 *
+	 * @param name          Names the timer thread, such as publisher or subscriber.
+	 * @param timeoutMillis The time without a renewal after which a lease expires.
+	 * @param tickMillis    The resolution of expiry.
+	 * @param onExpiry      Called with the name of each expired lease on the timer thread.
+	 */
+	LeaseManager(String name, long timeoutMillis, long tickMillis, Consumer<String> onExpiry) {
+		this.name = name;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		this.timeoutTicks = Math.max(1, (timeoutMillis + tickMillis - 1) / Math.max(1, tickMillis));
+		int size = Integer.highestOneBit((int) Math.min(timeoutTicks, 1 << 20)) << 1;  // More slots than ticks in a timeout, so a lease is only visited on the tick it is due
+		this.slots = new Lease[size];
+		this.mask = size - 1;
+		this.onExpiry = onExpiry;
+	}
+
+	/**
+	 * Starts expiring leases on a daemon timer thread.
+	 */
+	synchronized void start() {
+		startNanos = System.nanoTime();
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "lease-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		long tickMicros = TimeUnit.NANOSECONDS.toMicros(tickNanos);
+		timer.scheduleAtFixedRate(this::advance, tickMicros, tickMicros, TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Stops the timer thread, after which no lease expires.
+	 */
+	synchronized void stop() {
+		if (timer != null) {
+			timer.shutdownNow();
+		}
+	}
+
+	/**
+	 * Renews a client's lease, starting one if it has none, on a heartbeat.
+	 *
+	 * @param client The name of the client.
+	 */
+	void renew(String client) {
+		Lease lease = leases.get(client);
+		if (lease == null) {
+			Lease created = new Lease(client, currentTick + timeoutTicks);
+			lease = leases.putIfAbsent(client, created);
+			if (lease == null) {
+				synchronized (wheelLock) {
+					link(created);
+				}
+				return;
+			}
+		}
+		lease.deadline = currentTick + timeoutTicks;
+	}
+
+	/**
+	 * Renews a client's lease if it has one, on any other request from the client.
+	 *
+	 * @param client The name of the client.
+	 */
+	void touch(String client) {
+		Lease lease = leases.get(client);
+		if (lease != null) {
+			lease.deadline = currentTick + timeoutTicks;
+		}
+	}
+
+	/**
+	 * Ends a client's lease without expiring it, once it has disconnected.
+	 *
+	 * @param client The name of the client.
+	 */
+	void cancel(String client) {
+		Lease lease = leases.remove(client);
+		if (lease != null) {
+			synchronized (wheelLock) {
+				unlink(lease);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of leases held.
+	 *
+	 * @return The lease count.
+	 */
+	int size() {
+		return leases.size();
+	}
+
+	// Process every tick that has passed, catching up if an expiry callback held the timer up
+	private void advance() {
+		long target = (System.nanoTime() - startNanos) / tickNanos;
+		while (currentTick < target) {
+			long tick = currentTick + 1;
+			currentTick = tick;
+			for (Lease lease : expire(tick)) {
+				if (lease.deadline > tick) {  // Renewed since it was taken out of the wheel
+					synchronized (wheelLock) {
+						link(lease);
+					}
+				} else if (leases.remove(lease.client, lease)) {  // Not cancelled meanwhile
+					try {
+						onExpiry.accept(lease.client);
+					} catch (RuntimeException e) {
+						System.out.println("Failed to expire lease of " + lease.client + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	// Take the leases due on a tick out of the wheel, moving those renewed since to the slot of their new deadline
+	private List<Lease> expire(long tick) {
+		List<Lease> expired = new ArrayList<>();
+		synchronized (wheelLock) {
+			int slot = (int) (tick & mask);
+			Lease lease = slots[slot];
+			slots[slot] = null;
+			while (lease != null) {
+				Lease next = lease.next;
+				lease.prev = null;
+				lease.next = null;
+				lease.slot = -1;
+				if (lease.deadline <= tick) {
+					expired.add(lease);
+				} else {
+					link(lease);
+				}
+				lease = next;
+			}
+		}
+		return expired;
+	}
+
+	// Add a lease to the slot of its deadline, caller holds the wheel lock
+	private void link(Lease lease) {
+		int slot = (int) (lease.deadline & mask);
+		Lease head = slots[slot];
+		lease.slot = slot;
+		lease.prev = null;
+		lease.next = head;
+		if (head != null) {
+			head.prev = lease;
+		}
+		slots[slot] = lease;
+	}
+
+	// Remove a lease from its slot if it is still in the wheel, caller holds the wheel lock
+	private void unlink(Lease lease) {
+		if (lease.slot < 0) {
+			return;
+		}
+		if (lease.prev == null) {
+			slots[lease.slot] = lease.next;
+		} else {
+			lease.prev.next = lease.next;
+		}
+		if (lease.next != null) {
+			lease.next.prev = lease.prev;
+		}
+		lease.prev = null;
+		lease.next = null;
+		lease.slot = -1;
+	}
+
+	// One client's lease, linked into the list of its slot
+	private static final class Lease {
+		final String client;
+		volatile long deadline;  // Tick the lease expires on, moved forward by renewals without the wheel lock
+		int slot = -1;  // Slot the lease is linked into, -1 once out of the wheel, guarded by the wheel lock
+		Lease prev;
+		Lease next;
+
+		Lease(String client, long deadline) {
+			this.client = client;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import remote.Envelope;
+
+/**
+ * One file of a topic's message log. The file is created at its full size and memory
+ * mapped, so appending a message is a copy into the page cache and reading is a copy
+ * out of it. Records are written back to back from the start of the file:
+ * record length (4) | CRC32 of the record (4) | encoded {@link Envelope}.
+ * A zero length marks the end of the written records. When an existing file is opened
+ * its records are scanned up to the first one that is missing or fails its checksum,
+ * which drops a record torn by a crash.
+ * <p>
+ * The segment is named after the sequence number of its first message and keeps a
+ * sparse in-memory index from sequence numbers to file positions. It is not thread-safe,
+ * the owning {@link TopicLog} serializes access, except that records already written
+ * may be read concurrently with appends.
+ */
+class LogSegment {
+
+	static final String SUFFIX = ".log";
+
+	private static final int RECORD_HEADER = 8;
+
+	// Bytes written between index entries, reads scan at most this far past an entry
+	private static final int INDEX_INTERVAL = 4096;
+
+	private final File file;
+	private final long baseSequence;
+	private final MappedByteBuffer buffer;  // Position is the end of the written records
+	private final CRC32 checksum = new CRC32();
+	private long[] indexSequences = new long[16];
+	private int[] indexPositions = new int[16];
+	private int indexSize;
+	private int lastIndexed = -INDEX_INTERVAL;
+	private long lastSequence = -1;
+	private final long createdMillis;
+	private long lastAppendMillis;
+	private boolean dirty;  // Appended to since the last flush
+
+	// Map the file and take over its state, use create() or open()
+	private LogSegment(File file, long baseSequence, MappedByteBuffer buffer, long createdMillis) {
+		this.file = file;
+		this.baseSequence = baseSequence;
+		this.buffer = buffer;
+		this.createdMillis = createdMillis;
+		this.lastAppendMillis = createdMillis;
+	}
+
+	/**
+	 * Creates a new, empty segment file.
+	 *
+	 * @param dir          The topic's log directory.
+	 * @param baseSequence The sequence number of the first message the segment will hold.
+	 * @param capacity     The size of the file in bytes.
+	 * @return The segment, ready for appending.
+	 * @throws IOException If the file cannot be created or mapped.
+	 */
+	static LogSegment create(File dir, long baseSequence, int capacity) throws IOException {
+		File file = new File(dir, fileName(baseSequence));
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace stale log segment " + file);
+		}
+		return new LogSegment(file, baseSequence, map(file, capacity), System.currentTimeMillis());
+	}
+
+	/**
+	 * Opens an existing segment file and recovers its records.
+	 *
+	 * @param file The segment file.
+	 * @return The segment, positioned after its last intact record.
+	 * @throws IOException If the file cannot be mapped or is not named after a sequence number.
+	 */
+	static LogSegment open(File file) throws IOException {
+		String name = file.getName();
+		long baseSequence;
+		try {
+			baseSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			throw new IOException("Not a log segment: " + file);
+		}
+		LogSegment segment = new LogSegment(file, baseSequence, map(file, (int) file.length()), file.lastModified());
+		segment.recover();
+		return segment;
+	}
+
+	/**
+	 * Returns the file name of the segment starting at the given sequence number, padded so names sort in sequence order.
+	 *
+	 * @param baseSequence The sequence number of the first message.
+	 * @return The file name.
+	 */
+	static String fileName(long baseSequence) {
+		return String.format("%020d", baseSequence) + SUFFIX;
+	}
+
+	/**
+	 * Appends a message if it fits in the space left in the file.
+	 *
+	 * @param message The message.
+	 * @return true if the message was written, false if the segment is full.
+	 */
+	boolean append(Envelope message) {
+		byte[] encoded = message.encode();
+		if (buffer.remaining() < RECORD_HEADER + encoded.length) {
+			return false;
+		}
+		int position = buffer.position();
+		if (position - lastIndexed >= INDEX_INTERVAL) {
+			addIndexEntry(message.getSequence(), position);
+		}
+		checksum.reset();
+		checksum.update(encoded, 0, encoded.length);
+		buffer.putInt(encoded.length).putInt((int) checksum.getValue()).put(encoded);
+		lastSequence = message.getSequence();
+		lastAppendMillis = System.currentTimeMillis();
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * Returns where to start scanning for a sequence number: the last indexed record at
+	 * or before it, or the start of the file.
+	 *
+	 * @param sequence The sequence number.
+	 * @return The file position of a record at or before the sequence number.
+	 */
+	int positionOf(long sequence) {
+		int low = 0;
+		int high = indexSize - 1;
+		int found = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (indexSequences[mid] <= sequence) {
+				found = indexPositions[mid];
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Adds messages with a sequence number of at least fromSequence to a list, in order.
+	 * Only reads records already written below the given limit, so it may run without the
+	 * owning log's lock once the position and limit have been taken under it.
+	 *
+	 * @param fromSequence The sequence number of the first message wanted.
+	 * @param position     The position to scan from, from {@link #positionOf(long)} or 0.
+	 * @param limit        The written size of the segment when the read started.
+	 * @param maxMessages  The most messages to add.
+	 * @param messages     The list receiving the messages, which are copied out of the file.
+	 */
+	void read(long fromSequence, int position, int limit, int maxMessages, List<Envelope> messages) {
+		ByteBuffer records = buffer.duplicate();
+		records.limit(limit);
+		records.position(position);
+		int added = 0;
+		while (added < maxMessages && records.remaining() >= RECORD_HEADER) {
+			int length = records.getInt();
+			records.position(records.position() + 4);  // Checksum was verified when the record was recovered or written
+			if (records.getLong(records.position() + 8) < fromSequence) {
+				records.position(records.position() + length);
+				continue;
+			}
+			messages.add(Envelope.decode(records));
+			added++;
+		}
+	}
+
+	/**
+	 * Forces the segment's written records to disk.
+	 * Safe to call from a thread other than the appending one.
+	 */
+	void flush() {
+		buffer.force();
+	}
+
+	/**
+	 * Returns whether records were appended since the last call, and clears the flag.
+	 *
+	 * @return true if the segment needs flushing.
+	 */
+	boolean takeDirty() {
+		boolean wasDirty = dirty;
+		dirty = false;
+		return wasDirty;
+	}
+
+	/**
+	 * Deletes the segment file. The mapping is released once the segment is no longer referenced.
+	 */
+	void delete() {
+		if (!file.delete() && file.exists()) {
+			System.out.println("Failed to delete log segment " + file);
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the first message the segment holds.
+	 *
+	 * @return The base sequence number.
+	 */
+	long getBaseSequence() {
+		return baseSequence;
+	}
+
+	/**
+	 * Returns the sequence number of the last message appended.
+	 *
+	 * @return The last sequence number, or -1 if the segment is empty.
+	 */
+	long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Returns the number of bytes written to the segment.
+	 *
+	 * @return The written size.
+	 */
+	int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Returns when the segment was created, or last modified before it was reopened.
+	 *
+	 * @return The time in milliseconds since the epoch.
+	 */
+	long getCreatedMillis() {
+		return createdMillis;
+	}
+
+	/**
+	 * Returns when a message was last appended.
+	 *
+	 * @return The time in milliseconds since the epoch.
+	 */
+	long getLastAppendMillis() {
+		return lastAppendMillis;
+	}
+
+	// Map a file at the given size, creating or extending it as needed, the channel can be closed once mapped
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	// Scan records from the start and stop at the first one that is missing or corrupt
+	private void recover() {
+		while (buffer.remaining() >= RECORD_HEADER) {
+			int position = buffer.position();
+			int length = buffer.getInt(position);
+			if (length < Envelope.HEADER_SIZE || length > buffer.remaining() - RECORD_HEADER) {
+				break;
+			}
+			ByteBuffer record = buffer.duplicate();
+			record.position(position + RECORD_HEADER).limit(position + RECORD_HEADER + length);
+			checksum.reset();
+			checksum.update(record);
+			if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+				System.out.println("Truncating log segment " + file + " at corrupt record, position " + position);
+				break;
+			}
+			long sequence = buffer.getLong(position + RECORD_HEADER + 8);
+			if (position - lastIndexed >= INDEX_INTERVAL) {
+				addIndexEntry(sequence, position);
+			}
+			lastSequence = sequence;
+			buffer.position(position + RECORD_HEADER + length);
+		}
+		// Clear whatever follows, so a later append is never followed by stale bytes that look like a record
+		if (buffer.remaining() >= 4) {
+			buffer.putInt(buffer.position(), 0);
+		}
+	}
+
+	// Remember where a message starts, so reads can skip the records before it
+	private void addIndexEntry(long sequence, int position) {
+		if (indexSize == indexSequences.length) {
+			indexSequences = Arrays.copyOf(indexSequences, indexSize * 2);
+			indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+		}
+		indexSequences[indexSize] = sequence;
+		indexPositions[indexSize] = position;
+		indexSize++;
+		lastIndexed = position;
+	}
+}
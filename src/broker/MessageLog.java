@@ -0,0 +1,206 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remote.Envelope;
+import util.IntObjectHashMap;
+
+/**
+ * The broker's optional on-disk message log, one {@link TopicLog} per topic under a
+ * directory of its own. Every message the broker routes, whether published locally or
+ * forwarded by a peer, is appended before it is queued for subscribers. Appends only
+ * copy into memory-mapped segment files; a background flusher thread forces them to
+ * disk in batches, every flush interval or sooner once enough messages are waiting,
+ * and applies the retention limits. A crash can therefore lose at most the messages
+ * appended since the last flush, while a publish never waits for the disk.
+ */
+class MessageLog implements Runnable {
+
+	// Time in milliseconds between retention checks
+	private static final long RETENTION_CHECK_INTERVAL = 10000;
+
+	private final File dir;
+	private final IntObjectHashMap<TopicLog> topics = new IntObjectHashMap<>();
+	private final AtomicLong unflushed = new AtomicLong();  // Messages appended since the last flush
+	private final Object flushSignal = new Object();
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	/**
+	 * Opens the message log in the given directory and starts its flusher thread.
+	 * Topic logs already in the directory are recovered when their topic is next used.
+	 *
+	 * @param dir The directory holding this broker's topic logs, created if missing.
+	 * @throws IOException If the directory cannot be created.
+	 */
+	MessageLog(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create log directory " + dir);
+		}
+		this.dir = dir;
+		this.flusher = new Thread(this, "log-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "log-shutdown"));
+	}
+
+	/**
+	 * Appends a message to its topic's log.
+	 *
+	 * @param message The message.
+	 * @throws IOException If the topic's log cannot be opened or extended.
+	 */
+	void append(Envelope message) throws IOException {
+		TopicLog log = topicLog(message.getTopicId());
+		if (log.append(message) && unflushed.incrementAndGet() == BrokerConfig.LOG_FLUSH_MESSAGES) {
+			synchronized (flushSignal) {
+				flushSignal.notify();
+			}
+		}
+	}
+
+	/**
+	 * Reads logged messages of a topic in order.
+	 *
+	 * @param topicId      The ID of the topic.
+	 * @param fromSequence The sequence number of the first message wanted.
+	 * @param maxMessages  The most messages to return.
+	 * @return The messages, empty if the topic has none from that sequence number on.
+	 * @throws IOException If the topic's log cannot be opened.
+	 */
+	List<Envelope> read(int topicId, long fromSequence, int maxMessages) throws IOException {
+		if (topics.get(topicId) == null && !topicDir(topicId).isDirectory()) {
+			return Collections.emptyList();
+		}
+		return topicLog(topicId).read(fromSequence, maxMessages);
+	}
+
+	/**
+	 * Returns the sequence number of the last message logged for a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The last sequence number, or -1 if nothing has been logged.
+	 * @throws IOException If the topic's log cannot be opened.
+	 */
+	long getLastSequence(int topicId) throws IOException {
+		return topicLog(topicId).getLastSequence();
+	}
+
+	/**
+	 * Returns whether a topic's log was written for the topic with the given creation stamp.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param stamp   The creation stamp of the topic.
+	 * @return true if the topic has a log recording that stamp, false if it has none or one left by another topic with the same ID.
+	 * @throws IOException If the topic's log cannot be opened.
+	 */
+	boolean isCreation(int topicId, long stamp) throws IOException {
+		if (topics.get(topicId) == null && !topicDir(topicId).isDirectory()) {
+			return false;
+		}
+		return topicLog(topicId).isCreation(stamp);
+	}
+
+	/**
+	 * Records the creation stamp of the topic a topic's log is written for, starting the log if the topic has none.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param stamp   The creation stamp of the topic.
+	 * @throws IOException If the topic's log cannot be opened or the stamp cannot be written.
+	 */
+	void setCreation(int topicId, long stamp) throws IOException {
+		topicLog(topicId).setCreation(stamp);
+	}
+
+	/**
+	 * Deletes a topic's log, called when the topic is removed so a new topic with the
+	 * same ID starts from an empty log.
+	 *
+	 * @param topicId The ID of the topic.
+	 */
+	void deleteTopic(int topicId) {
+		TopicLog log = topics.remove(topicId);
+		if (log == null && topicDir(topicId).isDirectory()) {
+			try {
+				log = new TopicLog(topicId, topicDir(topicId));
+			} catch (IOException e) {
+				System.out.println("Failed to open log of topic " + topicId + " for deletion: " + e.getMessage());
+			}
+		}
+		if (log != null) {
+			log.delete();
+		}
+	}
+
+	/**
+	 * Flushes every topic log and stops the flusher thread.
+	 */
+	void close() {
+		running = false;
+		flusher.interrupt();
+		flushAll();
+	}
+
+	/**
+	 * Flushes the logs until closed, and applies retention limits between flushes.
+	 */
+	@Override
+	public void run() {
+		long nextRetentionCheck = 0;
+		while (running) {
+			synchronized (flushSignal) {
+				if (unflushed.get() < BrokerConfig.LOG_FLUSH_MESSAGES) {
+					try {
+						flushSignal.wait(BrokerConfig.LOG_FLUSH_INTERVAL);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+			flushAll();
+			long now = System.currentTimeMillis();
+			if (now >= nextRetentionCheck) {
+				for (TopicLog log : topics.values()) {
+					log.enforceRetention(now);
+				}
+				nextRetentionCheck = now + RETENTION_CHECK_INTERVAL;
+			}
+		}
+	}
+
+	// Force every topic log's new records to disk
+	private void flushAll() {
+		unflushed.set(0);
+		for (TopicLog log : topics.values()) {
+			log.flush();
+		}
+	}
+
+	// Get the log of a topic, opening and recovering it on first use
+	private TopicLog topicLog(int topicId) throws IOException {
+		TopicLog log = topics.get(topicId);
+		if (log != null) {
+			return log;
+		}
+		synchronized (topics) {
+			log = topics.get(topicId);
+			if (log == null) {
+				log = new TopicLog(topicId, topicDir(topicId));
+				topics.put(topicId, log);
+			}
+			return log;
+		}
+	}
+
+	// Directory of a topic's segment files
+	private File topicDir(int topicId) {
+		return new File(dir, Integer.toString(topicId));
+	}
+}
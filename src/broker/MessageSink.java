@@ -0,0 +1,19 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.IOException;
+import java.util.List;
+
+import remote.Envelope;
+
+/**
+ * Destination for batches of messages, either a subscriber or a peer broker, reached
+ * through RMI or a data-plane connection. Delivery queues and peer forwarders send
+ * through this interface so they do not depend on the transport.
+ */
+interface MessageSink {
+
+	void send(List<Envelope> messages) throws IOException;
+}
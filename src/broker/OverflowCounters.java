@@ -0,0 +1,110 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the overflow policy actions taken for one subscriber, so subscribers that keep
+ * hitting their queue limits can be told apart from the rest. Counts are cumulative
+ * over the subscriber's reconnects.
+ */
+class OverflowCounters {
+
+	private final AtomicLong droppedNewest = new AtomicLong();
+	private final AtomicLong droppedOldest = new AtomicLong();
+	private final AtomicLong conflated = new AtomicLong();
+	private final AtomicLong disconnects = new AtomicLong();
+	private long reported;  // Total at the last report, only used by the reporting thread
+
+	/**
+	 * Counts a new message discarded because the queue was full.
+	 */
+	void droppedNewest() {
+		droppedNewest.incrementAndGet();
+	}
+
+	/**
+	 * Counts queued messages discarded to make room for a new one.
+	 *
+	 * @param count The number of messages discarded.
+	 */
+	void droppedOldest(int count) {
+		droppedOldest.addAndGet(count);
+	}
+
+	/**
+	 * Counts queued messages replaced by a later message of the same topic.
+	 *
+	 * @param count The number of messages replaced.
+	 */
+	void conflated(int count) {
+		conflated.addAndGet(count);
+	}
+
+	/**
+	 * Counts a disconnect of the subscriber for overflowing its queue.
+	 */
+	void disconnected() {
+		disconnects.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of new messages discarded.
+	 *
+	 * @return The count.
+	 */
+	long getDroppedNewest() {
+		return droppedNewest.get();
+	}
+
+	/**
+	 * Returns the number of queued messages discarded to make room.
+	 *
+	 * @return The count.
+	 */
+	long getDroppedOldest() {
+		return droppedOldest.get();
+	}
+
+	/**
+	 * Returns the number of queued messages replaced by a later one of their topic.
+	 *
+	 * @return The count.
+	 */
+	long getConflated() {
+		return conflated.get();
+	}
+
+	/**
+	 * Returns the number of times the subscriber was disconnected.
+	 *
+	 * @return The count.
+	 */
+	long getDisconnects() {
+		return disconnects.get();
+	}
+
+	/**
+	 * Returns whether any action was counted since the last call.
+	 *
+	 * @return true if the counts changed.
+	 */
+	boolean changedSinceReport() {
+		long total = droppedNewest.get() + droppedOldest.get() + conflated.get() + disconnects.get();
+		boolean changed = total != reported;
+		reported = total;
+		return changed;
+	}
+
+	/**
+	 * Returns the counts as text for the broker's log.
+	 *
+	 * @return A summary of the counts.
+	 */
+	@Override
+	public String toString() {
+		return "dropped newest " + droppedNewest.get() + ", dropped oldest " + droppedOldest.get() + ", conflated " + conflated.get() + ", disconnects " + disconnects.get();
+	}
+}
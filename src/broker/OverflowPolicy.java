@@ -0,0 +1,48 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+/**
+ * What a {@link SubscriberQueue} does with a new message once the subscriber has fallen
+ * so far behind that its queue is at the message count or byte limit.
+ */
+enum OverflowPolicy {
+
+	/** Discard the new message, keeping the queued ones. */
+	DROP_NEWEST,
+
+	/** Discard the oldest queued messages to make room for the new one. */
+	DROP_OLDEST,
+
+	/** Disconnect the subscriber, as if it had called subDisconnect. */
+	DISCONNECT,
+
+	/** Discard the queued messages of the new message's topic, so only the latest value per topic waits. */
+	CONFLATE;
+
+	/**
+	 * Parses a policy name such as "drop-oldest", ignoring case.
+	 *
+	 * @param name         The name, with words separated by '-' or '_'.
+	 * @param defaultValue The policy to use if the name is not recognised.
+	 * @return The policy.
+	 */
+	static OverflowPolicy parse(String name, OverflowPolicy defaultValue) {
+		try {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown overflow policy " + name + ", using " + defaultValue.getName() + ".");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the policy's name in the form used for configuration.
+	 *
+	 * @return The name, such as "drop-oldest".
+	 */
+	String getName() {
+		return name().toLowerCase().replace('_', '-');
+	}
+}
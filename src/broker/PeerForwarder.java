@@ -0,0 +1,422 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remote.Envelope;
+import remote.IRemoteBroker;
+import transport.DataClient;
+import transport.Frames;
+import util.Histogram;
+import util.IntHashSet;
+import util.IntObjectHashMap;
+
+/**
+ * Outbound link to one peer broker. Forwarded messages are queued and sent in order
+ * by a dedicated sender thread, so publishing only waits on a peer once its queue is
+ * full. Queued messages are sent in batches, closed when they reach the configured size
+ * or linger time. If the peer is unreachable the sender retries the same batch with
+ * exponential backoff while new messages keep queueing up to the configured capacity.
+ * Batches go over the peer's socket data plane when both brokers run it, and through
+ * RMI otherwise.
+ * <p>
+ * The forwarder also tracks which topics the peer has local subscribers for, and
+ * sends this broker's own interest changes to the peer in order on a separate thread,
+ * which callers can wait on with {@link #awaitAdvertised(long)}.
+ * The same thread keeps the peer's retained cache current for topics it is not
+ * interested in: only the latest message per topic is kept, and those are sent
+ * together every retained sync interval, so a busy topic costs the peer one message
+ * per interval rather than one per publish.
+ */
+public class PeerForwarder implements Runnable {
+
+	private static final long INITIAL_BACKOFF = 100;
+
+	private final int localPort;
+	private final int peerPort;
+	private final IRemoteBroker peer;
+	private final BlockingQueue<Envelope> pending;
+	private final Thread sender;
+	private final IntHashSet peerInterest = new IntHashSet();
+	private final AtomicLong queuedCount = new AtomicLong();  // Messages accepted by forward()
+	private volatile long sentCount;  // Messages the peer has accepted, only written by the sender thread
+	private final Object sentLock = new Object();
+	private final AtomicLong droppedCount = new AtomicLong();  // Messages forward() gave up on because the queue stayed full
+	private final AtomicLong advertisedQueued = new AtomicLong();  // Interest changes accepted by advertise()
+	private volatile long advertisedCount;  // Interest changes the peer has accepted, only written by the advertiser thread
+	private final Object advertisedLock = new Object();
+	private volatile long oldestUnsent;  // Publish time of the first message of the batch being sent, 0 between batches
+	private final Histogram forwardingLatency = new Histogram();  // Microseconds from publish to the peer accepting, only recorded by the sender thread
+	private final ScheduledExecutorService advertiser;
+	private final IntObjectHashMap<Envelope> retained = new IntObjectHashMap<>();  // Latest message per topic not yet sent to the peer's cache
+	private final AtomicBoolean retainedScheduled = new AtomicBoolean();
+	private volatile long retainedDelay = BrokerConfig.RETAINED_SYNC_INTERVAL;  // Grows while the peer is unreachable
+	private MessageSink link;  // Only used by the sender thread, null until connected
+	private volatile DataClient dataClient;
+	private volatile boolean running = true;
+
+	/**
+	 * Constructs a forwarder for the broker bound at the given port and starts its sender thread.
+	 *
+	 * @param localPort The registry port of this broker, used to identify it to the peer.
+	 * @param peerPort  The registry port of the peer broker.
+	 * @param peer      The remote broker object of the peer.
+	 */
+	public PeerForwarder(int localPort, int peerPort, IRemoteBroker peer) {
+		this.localPort = localPort;
+		this.peerPort = peerPort;
+		this.peer = peer;
+		this.pending = new ArrayBlockingQueue<>(BrokerConfig.PEER_QUEUE_CAPACITY);
+		this.sender = new Thread(this, "peer-forwarder-" + peerPort);
+		this.sender.setDaemon(true);
+		this.advertiser = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "peer-advertiser-" + peerPort);
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.sender.start();
+	}
+
+	/**
+	 * Returns the registry port of the peer broker.
+	 *
+	 * @return The peer port.
+	 */
+	public int getPeerPort() {
+		return peerPort;
+	}
+
+	/**
+	 * Returns the remote broker object of the peer.
+	 *
+	 * @return The peer broker.
+	 */
+	public IRemoteBroker getPeer() {
+		return peer;
+	}
+
+	/**
+	 * Queues a message to be forwarded to the peer. If the queue is full the caller waits
+	 * for the sender to make room, so a slow peer slows its publishers down rather than
+	 * losing their messages, up to the configured offer timeout.
+	 *
+	 * @param message The message to forward.
+	 * @return true if the message was queued, false if the queue stayed full and the message was dropped.
+	 */
+	public boolean forward(Envelope message) {
+		boolean queued = pending.offer(message);
+		if (!queued && running) {
+			try {
+				queued = pending.offer(message, BrokerConfig.PEER_OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!queued) {
+			droppedCount.incrementAndGet();
+			System.out.println("Forwarding queue full for broker port " + peerPort + ", message dropped.");
+			return false;
+		}
+		queuedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Returns the number of messages dropped because the forwarding queue stayed full.
+	 *
+	 * @return The dropped messages.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of messages queued or being sent that the peer has not accepted yet.
+	 *
+	 * @return The messages waiting.
+	 */
+	public long getUnsentCount() {
+		return Math.max(0, queuedCount.get() - sentCount);
+	}
+
+	/**
+	 * Returns the age of the oldest message the peer has not accepted yet.
+	 *
+	 * @return The time since it was published in microseconds, 0 if nothing is waiting.
+	 */
+	public long getLagMicros() {
+		long oldest = oldestUnsent;
+		if (oldest == 0) {
+			Envelope next = pending.peek();
+			oldest = next == null ? 0 : next.getOriginTime();
+		}
+		return oldest == 0 ? 0 : Math.max(0, Envelope.now() - oldest);
+	}
+
+	/**
+	 * Returns the time from each forwarded message being published to the peer accepting it.
+	 *
+	 * @return The latencies in microseconds.
+	 */
+	public Histogram getForwardingLatency() {
+		return forwardingLatency;
+	}
+
+	/**
+	 * Waits until every message queued before this call has been accepted by the peer.
+	 *
+	 * @param timeoutMillis The maximum time to wait.
+	 * @return true if the messages were sent, false if the timeout elapsed first.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public boolean awaitSent(long timeoutMillis) throws InterruptedException {
+		long target = queuedCount.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (sentLock) {
+			while (sentCount < target) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !running) {
+					return false;
+				}
+				sentLock.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until every interest change queued before this call has been accepted by the peer.
+	 *
+	 * @param timeoutMillis The maximum time to wait.
+	 * @return true if the changes were sent, false if the timeout elapsed first.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public boolean awaitAdvertised(long timeoutMillis) throws InterruptedException {
+		long target = advertisedQueued.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (advertisedLock) {
+			while (advertisedCount < target) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !running) {
+					return false;
+				}
+				advertisedLock.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the peer has advertised local subscribers for a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return true if messages for the topic should be forwarded to the peer.
+	 */
+	public boolean isInterested(int topicId) {
+		return peerInterest.contains(topicId);
+	}
+
+	/**
+	 * Applies an interest change advertised by the peer.
+	 *
+	 * @param interested    Topics the peer now has local subscribers for.
+	 * @param notInterested Topics the peer no longer has local subscribers for.
+	 */
+	public void updatePeerInterest(int[] interested, int[] notInterested) {
+		for (int topicId : interested) {
+			peerInterest.add(topicId);
+		}
+		for (int topicId : notInterested) {
+			peerInterest.remove(topicId);
+		}
+	}
+
+	/**
+	 * Queues an interest change of this broker to be sent to the peer. Changes are sent
+	 * in the order they are queued and retried until the peer accepts them.
+	 *
+	 * @param interested    Topics this broker now has local subscribers for.
+	 * @param notInterested Topics this broker no longer has local subscribers for.
+	 */
+	public void advertise(int[] interested, int[] notInterested) {
+		long change = advertisedQueued.incrementAndGet();
+		advertiser.execute(() -> {
+			long backoff = INITIAL_BACKOFF;
+			while (running) {
+				try {
+					peer.receiveInterest(localPort, interested, notInterested);
+					synchronized (advertisedLock) {
+						advertisedCount = change;
+						advertisedLock.notifyAll();
+					}
+					return;
+				} catch (RemoteException e) {
+					System.out.println("Failed to advertise interest to broker port " + peerPort + ", retrying in " + backoff + "ms: " + e.getMessage());
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException ie) {
+						return;
+					}
+					backoff = Math.min(backoff * 2, BrokerConfig.PEER_MAX_BACKOFF);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues a message to update the peer's retained value of its topic, replacing any
+	 * earlier message of the topic still waiting to be sent.
+	 *
+	 * @param message The latest message of a topic the peer has no subscribers for.
+	 */
+	public void retain(Envelope message) {
+		retained.compute(message.getTopicId(), (topicId, current) -> current != null && current.getSequence() >= message.getSequence() ? current : message);
+		if (retainedScheduled.compareAndSet(false, true)) {
+			try {
+				advertiser.schedule(this::sendRetained, retainedDelay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Closed, the peer is gone
+			}
+		}
+	}
+
+	/**
+	 * Stops the sender threads and discards any messages not yet forwarded.
+	 */
+	public void close() {
+		running = false;
+		sender.interrupt();
+		advertiser.shutdownNow();
+		pending.clear();
+		synchronized (sentLock) {
+			sentLock.notifyAll();  // Waiters give up rather than wait out their timeout
+		}
+		synchronized (advertisedLock) {
+			advertisedLock.notifyAll();
+		}
+		DataClient client = dataClient;
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	// Send queued messages in order as batches, retrying each batch until the peer accepts it
+	@Override
+	public void run() {
+		long backoff = INITIAL_BACKOFF;
+		List<Envelope> batch = new ArrayList<>(BrokerConfig.PEER_BATCH_SIZE);
+		try {
+			while (running) {
+				fillBatch(batch);
+				oldestUnsent = batch.get(0).getOriginTime();
+				while (running) {
+					try {
+						if (link == null) {
+							link = connect();
+						}
+						link.send(batch);
+						backoff = INITIAL_BACKOFF;
+						long now = Envelope.now();
+						for (Envelope message : batch) {
+							forwardingLatency.record(now - message.getOriginTime());
+						}
+						oldestUnsent = 0;
+						synchronized (sentLock) {
+							sentCount += batch.size();
+							sentLock.notifyAll();
+						}
+						break;
+					} catch (IOException e) {
+						disconnect();
+						System.out.println("Failed to forward " + batch.size() + " message(s) to broker port " + peerPort + ", retrying in " + backoff + "ms: " + e.getMessage());
+						Thread.sleep(backoff);
+						backoff = Math.min(backoff * 2, BrokerConfig.PEER_MAX_BACKOFF);
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Send the waiting retained messages in one call, putting them back to be retried with the next ones if the peer is unreachable
+	private void sendRetained() {
+		retainedScheduled.set(false);
+		List<Envelope> messages = new ArrayList<>();
+		for (int topicId : retained.keys()) {
+			Envelope message = retained.remove(topicId);
+			if (message != null) {
+				messages.add(message);
+			}
+		}
+		if (messages.isEmpty() || !running) {
+			return;
+		}
+		try {
+			peer.receiveRetained(messages);
+			retainedDelay = BrokerConfig.RETAINED_SYNC_INTERVAL;
+		} catch (RemoteException e) {
+			retainedDelay = Math.min(Math.max(retainedDelay, INITIAL_BACKOFF) * 2, BrokerConfig.PEER_MAX_BACKOFF);
+			System.out.println("Failed to send " + messages.size() + " retained message(s) to broker port " + peerPort + ", retrying in " + retainedDelay + "ms: " + e.getMessage());
+			for (Envelope message : messages) {
+				retain(message);
+			}
+		}
+	}
+
+	// Open the peer's data plane if both brokers run it, otherwise send through RMI
+	private MessageSink connect() throws IOException {
+		if (BrokerConfig.NIO_TRANSPORT) {
+			int dataPort = peer.getDataPort();
+			if (dataPort > 0) {
+				DataClient client = new DataClient("localhost", dataPort, Frames.ROLE_BROKER, String.valueOf(localPort), null);
+				dataClient = client;
+				return client::sendMessages;
+			}
+		}
+		return peer::receiveMessagesFromBroker;
+	}
+
+	// Drop the current link so the next attempt reconnects
+	private void disconnect() {
+		link = null;
+		DataClient client = dataClient;
+		if (client != null) {
+			client.close();
+			dataClient = null;
+		}
+	}
+
+	// Block for the first message, then collect more until the batch is full or the linger time has passed
+	private void fillBatch(List<Envelope> batch) throws InterruptedException {
+		batch.add(pending.take());
+		pending.drainTo(batch, BrokerConfig.PEER_BATCH_SIZE - batch.size());
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BrokerConfig.PEER_BATCH_LINGER);
+		while (batch.size() < BrokerConfig.PEER_BATCH_SIZE) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				break;
+			}
+			Envelope next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+			if (next == null) {
+				break;
+			}
+			batch.add(next);
+			pending.drainTo(batch, BrokerConfig.PEER_BATCH_SIZE - batch.size());
+		}
+	}
+}
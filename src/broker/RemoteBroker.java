@@ -3,19 +3,27 @@
  */
 package broker;
 
+import remote.Envelope;
 import remote.IRemoteBPub;
 import remote.IRemoteBSub;
 import remote.IRemoteBroker;
 import remote.IRemoteSub;
 import remote.IRemoteTopic;
+import remote.IRemoteTopicListener;
+import remote.PublishBatch;
+import util.IntHashSet;
 
+import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.io.IOException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import directory.Topic;
 
@@ -29,54 +37,157 @@ import java.rmi.registry.Registry;
  * IRemoteBroker interfaces, providing methods for managing topics and
  * subscribers in a distributed publish-subscribe system. This class handles
  * operations such as adding and deleting topics, managing subscribers, and
- * retrieving topic information.
+ * retrieving topic information. It also listens for topic changes from the
+ * directory to keep its local routing table up to date.
  */
-public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IRemoteBSub, IRemoteBroker {
+public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IRemoteBSub, IRemoteBroker, IRemoteTopicListener {
 	
-	private static final int HEARTBEAT_INTERVAL = 5000;
+	private static final int[] NO_TOPICS = new int[0];
+	private final int brokerPort;
 	private IRemoteTopic topicList;
-    private List<IRemoteBroker> connectedBrokers;  // List of connected remote brokers
-    private Map<String, IRemoteSub> connectedSubscribers;
-	private Map<String, Set<Integer>> pubTopicList;
-	private Map<String, Long> publisherHeartbeat = new HashMap<>();
-	private Map<String, Long> subscriberHeartbeat = new HashMap<>();
+    private Map<Integer, PeerForwarder> connectedBrokers;  // Outbound links to connected remote brokers, keyed by port
+    private DeliveryDispatcher dispatcher;  // Per-subscriber outbound queues for connected subscribers
+    private RoutingTable routes;  // Local copy of topics and the subscribers connected to this broker
+	private Map<String, IntHashSet> pubTopicList;
+	private Map<String, Integer> publisherIds = new ConcurrentHashMap<>();  // IDs stamped on envelopes, unique across brokers
+	private final AtomicInteger publisherCount = new AtomicInteger();
+	private final LeaseManager publisherLeases = new LeaseManager("publishers", BrokerConfig.LEASE_TIMEOUT, BrokerConfig.LEASE_TICK, this::expirePublisher);  // Renewed by heartbeats and every other publisher request
+	private final LeaseManager subscriberLeases = new LeaseManager("subscribers", BrokerConfig.LEASE_TIMEOUT, BrokerConfig.LEASE_TICK, this::expireSubscriber);  // Renewed by heartbeats, requests and successful deliveries
+	private volatile DataPlane dataPlane;  // Socket transport for publishes, forwarding and deliveries, null when only RMI is used
+	private volatile MessageLog messageLog;  // On-disk log of routed messages, null when logging is disabled
+	private final RetainedCache retainedCache = BrokerConfig.RETAINED_MAX_BYTES > 0 ? new RetainedCache(BrokerConfig.RETAINED_MAX_BYTES) : null;  // Last message of each topic, null when disabled
+	private final BatchSequencer batchSequencer = new BatchSequencer(BrokerConfig.BATCH_ORDER_TIMEOUT);  // Orders the batches a publisher has in flight at once
+	private final TopicLocks topicLocks = new TopicLocks(BrokerConfig.LOCK_STRIPES);  // Serializes operations per topic instead of per broker
+	private final BrokerMetrics metrics;  // Counters and latencies exported over JMX
 
 
 	/**
-     * Constructs a RemoteObjectBroker with the specified broker list, topic list, connected subscribers,and publisher topic list.
+     * Constructs a RemoteObjectBroker with the specified port, broker list, topic list, delivery dispatcher and publisher topic list.
      *
-     * @param brokerList A list of connected brokers.
+     * @param brokerPort The registry port of this broker.
+     * @param brokerList The outbound links to connected brokers, keyed by broker port.
      * @param topicList A reference to the remote topic list.
-     * @param connectedSubscribers A map of connected subscribers.
+     * @param dispatcher The dispatcher delivering messages to connected subscribers.
      * @param pubTopicList A map of publisher topics.
      * @throws RemoteException If a remote communication error occurs.
      */
-    protected RemoteBroker(List<IRemoteBroker> brokerList, IRemoteTopic topicList, Map<String, IRemoteSub> connectedSubscribers, Map<String, Set<Integer>> pubTopicList) throws RemoteException {
+    protected RemoteBroker(int brokerPort, Map<Integer, PeerForwarder> brokerList, IRemoteTopic topicList, DeliveryDispatcher dispatcher, Map<String, IntHashSet> pubTopicList) throws RemoteException {
         super();
+        this.brokerPort = brokerPort;
         this.topicList = topicList;
+        this.routes = new RoutingTable(this::advertiseInterest);
 		if (brokerList == null) {
-			connectedBrokers = new ArrayList<>();
+			connectedBrokers = new ConcurrentHashMap<>();
 		} else {
 			connectedBrokers = brokerList;
 		}
-		this.connectedSubscribers = connectedSubscribers;
+		this.dispatcher = dispatcher;
+		this.dispatcher.setDisconnectHandler(this::disconnectSlowSubscriber);
 		this.pubTopicList = pubTopicList;
+		this.metrics = new BrokerMetrics(brokerPort, dispatcher, connectedBrokers);
+		this.dispatcher.setDeliveryListener(this::delivered);
     }
 
     /**
-     * Receives messages from another broker and forwards them to subscribers.
+     * Returns this broker's metrics, for exporting over JMX.
      *
-     * @param topicId The ID of the topic.
-     * @param message The message content.
+     * @return The broker's metrics.
+     */
+    BrokerMetrics getMetrics() {
+    	return metrics;
+    }
+
+    /**
+     * Starts serving publishes, forwarded messages and subscriber deliveries over the socket data plane.
+     *
+     * @param dataPort The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public void startDataPlane(int dataPort) throws IOException {
+    	dataPlane = new DataPlane(dataPort, this);
+    	System.out.println("Data plane listening on port " + dataPlane.getPort());
+    }
+    
+    /**
+     * Starts appending every message this broker routes to a per-topic log on disk.
+     *
+     * @param logDir The directory holding this broker's topic logs.
+     * @throws IOException If the directory cannot be created.
+     */
+    public void openMessageLog(File logDir) throws IOException {
+    	messageLog = new MessageLog(logDir);
+    	dispatcher.setMessageLog(messageLog);
+    	System.out.println("Logging messages to " + logDir.getAbsolutePath());
+    }
+    
+    /**
+     * Returns the port of this broker's socket data plane.
+     *
+     * @return The data port, or -1 if the broker only uses RMI.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public int getDataPort() throws RemoteException {
+    	DataPlane plane = dataPlane;
+    	return plane == null ? -1 : plane.getPort();
+    }
+
+    /**
+     * Receives a message from another broker and forwards it to subscribers.
+     *
+     * @param message The message, as encoded by the publishing broker.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void receiveMessageFromBroker(Envelope message) throws RemoteException {
+        receiveForwarded(message);
+    }
+    
+    /**
+     * Receives a batch of messages from another broker and forwards each to subscribers in order.
+     *
+     * @param messages The messages, as encoded by the publishing broker.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void receiveMessagesFromBroker(List<Envelope> messages) throws RemoteException {
+        for (Envelope message : messages) {
+            receiveForwarded(message);
+        }
+    }
+    
+    /**
+     * Receives the latest messages of topics this broker has no local subscribers for, and
+     * keeps them as the topics' retained values so a new subscriber here is sent them at once.
+     *
+     * @param messages The latest message of each topic, as encoded by the publishing broker.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void receiveRetained(List<Envelope> messages) throws RemoteException {
+    	for (Envelope message : messages) {
+    		retain(message);
+    	}
+    }
+    
+    /**
+     * Records which topics another broker has local subscribers for, so messages are only forwarded to brokers that need them.
+     *
+     * @param otherBrokerPort The port of the other broker.
+     * @param interested Topics the other broker now has local subscribers for.
+     * @param notInterested Topics the other broker no longer has local subscribers for.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
-    public void receiveMessageFromBroker(int topicId, String message) throws RemoteException {
-        sendMessage(topicId, message);
+    public void receiveInterest(int otherBrokerPort, int[] interested, int[] notInterested) throws RemoteException {
+    	PeerForwarder broker = connectedBrokers.get(otherBrokerPort);
+    	if (broker != null) {
+    		broker.updatePeerInterest(interested, notInterested);
+    	}
     }
     
     /**
-     * Establishes a connection with another broker.
+     * Establishes a connection with another broker and sends it the topics this broker has local subscribers for.
      *
      * @param otherBrokerPort The port of the other broker.
      * @throws RemoteException If a remote communication error occurs.
@@ -86,9 +197,56 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
     public void receiveConnection(int otherBrokerPort) throws RemoteException, NotBoundException {
     	Registry otherBrokerRegistry = LocateRegistry.getRegistry(otherBrokerPort);
 		IRemoteBroker otherBroker = (IRemoteBroker) otherBrokerRegistry.lookup("remoteBroker");
-        connectedBrokers.add(otherBroker);
+        PeerForwarder forwarder = new PeerForwarder(brokerPort, otherBrokerPort, otherBroker);
+        PeerForwarder previous = connectedBrokers.put(otherBrokerPort, forwarder);
+        if (previous != null) {
+        	previous.close();  // Broker restarted on the same port
+        }
+        forwarder.advertise(routes.getInterestedTopics(), NO_TOPICS);
+        if (retainedCache != null) {
+        	for (Envelope message : retainedCache.values()) {
+        		forwarder.retain(message);  // Bring the new broker's cache up to date
+        	}
+        }
         System.out.println("Connection established with broker port "+ otherBrokerPort);
     };
+    
+    /**
+     * Adds a topic created through any broker to the local routing table. Unless the
+     * table already holds this topic, anything kept of an earlier topic with the same
+     * ID, such as a log from before this broker restarted or missed the deletion, is
+     * discarded first.
+     *
+     * @param topic The topic that was added.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void topicAdded(Topic topic) throws RemoteException {
+    	ReentrantLock lock = topicLocks.forTopic(topic.getId());
+    	lock.lock();
+    	try {
+    		Topic known = routes.getTopic(topic.getId());
+    		if (known == null || known.getCreationStamp() != topic.getCreationStamp()) {
+    			claimHistory(topic);
+    		}
+    		routes.putTopic(topic);
+    		metrics.addTopic(topic.getId());
+    	} finally {
+    		lock.unlock();
+    	}
+    }
+    
+    /**
+     * Removes a topic deleted through any broker, and local subscriptions to it, from the local routing table.
+     *
+     * @param topicId The ID of the topic that was deleted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void topicDeleted(int topicId) throws RemoteException {
+    	routes.removeTopic(topicId);
+    	discardHistory(topicId);
+    }
 
     /**
      * Creates a new topic.
@@ -100,17 +258,43 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
      * @throws RemoteException If a remote communication error occurs.
      */
 	@Override
-	public synchronized String create(int id, String topicName, String pubUsername) throws RemoteException {
-		if (topicList.getTopic(id) == null) {
-			Topic topic = new Topic(id, topicName, pubUsername);
-			topicList.addTopic(topic);
-			Set<Integer> topics = pubTopicList.getOrDefault(pubUsername, new HashSet<Integer>());
-			topics.add(id);
-			pubTopicList.put(pubUsername, topics);
-			return "SUCCESS: Topic " + id + " created.\n";
-		}	
-		return "ERROR: Topic ID already exists. Please choose a new ID\n";
-		
+	public String create(int id, String topicName, String pubUsername) throws RemoteException {
+		return createTopic(id, topicName, pubUsername, false);
+	}
+	
+	/**
+     * Creates a new conflated topic. A message waiting in a subscriber's queue is replaced
+     * by the next one published to the topic, so a slow subscriber is only sent the latest value.
+     *
+     * @param id The ID of the new topic.
+     * @param topicName The name of the new topic.
+     * @param pubUsername The username of the publisher.
+     * @return A success message or an error message if the topic ID already exists.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+	@Override
+	public String createConflated(int id, String topicName, String pubUsername) throws RemoteException {
+		return createTopic(id, topicName, pubUsername, true);
+	}
+	
+	// Create a topic, conflated or delivering every message
+	private String createTopic(int id, String topicName, String pubUsername, boolean conflated) throws RemoteException {
+		publisherLeases.touch(pubUsername);
+		ReentrantLock lock = topicLocks.forTopic(id);
+		lock.lock();
+		try {
+			Topic topic = new Topic(id, topicName, pubUsername, conflated);
+			if (!topicList.addTopic(topic)) {  // Another broker may be creating the same ID, only the directory can tell which one won
+				return "ERROR: Topic ID already exists. Please choose a new ID\n";
+			}
+			claimHistory(topic);
+			routes.putTopic(topic);  // Don't wait for the directory's notification before accepting publishes
+			metrics.addTopic(id);
+			pubTopicList.computeIfAbsent(pubUsername, name -> new IntHashSet()).add(id);
+			return "SUCCESS: Topic " + id + " created" + (conflated ? " (conflated)" : "") + ".\n";
+		} finally {
+			lock.unlock();
+		}
 	}
 	
 	/**
@@ -122,22 +306,112 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
      * @throws RemoteException If a remote communication error occurs.
      */
 	@Override
-	public synchronized String publish(int id, String message, String username) throws RemoteException {
-		if (topicList.getTopic(id) == null) {
-			return "ERROR: Topic with id " + id + " does not exists.\n";
+	public String publish(int id, String message, String username) throws RemoteException {
+		return publish(id, message.getBytes(StandardCharsets.UTF_8), username);
+	}
+	
+	/**
+     * Publishes a message received as raw bytes, over RMI or the data plane.
+     *
+     * @param id The ID of the topic.
+     * @param payload The message content.
+     * @param username The username of the publisher.
+     * @return A success message or an error message if the topic does not exist.
+     */
+	String publish(int id, byte[] payload, String username) {
+		publisherLeases.touch(username);
+		// Enqueue to all subscriber and peer queues under the topic's lock so every queue sees the same order
+		ReentrantLock lock = topicLocks.forTopic(id);
+		lock.lock();
+		try {
+			Topic topic = routes.getTopic(id);
+			if (topic == null) {
+				return "ERROR: Topic with id " + id + " does not exists.\n";
+			}
+			IntHashSet topics = pubTopicList.get(username);
+			if (topics != null && topics.contains(id)) {
+				Envelope envelope = newEnvelope(id, publisherIdOf(username), payload);
+				sendMessage(envelope);
+				String dropped = broadcastMessage(envelope);
+				metrics.published(id, 1);
+				return dropped == null ? "SUCCESS: Message published for topic " + id + ".\n" : droppedResult(id, dropped);
+			}
+			else {
+				return "ERROR: Topic id " + id + " not found in publisher's topic list.\n";
+			}
+		} finally {
+			lock.unlock();
 		}
-		Set<Integer> topics = pubTopicList.get(username);
-		if (topics.contains(id)) {
-			Topic topic = topicList.getTopic(id);
-			String messageContent =  id + ":" + topic.getName() + ": " + message;
-			sendMessage(id, messageContent);
-			broadcastMessage(id, messageContent);
-			return "SUCCESS: Message published for topic " + id + ".\n";
+		
+	}
+	
+	/**
+     * Publishes a batch of messages, possibly for several topics, in one call. Batches a
+     * publisher has in flight at once are published in batch number order, and each run
+     * of consecutive messages for the same topic is published under one hold of the
+     * topic's lock.
+     *
+     * @param batch The messages and their topics.
+     * @param pubUsername The username of the publisher.
+     * @return The result of each message, as {@link #publish(int, String, String)} would return it.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+	@Override
+	public String[] publishBatch(PublishBatch batch, String pubUsername) throws RemoteException {
+		publisherLeases.touch(pubUsername);
+		try {
+			batchSequencer.awaitTurn(pubUsername, batch.getSession(), batch.getBatchId());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for earlier batches");
 		}
-		else {
-			return "ERROR: Topic id " + id + " not found in publisher's topic list.\n";
+		try {
+			String[] results = new String[batch.size()];
+			int start = 0;
+			while (start < batch.size()) {
+				int end = start + 1;
+				while (end < batch.size() && batch.getTopicId(end) == batch.getTopicId(start)) {
+					end++;
+				}
+				publishRun(batch, start, end, pubUsername, results);
+				start = end;
+			}
+			return results;
+		} finally {
+			batchSequencer.done(pubUsername, batch.getSession(), batch.getBatchId());
+		}
+	}
+	
+	// Publish messages start to end of a batch, which share a topic, checking the topic and publisher once
+	private void publishRun(PublishBatch batch, int start, int end, String username, String[] results) {
+		int id = batch.getTopicId(start);
+		ReentrantLock lock = topicLocks.forTopic(id);
+		lock.lock();
+		try {
+			String result;
+			IntHashSet topics = pubTopicList.get(username);
+			if (routes.getTopic(id) == null) {
+				result = "ERROR: Topic with id " + id + " does not exists.\n";
+			} else if (topics == null || !topics.contains(id)) {
+				result = "ERROR: Topic id " + id + " not found in publisher's topic list.\n";
+			} else {
+				int publisherId = publisherIdOf(username);
+				result = "SUCCESS: Message published for topic " + id + ".\n";
+				for (int i = start; i < end; i++) {
+					Envelope envelope = newEnvelope(id, publisherId, batch.getMessage(i).getBytes(StandardCharsets.UTF_8));
+					sendMessage(envelope);
+					String dropped = broadcastMessage(envelope);
+					results[i] = dropped == null ? result : droppedResult(id, dropped);
+				}
+				metrics.published(id, end - start);
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				results[i] = result;
+			}
+		} finally {
+			lock.unlock();
 		}
-		
 	}
 	
 	/**
@@ -149,15 +423,16 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
      */
 	@Override
 	public String show(String pubUsername) throws RemoteException {
+		publisherLeases.touch(pubUsername);
 
 		StringBuilder result = new StringBuilder();
 		
 		if (!pubTopicList.containsKey(pubUsername)) {
             return "Topic list for " + pubUsername + " is currently empty. Please create a new topic.\n";
 		}
-		Set<Integer> topicIds = pubTopicList.get(pubUsername);
+		IntHashSet topicIds = pubTopicList.get(pubUsername);
 		result.append("Current published topics (Topic ID: Topic Name: Subscriber count) :\n");
-		for (Integer id: topicIds) {
+		for (int id: topicIds.toArray()) {
 			Topic topic = topicList.getTopic(id);
 			result.append(topic.getId() + " : " + topic.getName() + " : " + topic.getSubCount() + "\n");
 		}
@@ -173,16 +448,34 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
      * @throws RemoteException If a remote communication error occurs.
      */
 	@Override
-	public synchronized String delete(int id, String pubUsername) throws RemoteException {
-		Topic topic = topicList.getTopic(id);
-		if (!pubTopicList.containsKey(pubUsername)) {
-			return "ERROR: Topic list is empty.\n";
+	public String delete(int id, String pubUsername) throws RemoteException {
+		publisherLeases.touch(pubUsername);
+		ReentrantLock lock = topicLocks.forTopic(id);
+		lock.lock();
+		try {
+			Topic topic = topicList.getTopic(id);
+			if (!pubTopicList.containsKey(pubUsername)) {
+				return "ERROR: Topic list is empty.\n";
+			}
+			if (topic == null) {
+				return "ERROR: Topic with id " + id + " does not exist.\n";
+			}
+			if (!pubTopicList.get(pubUsername).contains(id)) {
+				return "ERROR: Topic id " + id + " not found in publisher list.\n";
+			}
+			Envelope notice = newEnvelope(id, Envelope.SYSTEM_PUBLISHER, (" Topic " + id + " has been deleted and removed from your subscription list.").getBytes(StandardCharsets.UTF_8));
+			sendMessage(notice);
+			broadcastMessage(notice);
+		} finally {
+			lock.unlock();
 		}
-		if (topic == null) {
-			return "ERROR: Topic with id " + id + " does not exist.\n";
+		awaitPeerForwarding();  // Without the topic's lock, which messages forwarded from peers and other deletions on its stripe need meanwhile
+		lock.lock();
+		try {
+			return removeTopicFromPub(pubUsername, id);
+		} finally {
+			lock.unlock();
 		}
-		String result = removeTopicFromPub(pubUsername, id);
-		return result;
 	}
 
 	/**
@@ -201,7 +494,7 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
 		
 		result.append("List of topics available (Topic ID : Topic Name : Publisher) :\n");
 		for (Topic topic : topicList.getAllTopics()) {
-			result.append( topic.getId() + " : " + topic.getName() + " : " + topic.getPubName() + "\n");
+			result.append( topic.getId() + " : " + topic.getName() + " : " + topic.getPubName() + (topic.isConflated() ? " (latest value only)" : "") + "\n");
 		}
 		return result.toString();
 	};
@@ -216,19 +509,103 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
      * @throws RemoteException If a remote communication error occurs.
      */
 	@Override
-	public synchronized String sub(int topicId, IRemoteSub remoteSub, String username) throws RemoteException{
-		if (topicList.getTopic(topicId) == null) {
-			return "ERROR: Topic does not exist.\n";
+	public String sub(int topicId, IRemoteSub remoteSub, String username) throws RemoteException{
+		subscriberLeases.touch(username);
+		String result = subscribe(topicId, remoteSub, username, false);
+		awaitPeerInterest();
+		return result;
+	};
+	
+	/**
+     * Subscribes a user to a topic durably. The subscription and its offset are kept when
+     * the subscriber disconnects or stops sending heartbeats, and messages published
+     * meanwhile are delivered once it calls {@link #resume(IRemoteSub, String)}.
+     *
+     * @param topicId The ID of the topic to subscribe to.
+     * @param remoteSub The remote subscriber object.
+     * @param username The username of the subscriber.
+     * @return A success message or an error message if the topic does not exist, the user is already subscribed or the broker keeps no message log.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+	@Override
+	public String subDurable(int topicId, IRemoteSub remoteSub, String username) throws RemoteException{
+		subscriberLeases.touch(username);
+		if (messageLog == null) {
+			return "ERROR: Durable subscriptions need the broker's message log, start the broker with -Dbroker.logDir.\n";
+		}
+		String result = subscribe(topicId, remoteSub, username, true);
+		awaitPeerInterest();
+		return result;
+	};
+	
+	/**
+     * Reattaches a returning subscriber to its durable subscriptions. Messages logged after
+     * the last one it was handed are sent first, followed by live messages.
+     *
+     * @param remoteSub The remote subscriber object.
+     * @param username The username of the subscriber.
+     * @return The IDs of the topics resumed, empty if the subscriber has no durable subscriptions.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+	@Override
+	public int[] resume(IRemoteSub remoteSub, String username) throws RemoteException {
+		subscriberLeases.touch(username);
+		int[] topics = dispatcher.getDurableTopics(username);
+		if (topics.length > 0) {
+			dispatcher.register(username, sinkFor(username, remoteSub));
+			System.out.println("Subscriber " + username + " resumed " + topics.length + " durable subscription(s).");
 		}
-		if (! topicList.getSubTopicList().isEmpty()){
-			if ( topicList.getSubTopicList().get(username) != null &&  topicList.getSubTopicList().get(username).contains(topicId)) {
+		return topics;
+	}
+	
+	// Subscribe a user to a topic, durably or only while connected
+	private String subscribe(int topicId, IRemoteSub remoteSub, String username, boolean durable) throws RemoteException {
+		ReentrantLock lock = topicLocks.forTopic(topicId);
+		lock.lock();
+		try {
+			Topic topic = topicList.getTopic(topicId);
+			if (topic == null) {
+				return "ERROR: Topic does not exist.\n";
+			}
+			if (contains(topicList.getSubscribedTopics(username), topicId)) {
 				return "ERROR: Already subscribed to topic " + topicId + ".\n";
 			}
+			if (durable && topic.isConflated()) {
+				return "ERROR: Topic " + topicId + " is conflated and only delivers its latest value, subscribe without durable.\n";
+			}
+			Envelope retained = retainedCache == null ? null : retainedCache.get(topicId);
+			if (durable) {
+				try {
+					long offset = messageLog.getLastSequence(topicId);
+					if (retained != null) {
+						offset = Math.min(offset, retained.getSequence() - 1);  // Start from the retained message
+					}
+					dispatcher.addDurable(username, topicId, offset);  // Under the topic's lock, so no message falls between log and queue
+				} catch (IOException e) {
+					return "ERROR: Failed to open the log of topic " + topicId + ". " + e.getMessage() + "\n";
+				}
+			}
+			topicList.addSubscriber(topicId, username);
+			dispatcher.register(username, sinkFor(username, remoteSub));
+			if (retained != null) {
+				dispatcher.deliver(username, retained, topic.isConflated());  // Before any live message, which the topic's lock holds back
+			}
+			routes.addSubscriber(topicId, username);
+			return "SUCCESS: Succesfully subscribed to topic " + topicId + (durable ? " (durable)" : "") + ".\n";
+		} finally {
+			lock.unlock();
 		}
-		topicList.addSubscriber(topicId, username);
-		connectedSubscribers.put(username, remoteSub);
-		return "SUCCESS: Succesfully subscribed to topic " + topicId + ".\n";
-	};
+	}
+	
+	// Prefer the subscriber's data-plane connection, then its RMI callback, no sink means the subscriber polls
+	private MessageSink sinkFor(String username, IRemoteSub remoteSub) {
+		DataPlane plane = dataPlane;
+		MessageSink sink = plane == null ? null : plane.sinkFor(username);
+		if (sink == null && remoteSub != null) {
+			sink = new RemoteSubSink(remoteSub);
+		}
+		return sink;
+	}
 	
 	/**
      * Displays the current subscriptions of a subscriber.
@@ -239,19 +616,56 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
      */
 	@Override
 	public String current(String subUsername) throws RemoteException{
+		subscriberLeases.touch(subUsername);
 		StringBuilder result = new StringBuilder();
-		if (! topicList.getSubTopicList().containsKey(subUsername) ||  topicList.getSubTopicList().get(subUsername).isEmpty()) {
+		int[] topicIds = topicList.getSubscribedTopics(subUsername);
+		if (topicIds.length == 0) {
             return "No current subscription(s), previously subscribed topics may have been deleted.\n";
          }
-		Set<Integer> topicIds =  topicList.getSubTopicList().get(subUsername);
 		result.append("Current subscriptions (Topic ID : Topic Name : Publisher) : \n");
-		for (Integer topicId : topicIds) {
+		for (int topicId : topicIds) {
 			Topic topic = topicList.getTopic(topicId);
 			result.append(topic.getId() + " : " + topic.getName() + " : " + topic.getPubName() + "\n");
 		}
 		return result.toString();
 	};
 	
+	/**
+	 * Fetches messages queued for a subscriber in pull mode, waiting up to maxWaitMillis
+	 * for the first one so an idle subscriber does not need to poll in a tight loop.
+	 *
+	 * @param username The username of the subscriber.
+	 * @param maxMessages The maximum number of messages to return.
+	 * @param maxWaitMillis The maximum time to wait, capped by the broker.
+	 * @return The messages in order, empty if none arrived in time, or at once if the subscriber has no subscriptions in pull mode on this broker.
+	 * @throws RemoteException If a remote communication error occurs.
+	 */
+	@Override
+	public List<Envelope> poll(String username, int maxMessages, long maxWaitMillis) throws RemoteException {
+		subscriberLeases.touch(username);
+		try {
+			return new ArrayList<>(dispatcher.poll(username, Math.max(1, maxMessages), Math.min(Math.max(0, maxWaitMillis), BrokerConfig.MAX_POLL_WAIT)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ArrayList<>();
+		} finally {
+			subscriberLeases.touch(username);  // A long poll is the subscriber waiting, not gone
+		}
+	}
+	
+	/**
+	 * Returns the name of a topic, so a subscriber can label messages that only carry the topic ID.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The name of the topic, or null if it does not exist.
+	 * @throws RemoteException If a remote communication error occurs.
+	 */
+	@Override
+	public String getTopicName(int topicId) throws RemoteException {
+		Topic topic = routes.getTopic(topicId);
+		return topic == null ? null : topic.getName();
+	}
+	
 	/**
 	 * Unsubscribes a user from a topic.
 	 *
@@ -262,30 +676,64 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
 	 * @throws RemoteException If a remote communication error occurs.
 	 */
 	@Override
-	public synchronized String unsub(int topicId, String username) throws RemoteException{
-		if (!topicList.getSubTopicList().containsKey(username)) {
-			return "ERROR: No existing subscription to unsubscribe from.\n";
-		}
-		if (!topicList.getSubTopicList().get(username).contains(topicId)) {
-			return "ERROR: No existing subscription to topic " + topicId + " / Topic has been deleted.\n";
+	public String unsub(int topicId, String username) throws RemoteException{
+		subscriberLeases.touch(username);
+		ReentrantLock lock = topicLocks.forTopic(topicId);
+		lock.lock();
+		try {
+			int[] subscribed = topicList.getSubscribedTopics(username);
+			if (subscribed.length == 0) {
+				return "ERROR: No existing subscription to unsubscribe from.\n";
+			}
+			if (!contains(subscribed, topicId)) {
+				return "ERROR: No existing subscription to topic " + topicId + " / Topic has been deleted.\n";
+			}
+			topicList.removeSubscriber(topicId, username);
+			dispatcher.removeDurable(username, topicId);
+			if (routes.removeSubscriber(topicId, username)) {
+				dispatcher.remove(username);  // Keep delivering the subscriber's other topics
+			}
+			return "SUCCESS: Succesfully unsubscribed to topic " + topicId + ".\n";
+		} finally {
+			lock.unlock();
 		}
-		topicList.removeSubscriber(topicId, username);
-		connectedSubscribers.remove(username);
-		return "SUCCESS: Succesfully unsubscribed to topic " + topicId + ".\n";
 	};
 	
 	/**
-	 * Disconnects a subscriber from the broker.
+	 * Disconnects a subscriber from the broker. Durable subscriptions stay in place, so
+	 * the topics keep being logged for the subscriber until it resumes or unsubscribes.
 	 *
 	 * @param subName The name of the subscriber to disconnect.
 	 * @throws RemoteException If a remote communication error occurs.
 	 */
 	@Override
 	public void subDisconnect(String subName) throws RemoteException {
-		topicList.disconnectSubscriber(subName);
-		connectedSubscribers.remove(subName);
+		subscriberLeases.cancel(subName);
+		int[] durable = dispatcher.getDurableTopics(subName);
+		if (durable.length == 0) {
+			topicList.disconnectSubscriber(subName);
+			routes.removeSubscriber(subName);
+		} else {
+			for (int topicId : topicList.getSubscribedTopics(subName)) {
+				if (!contains(durable, topicId)) {
+					topicList.removeSubscriber(topicId, subName);
+					routes.removeSubscriber(topicId, subName);
+				}
+			}
+			System.out.println("Keeping " + durable.length + " durable subscription(s) of " + subName + " until it returns.");
+		}
+		dispatcher.remove(subName);
 	};
 	
+	// Disconnect a subscriber whose delivery queue overflowed under the disconnect policy, it keeps its durable subscriptions
+	private void disconnectSlowSubscriber(String subName) {
+		try {
+			subDisconnect(subName);
+		} catch (RemoteException e) {
+			System.out.println("Failed to disconnect slow subscriber " + subName + ": " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Disconnects a publisher from the broker.
 	 *
@@ -294,8 +742,11 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
 	 */
 	@Override
 	public void pubDisconnect(String pubName) throws RemoteException {
+		publisherLeases.cancel(pubName);
+	    batchSequencer.remove(pubName);
+	    
 	    // Get the list of topic IDs the publisher is responsible for
-	    Set<Integer> topics = pubTopicList.get(pubName);
+	    IntHashSet topics = pubTopicList.get(pubName);
 	    
 	    // Check if the publisher has topics; if not, simply return or log the error
 	    if (topics == null) {
@@ -303,31 +754,49 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
 	        return;
 	    }
 
+	    // Notify subscribers of every topic first, so peer brokers only need to be waited on once
+	    int[] topicIds = topics.toArray();
+	    for (int topicId : topicIds) {
+	    	ReentrantLock lock = topicLocks.forTopic(topicId);
+	    	lock.lock();
+	    	try {
+	    		Envelope notice = newEnvelope(topicId, Envelope.SYSTEM_PUBLISHER, ("Publisher " + pubName + " has disconnected. Topic " + topicId + " is no longer available and has been removed from your subscription list.").getBytes(StandardCharsets.UTF_8));
+	    		sendMessage(notice);
+	    		broadcastMessage(notice);
+	    	} finally {
+	    		lock.unlock();
+	    	}
+	    }
+	    awaitPeerForwarding();
+
 	    // Iterate through the topics and remove them
-	    for (int topicId : topics) {
-	        sendMessage(topicId, "Publisher " + pubName + " has disconnected. Topic " + topicId + " is no longer available and has been removed from your subscription list.");
-	        broadcastMessage(topicId, "Publisher " + pubName + " has disconnected. Topic " + topicId + " is no longer available and has been removed from your subscription list.");
-	        topicList.deleteTopic(topicId);  // Remove topic from the system
+	    for (int topicId : topicIds) {
+	    	ReentrantLock lock = topicLocks.forTopic(topicId);
+	    	lock.lock();
+	    	try {
+	    		topicList.deleteTopic(topicId);  // Remove topic from the system
+	    		routes.removeTopic(topicId);
+	    		discardHistory(topicId);
+	    	} finally {
+	    		lock.unlock();
+	    	}
 	    }
 
 	    // Remove the publisher from the pubTopicList after cleaning up
 	    pubTopicList.remove(pubName);
+	    publisherIds.remove(pubName);
 
 	    System.out.println("Publisher " + pubName + " has been disconnected and all their topics have been removed.");
 	};
 	
 	 
-	// Remove topic from publisher list
+	// Remove topic from publisher list once its deletion notice has been sent, caller holds the topic's lock
 	private String removeTopicFromPub(String username, int id) throws RemoteException {
-		Set<Integer> topics = pubTopicList.get(username);
-		if (topics.contains(id)) {
-			Topic topic = topicList.getTopic(id);
-			String message = " Topic " + id + " has been deleted and removed from your subscription list.";
-			String messageContent =  id + ":" + topic.getName() + ": " + message;
-			sendMessage(id, messageContent);
-			broadcastMessage(id, messageContent);
-			topics.remove(id);
+		IntHashSet topics = pubTopicList.get(username);
+		if (topics != null && topics.remove(id)) {  // Not deleted by a concurrent call while the notice was forwarded
 			topicList.deleteTopic(id);
+			routes.removeTopic(id);
+			discardHistory(id);
 			System.out.println("Topic id " + id + " removed from publisher list");
 			return "Topic id " + id + " successfully deleted.\n";
 		}
@@ -337,136 +806,233 @@ public class RemoteBroker extends UnicastRemoteObject implements IRemoteBPub, IR
 
     }
 	
-	// Broadcast message to all connected brokers
-	private synchronized void broadcastMessage(int topicId, String message) throws RemoteException {
-		if(!connectedBrokers.isEmpty()) {
-			for (IRemoteBroker broker : connectedBrokers) {
-				broker.receiveMessageFromBroker(topicId, message);
+	// Wait for peers to accept queued messages, so a deletion notice reaches remote subscribers before the directory tells their brokers the topic is gone
+	private void awaitPeerForwarding() {
+		try {
+			for (PeerForwarder broker : connectedBrokers.values()) {
+				if (!broker.awaitSent(BrokerConfig.PEER_FLUSH_TIMEOUT)) {
+					System.out.println("Timed out forwarding to broker port " + broker.getPeerPort() + " before topic deletion.");
+				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 	
-	// Send message to all connected subscribers of a topic on this broker
-	private synchronized void sendMessage(int topicId, String message) throws RemoteException {
-		List<String> subscribers = topicList.getAllRemoteSubscribers(topicId);
-        if (subscribers != null) {
-            for (String subscriberName : subscribers) {
-            	if(connectedSubscribers.containsKey(subscriberName)){
-            		IRemoteSub subObj = connectedSubscribers.get(subscriberName);
-                	subObj.receiveMessage(message);  // Notify each subscriber
-            	}
-            }
-        }
+	// Wait for peers to learn of interest this broker gained, so messages published on them once a subscription returns are forwarded here
+	private void awaitPeerInterest() {
+		try {
+			for (PeerForwarder broker : connectedBrokers.values()) {
+				if (!broker.awaitAdvertised(BrokerConfig.PEER_FLUSH_TIMEOUT)) {
+					System.out.println("Timed out advertising interest to broker port " + broker.getPeerPort() + ".");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	// Check whether a topic ID is in a list returned by the directory
+	private static boolean contains(int[] topicIds, int topicId) {
+		for (int id : topicIds) {
+			if (id == topicId) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Build the envelope for a message published through this broker, caller holds the topic's lock so sequence numbers follow queue order
+	private Envelope newEnvelope(int topicId, int publisherId, byte[] payload) {
+		return new Envelope(topicId, publisherId, routes.nextSequence(topicId), Envelope.now(), payload);
+	}
+	
+	// ID of a publisher connected to this broker, the broker port in the high bits keeps IDs from different brokers apart
+	private int publisherIdOf(String pubName) {
+		return publisherIds.computeIfAbsent(pubName, name -> (brokerPort << 16) | (publisherCount.incrementAndGet() & 0xFFFF));
+	}
+	
+	// Queue message for every connected broker with subscribers to the topic, each peer's forwarder sends concurrently and retries on failure, returns the ports of peers whose queue stayed full or null
+	private String broadcastMessage(Envelope message) {
+		String dropped = null;
+		for (PeerForwarder broker : connectedBrokers.values()) {
+			if (broker.isInterested(message.getTopicId())) {
+				if (!broker.forward(message)) {
+					dropped = (dropped == null ? "" : dropped + ", ") + broker.getPeerPort();
+				}
+			} else if (retainedCache != null && message.getPublisherId() != Envelope.SYSTEM_PUBLISHER) {
+				broker.retain(message);  // Only the peer's cache needs it, send the latest one per sync interval
+			}
+		}
+		return dropped;
+	}
+	
+	// Result of a publish that reached local subscribers but was dropped for some peer brokers
+	private static String droppedResult(int topicId, String peerPorts) {
+		return "ERROR: Message published for topic " + topicId + " but dropped for subscribers on broker port(s) " + peerPorts + ", their forwarding queue is full.\n";
+	}
+	
+	// Route a message forwarded by another broker under its topic's lock, so a subscriber joining meanwhile gets it either as the retained value or live, not both
+	private void receiveForwarded(Envelope message) {
+		ReentrantLock lock = topicLocks.forTopic(message.getTopicId());
+		lock.lock();
+		try {
+			sendMessage(message);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	// Keep a message as its topic's retained value, unless the topic has been deleted
+	private void retain(Envelope message) {
+		if (retainedCache != null && routes.getTopic(message.getTopicId()) != null) {
+			retainedCache.offer(message);
+		}
+	}
+	
+	// Delete a topic's on-disk log, if logging is enabled, its retained message and the durable subscriptions to it
+	private void discardHistory(int topicId) {
+		MessageLog log = messageLog;
+		if (log != null) {
+			log.deleteTopic(topicId);
+		}
+		dispatcher.removeDurableTopic(topicId);
+		if (retainedCache != null) {
+			retainedCache.remove(topicId);
+		}
+		metrics.removeTopic(topicId);
+	}
+	
+	// Discard what this broker kept of an earlier topic with the same ID, whose sequence numbers the new topic starts over, unless the log was written for this topic, caller holds the topic's lock
+	private void claimHistory(Topic topic) {
+		MessageLog log = messageLog;
+		try {
+			if (log != null && log.isCreation(topic.getId(), topic.getCreationStamp())) {
+				return;  // Logged before this broker restarted
+			}
+			discardHistory(topic.getId());
+			if (log != null) {
+				log.setCreation(topic.getId(), topic.getCreationStamp());
+			}
+		} catch (IOException e) {
+			System.out.println("Failed to open the log of topic " + topic.getId() + ": " + e.getMessage());
+		}
+	}
+	
+	// Tell every connected broker that this broker gained its first, or lost its last, local subscriber to a topic
+	private void advertiseInterest(int topicId, boolean interested) {
+		int[] topic = new int[] { topicId };
+		for (PeerForwarder broker : connectedBrokers.values()) {
+			broker.advertise(interested ? topic : NO_TOPICS, interested ? NO_TOPICS : topic);
+		}
+	}
+	
+	// Log message and retain it as the topic's last value, then queue it for all subscribers of a topic connected to this broker, delivery happens on the dispatcher's workers
+	private void sendMessage(Envelope message) {
+		MessageLog log = messageLog;
+		int topicId = message.getTopicId();
+		Topic topic = routes.getTopic(topicId);
+		if (log != null && (topic != null || !routes.getSubscribers(topicId).isEmpty())) {  // A late message for a deleted topic must not recreate its log
+			try {
+				log.append(message);
+			} catch (IOException e) {
+				System.out.println("Failed to log message " + message.getSequence() + " of topic " + topicId + ": " + e.getMessage());
+			}
+		}
+		retain(message);
+		boolean conflate = topic != null && topic.isConflated();
+		Set<String> subscribers = routes.getSubscribers(topicId);
+		if (!subscribers.isEmpty()) {
+			long start = System.nanoTime();
+			for (String subscriberName : subscribers) {
+				dispatcher.deliver(subscriberName, message, conflate);
+			}
+			metrics.fannedOut(System.nanoTime() - start);
+		}
 	}
 	
 	/**
-     * Updates the heartbeat timestamp for a publisher.
+     * Renews a publisher's lease, starting one on its first heartbeat. Other requests from
+     * the publisher renew the lease too, so it only needs to send heartbeats while quiet.
      *
      * @param pubName the name of the publisher
      * @throws RemoteException if a remote communication error occurs
      */
 	@Override
 	public void sendPubHeartbeat(String pubName) throws RemoteException {
-	    publisherHeartbeat.put(pubName, System.currentTimeMillis());
+	    publisherLeases.renew(pubName);
 	}
 	
 	/**
-     * Updates the heartbeat timestamp for a subscriber.
+     * Renews a subscriber's lease, starting one on its first heartbeat. Other requests from
+     * the subscriber and deliveries it accepts renew the lease too, so it only needs to
+     * send heartbeats while quiet.
      *
      * @param subName the name of the subscriber
      * @throws RemoteException if a remote communication error occurs
      */
 	@Override
 	public void sendSubHeartbeat(String subName) throws RemoteException {
-	    subscriberHeartbeat.put(subName, System.currentTimeMillis());
+	    subscriberLeases.renew(subName);
 	}
 
-
 	/**
-     * Checks if any publishers have crashed by comparing the current time 
-     * with the last received heartbeat. If a publisher has not sent a heartbeat
-     * within the defined interval, it is considered crashed.
-     *
-     * @throws RemoteException if a remote communication error occurs
-     */
-	private void checkForCrashedPub() throws RemoteException {
-	    long currentTime = System.currentTimeMillis();
-	    List<String> crashedPublishers = new ArrayList<>();
-
-	    // Check if any publiRemoteshers have stopped sending heartbeats
-	    for (String pubName : publisherHeartbeat.keySet()) {
-	        long lastHeartbeat = publisherHeartbeat.get(pubName);
-	        if (currentTime - lastHeartbeat > HEARTBEAT_INTERVAL ) {
-	            crashedPublishers.add(pubName);
-	        }
-	    }
-
-	    // Handle each crashed publisher
-	    for (String pubName : crashedPublishers) {
-	    	System.out.println("Publisher " + pubName + " has crashed.");
-	    	pubDisconnect(pubName); // Remove publisher and delete its topics
-	    	publisherHeartbeat.remove(pubName); // Remove from heartbeat map
-	    }
+	 * Starts expiring the leases of publishers and subscribers that stop sending heartbeats
+	 * and requests, disconnecting them as crashed.
+	 */
+	public void startLeaseExpiry() {
+		publisherLeases.start();
+		subscriberLeases.start();
 	}
 	
 	/**
-	 * Checks if any subscribers have crashed by comparing the current time with the
-	 * last received heartbeat. If a subscriber has not sent a heartbeat within the
-	 * defined interval, it is considered crashed.
-	 *
-	 * @throws RemoteException if a remote communication error occurs
+	 * Stops the broker's threads: lease expiry, forwarding to peer brokers, deliveries, the
+	 * data plane and the message log, which is flushed first. Clients and peers still
+	 * connected get no further messages.
 	 */
-	private void checkForCrashedSub() throws RemoteException {
-	    long currentTime = System.currentTimeMillis();
-	    List<String> crashedSubscribers = new ArrayList<>();
-
-	    // Check if any subscribers have stopped sending heartbeats
-	    for (String subName : subscriberHeartbeat.keySet()) {
-	        long lastHeartbeat = subscriberHeartbeat.get(subName);
-	        if (currentTime - lastHeartbeat > HEARTBEAT_INTERVAL) {
-	            System.out.println("Subscriber " + subName + " has stopped sending heartbeats.");
-	            crashedSubscribers.add(subName);
-	        }
-	    }
-
-	    // Handle each crashed subscriber
-	    for (String subName : crashedSubscribers) {
-	        System.out.println("Disconnecting crashed subscriber: " + subName);
-	        subDisconnect(subName);  // Unsubscribe the subscriber
-	        subscriberHeartbeat.remove(subName);  // Remove from heartbeat map
-	        System.out.println("Subscriber " + subName + " removed from heartbeat map.");
-	    }
+	void shutdown() {
+		publisherLeases.stop();
+		subscriberLeases.stop();
+		for (PeerForwarder broker : connectedBrokers.values()) {
+			broker.close();
+		}
+		dispatcher.shutdown();
+		DataPlane plane = dataPlane;
+		if (plane != null) {
+			plane.close();
+		}
+		MessageLog log = messageLog;
+		if (log != null) {
+			log.close();
+		}
+		metrics.getRegistry().close();
 	}
-
-	// Start a thread to periodically check for crashed subscribers
-	public void startSubHeartbeatMonitor() {
-	    Thread monitorThread = new Thread(() -> {
-	        while (true) {
-	            try {
-	                Thread.sleep(HEARTBEAT_INTERVAL ); //double the sleep interval to account for network latency
-	                checkForCrashedSub();
-	            } catch (InterruptedException | RemoteException e) {
-	                System.out.println("Error checking for crashed subscribers: " + e.getMessage());
-	            }
-	        }
-	    });
-	    monitorThread.start();
+	
+	// Disconnect a publisher whose lease expired and delete its topics, runs on the lease timer
+	private void expirePublisher(String pubName) {
+		System.out.println("Publisher " + pubName + " has crashed.");
+		metrics.publisherExpired();
+		try {
+			pubDisconnect(pubName);
+		} catch (RemoteException e) {
+			System.out.println("Error disconnecting crashed publisher " + pubName + ": " + e.getMessage());
+		}
 	}
-
-	// Method to periodically check for crashed clients
-	public void startPubHeartbeatMonitor() {
-		Thread monitorThread = new Thread(() -> {
-			while (true) {
-				try {
-					Thread.sleep(HEARTBEAT_INTERVAL);
-					checkForCrashedPub();
-				} catch (InterruptedException | RemoteException e) {
-					System.out.println("Error checking for crashed publishers: " + e.getMessage());
-				}
-			}
-		});
-		monitorThread.start();
+	
+	// Disconnect a subscriber whose lease expired, runs on the lease timer
+	private void expireSubscriber(String subName) {
+		System.out.println("Subscriber " + subName + " has stopped sending heartbeats, disconnecting it.");
+		metrics.subscriberExpired();
+		try {
+			subDisconnect(subName);
+		} catch (RemoteException e) {
+			System.out.println("Error disconnecting crashed subscriber " + subName + ": " + e.getMessage());
+		}
+	}
+	
+	// Count a batch a subscriber accepted, which shows it is alive
+	private void delivered(String subName, List<Envelope> batch) {
+		subscriberLeases.touch(subName);
+		metrics.delivered(batch);
 	}
-
-
 }
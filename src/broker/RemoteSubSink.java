@@ -0,0 +1,42 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+import remote.Envelope;
+import remote.IRemoteSub;
+
+/**
+ * Delivers messages to a subscriber by calling its exported RMI callback object.
+ */
+class RemoteSubSink implements MessageSink {
+
+	private final IRemoteSub remoteSub;
+
+	/**
+	 * Constructs a sink for the given callback object.
+	 *
+	 * @param remoteSub The remote subscriber object.
+	 */
+	RemoteSubSink(IRemoteSub remoteSub) {
+		this.remoteSub = remoteSub;
+	}
+
+	@Override
+	public void send(List<Envelope> messages) throws RemoteException {
+		remoteSub.receiveMessages(messages);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof RemoteSubSink && ((RemoteSubSink) other).remoteSub.equals(remoteSub);
+	}
+
+	@Override
+	public int hashCode() {
+		return remoteSub.hashCode();
+	}
+}
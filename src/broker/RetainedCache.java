@@ -0,0 +1,118 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remote.Envelope;
+import util.IntObjectHashMap;
+
+/**
+ * The last message published to each topic, kept so a new subscriber is sent the
+ * topic's current value straight away instead of waiting for the next publish.
+ * Each topic holds at most one message, and a message only replaces one with a lower
+ * sequence number, so copies arriving from several brokers in any order settle on the
+ * latest. Memory is bounded by the total payload size: once over the limit, the
+ * messages published longest ago are evicted until the cache is back under it.
+ */
+class RetainedCache {
+
+	private final IntObjectHashMap<Envelope> messages = new IntObjectHashMap<>();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final long maxBytes;
+	private final Object evictionLock = new Object();
+
+	/**
+	 * Constructs an empty cache.
+	 *
+	 * @param maxBytes The most bytes of encoded messages to keep across all topics.
+	 */
+	RetainedCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Keeps a message as its topic's current value, unless the cache already holds a later one.
+	 *
+	 * @param message The message. Broker notices are not retained.
+	 * @return true if the message is now the topic's current value.
+	 */
+	boolean offer(Envelope message) {
+		int size = message.encode().length;
+		if (message.getPublisherId() == Envelope.SYSTEM_PUBLISHER || size > maxBytes) {
+			return false;
+		}
+		boolean[] replaced = new boolean[1];
+		messages.compute(message.getTopicId(), (topicId, current) -> {
+			if (current != null && current.getSequence() >= message.getSequence()) {
+				return current;
+			}
+			totalBytes.addAndGet(size - (current == null ? 0 : current.encode().length));
+			replaced[0] = true;
+			return message;
+		});
+		if (replaced[0] && totalBytes.get() > maxBytes) {
+			evict();
+		}
+		return replaced[0];
+	}
+
+	/**
+	 * Returns the current value of a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The last message published to the topic, or null if none is retained.
+	 */
+	Envelope get(int topicId) {
+		return messages.get(topicId);
+	}
+
+	/**
+	 * Returns the current value of every topic.
+	 *
+	 * @return A snapshot of the retained messages.
+	 */
+	List<Envelope> values() {
+		return messages.values();
+	}
+
+	/**
+	 * Drops a topic's value, after the topic is deleted.
+	 *
+	 * @param topicId The ID of the topic.
+	 */
+	void remove(int topicId) {
+		Envelope removed = messages.remove(topicId);
+		if (removed != null) {
+			totalBytes.addAndGet(-removed.encode().length);
+		}
+	}
+
+	// Evict the values published longest ago until the cache is a tenth under its limit, so evictions come in batches
+	private void evict() {
+		synchronized (evictionLock) {
+			long target = maxBytes - maxBytes / 10;
+			while (totalBytes.get() > target) {
+				Envelope oldest = null;
+				for (Envelope message : messages.values()) {
+					if (oldest == null || message.getOriginTime() < oldest.getOriginTime()) {
+						oldest = message;
+					}
+				}
+				if (oldest == null) {
+					return;
+				}
+				Envelope victim = oldest;
+				messages.compute(victim.getTopicId(), (topicId, current) -> {
+					if (current != victim) {
+						return current;  // Replaced meanwhile, look again
+					}
+					totalBytes.addAndGet(-victim.encode().length);
+					return null;
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import directory.Topic;
+import util.IntHashSet;
+import util.IntObjectHashMap;
+
+/**
+ * Broker-local routing table. Holds a copy of the topic list, kept in sync with the
+ * directory through topic change notifications, and the subscribers of each topic that
+ * are connected to this broker. Publishing and forwarding only read this table, so
+ * the publish path never calls out to the directory. Whenever a topic gains its first
+ * local subscriber or loses its last one, the {@link InterestListener} is told so the
+ * broker can advertise its interest to peer brokers.
+ */
+public class RoutingTable {
+
+	/**
+	 * Receives changes in whether this broker has local subscribers for a topic.
+	 * Called in order for each topic while the table is being updated, so it must not block.
+	 */
+	public interface InterestListener {
+		void interestChanged(int topicId, boolean interested);
+	}
+
+	private final IntObjectHashMap<Topic> topics = new IntObjectHashMap<>();
+	private final IntObjectHashMap<Set<String>> topicSubscribers = new IntObjectHashMap<>();
+	private final Map<String, IntHashSet> subscriberTopics = new ConcurrentHashMap<>();
+	private final IntObjectHashMap<AtomicLong> sequences = new IntObjectHashMap<>();  // Last sequence number issued per topic
+	private final InterestListener interestListener;
+
+	/**
+	 * Constructs an empty routing table.
+	 *
+	 * @param interestListener The listener told when a topic gains or loses all local subscribers.
+	 */
+	public RoutingTable(InterestListener interestListener) {
+		this.interestListener = interestListener;
+	}
+
+	/**
+	 * Adds or replaces a topic.
+	 *
+	 * @param topic The topic to add.
+	 */
+	public void putTopic(Topic topic) {
+		topics.put(topic.getId(), topic);
+	}
+
+	/**
+	 * Removes a topic and all local subscriptions to it.
+	 *
+	 * @param topicId The ID of the topic.
+	 */
+	public void removeTopic(int topicId) {
+		topics.remove(topicId);
+		sequences.remove(topicId);
+		Set<String> subscribers = topicSubscribers.remove(topicId);
+		if (subscribers != null) {
+			interestListener.interestChanged(topicId, false);
+			for (String subName : subscribers) {
+				IntHashSet subscribed = subscriberTopics.get(subName);
+				if (subscribed != null) {
+					subscribed.remove(topicId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the topic with the given ID.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The topic, or null if it does not exist.
+	 */
+	public Topic getTopic(int topicId) {
+		return topics.get(topicId);
+	}
+
+	/**
+	 * Issues the next sequence number for a message published to a topic through this broker.
+	 * Numbers start at 1 and increase by one per message.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The sequence number.
+	 */
+	public long nextSequence(int topicId) {
+		return sequences.computeIfAbsent(topicId, id -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * Records that a local subscriber subscribed to a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param subName The name of the subscriber.
+	 */
+	public void addSubscriber(int topicId, String subName) {
+		topicSubscribers.compute(topicId, (id, subscribers) -> {
+			if (subscribers == null) {
+				subscribers = ConcurrentHashMap.newKeySet();
+				interestListener.interestChanged(topicId, true);
+			}
+			subscribers.add(subName);
+			return subscribers;
+		});
+		subscriberTopics.computeIfAbsent(subName, name -> new IntHashSet()).add(topicId);
+	}
+
+	/**
+	 * Records that a local subscriber unsubscribed from a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param subName The name of the subscriber.
+	 * @return true if the subscriber has no remaining subscriptions on this broker.
+	 */
+	public boolean removeSubscriber(int topicId, String subName) {
+		removeFromTopic(topicId, subName);
+		IntHashSet subscribed = subscriberTopics.get(subName);
+		if (subscribed != null) {
+			subscribed.remove(topicId);
+			return subscribed.isEmpty();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a local subscriber from every topic it subscribed to.
+	 *
+	 * @param subName The name of the subscriber.
+	 */
+	public void removeSubscriber(String subName) {
+		IntHashSet subscribed = subscriberTopics.remove(subName);
+		if (subscribed != null) {
+			for (int topicId : subscribed.toArray()) {
+				removeFromTopic(topicId, subName);
+			}
+		}
+	}
+
+	/**
+	 * Returns the topics that have at least one local subscriber.
+	 *
+	 * @return A snapshot of the topic IDs.
+	 */
+	public int[] getInterestedTopics() {
+		return topicSubscribers.keys();
+	}
+
+	// Remove a subscriber from a topic, dropping the topic entry once it has no local subscribers left
+	private void removeFromTopic(int topicId, String subName) {
+		topicSubscribers.compute(topicId, (id, subscribers) -> {
+			if (subscribers == null) {
+				return null;
+			}
+			subscribers.remove(subName);
+			if (subscribers.isEmpty()) {
+				interestListener.interestChanged(topicId, false);
+				return null;
+			}
+			return subscribers;
+		});
+	}
+
+	/**
+	 * Returns the local subscribers of a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return A live view of the subscribers, empty if there are none.
+	 */
+	public Set<String> getSubscribers(int topicId) {
+		Set<String> subscribers = topicSubscribers.get(topicId);
+		return subscribers == null ? Collections.<String>emptySet() : subscribers;
+	}
+}
@@ -0,0 +1,517 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import remote.Envelope;
+import util.IntObjectHashMap;
+
+/**
+ * Bounded outbound queue for a single subscriber. Messages are drained in order by
+ * at most one worker at a time, so a slow subscriber only delays its own messages.
+ * Whatever has queued is coalesced into batches of up to maxBatch messages, and a
+ * partially filled batch may linger for a short time to pick up more.
+ * <p>
+ * The queue is bounded by a message count and a byte count. A message arriving while
+ * either limit is reached is handled by the {@link OverflowPolicy}: it is dropped, the
+ * oldest queued messages are dropped for it, the queued messages of its topic are
+ * dropped so only the latest waits, or the subscriber is disconnected. Each action is
+ * counted in the subscriber's {@link OverflowCounters}.
+ * <p>
+ * Messages of a conflated topic keep a single place in the queue. While a message of
+ * such a topic is waiting, a newer one replaces it in place instead of queueing behind
+ * it, so the subscriber is only sent the latest value, at the position the first
+ * undelivered one held.
+ * <p>
+ * A queue without a sink belongs to a subscriber in pull mode: nothing is pushed, and
+ * messages wait in the queue until the subscriber fetches them with {@link #poll(int, long)}.
+ * <p>
+ * A subscriber with durable subscriptions has a {@link DurableCursor}. Its queue first
+ * catches up, sending the messages logged after the cursor's offsets straight from the
+ * {@link MessageLog} one batch at a time, while live messages queue up behind. Every
+ * message is logged before it is queued, so live messages that do not fit meanwhile
+ * can be dropped without loss. Once caught up, queued messages already sent from the
+ * log are skipped, and if the next queued message of a durable topic is not the one
+ * after the offset, the queue goes back to the log to fill the gap. Every batch handed
+ * to the subscriber advances the cursor's offsets. The same gap check means durable
+ * topics lose nothing to the overflow policy, their dropped messages are resent from
+ * the log once the subscriber catches up.
+ */
+class SubscriberQueue implements Runnable {
+
+	private final String subName;
+	private final MessageSink sink;
+	private volatile DurableCursor cursor;  // Null until the subscriber subscribes durably
+	private final MessageLog log;
+	private final ScheduledExecutorService executor;
+	private final BlockingQueue<Envelope> pending;
+	private final AtomicLong pendingBytes = new AtomicLong();  // Encoded size of the queued messages
+	private final long maxBytes;
+	private final OverflowPolicy policy;
+	private final OverflowCounters counters;
+	private final Runnable onDisconnect;
+	private final Consumer<List<Envelope>> onDelivered;
+	private final Consumer<SubscriberQueue> onClosed;
+	private final AtomicBoolean disconnecting = new AtomicBoolean(false);
+	private final IntObjectHashMap<Envelope> latest = new IntObjectHashMap<>();  // Newest message of each conflated topic with a place in the queue
+	private volatile boolean conflating;  // Set once a conflated topic's message is queued, so other queues skip the lookups
+	private volatile boolean overflowing;  // Over a limit since the queue was last emptied, so the overflow is only logged once
+	private final int maxBatch;
+	private final long lingerMillis;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private volatile boolean closed;
+	private boolean lingering;  // Only touched by the single scheduled drain
+	private volatile boolean catchingUp;
+	private int[] catchUpTopics;  // Catch-up state is only touched by the drain or poll that is catching up
+	private int catchUpIndex;
+	private long replayed;
+
+	/**
+	 * Constructs a queue delivering to the given subscriber.
+	 *
+	 * @param subName      The name of the subscriber.
+	 * @param sink         The subscriber's RMI callback or data-plane connection, or null if the subscriber polls.
+	 * @param cursor       The offsets of the subscriber's durable subscriptions, or null if it has none.
+	 * @param log          The broker's message log, or null if logging is disabled.
+	 * @param executor     The worker pool used to drain the queue.
+	 * @param capacity     The maximum number of undelivered messages.
+	 * @param maxBytes     The maximum encoded size of undelivered messages, or -1 for no limit.
+	 * @param policy       What to do with a message arriving while the queue is at a limit.
+	 * @param counters     The subscriber's counts of overflow actions.
+	 * @param onDisconnect Disconnects the subscriber, run on a worker once the policy decides to.
+	 * @param onDelivered  Told of every batch handed to the subscriber, pushed or polled.
+	 * @param onClosed     Told when the queue closes itself because its sink failed, so it can be unregistered.
+	 * @param maxBatch     The maximum number of messages sent in one call.
+	 * @param lingerMillis The time a partially filled batch waits for more messages.
+	 */
+	SubscriberQueue(String subName, MessageSink sink, DurableCursor cursor, MessageLog log, ScheduledExecutorService executor, int capacity, long maxBytes, OverflowPolicy policy, OverflowCounters counters, Runnable onDisconnect, Consumer<List<Envelope>> onDelivered, Consumer<SubscriberQueue> onClosed, int maxBatch, long lingerMillis) {
+		this.subName = subName;
+		this.sink = sink;
+		this.cursor = cursor;
+		this.log = log;
+		this.executor = executor;
+		this.pending = new ArrayBlockingQueue<>(capacity);
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+		this.counters = counters;
+		this.onDisconnect = onDisconnect;
+		this.onDelivered = onDelivered;
+		this.onClosed = onClosed;
+		this.maxBatch = maxBatch;
+		this.lingerMillis = lingerMillis;
+		if (cursor != null && log != null && cursor.getTopics().length > 0) {
+			startCatchUp();
+			if (sink != null) {
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Sets the offsets of the subscriber's durable subscriptions, once it first subscribes durably.
+	 *
+	 * @param cursor The subscriber's cursor.
+	 */
+	void setCursor(DurableCursor cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Adds a message to the queue and schedules a drain if none is running. If the queue
+	 * is at a limit the overflow policy decides whether the message is queued. Messages
+	 * of one topic must not be enqueued concurrently, the broker holds the topic's lock.
+	 *
+	 * @param message  The message to deliver.
+	 * @param conflate Whether the message replaces an undelivered one of its topic.
+	 * @return true if the message was queued, false if it was dropped or the queue is closed.
+	 */
+	boolean enqueue(Envelope message, boolean conflate) {
+		if (closed) {
+			return false;
+		}
+		int size = message.encode().length;
+		if (conflate) {
+			conflating = true;
+			Envelope replaced = latest.put(message.getTopicId(), message);
+			if (replaced != null) {
+				pendingBytes.addAndGet(size - replaced.encode().length);
+				return true;  // Sent in the replaced message's place, whose drain is already scheduled
+			}
+		}
+		if (!offer(message, size) && !overflow(message, size)) {
+			if (conflate) {
+				latest.remove(message.getTopicId());
+			}
+			return false;
+		}
+		if (sink != null) {
+			schedule();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes up to maxMessages queued messages, waiting up to maxWaitMillis for the first
+	 * one if the queue is empty. Used by subscribers in pull mode.
+	 *
+	 * @param maxMessages   The maximum number of messages to return.
+	 * @param maxWaitMillis The maximum time to wait for a message.
+	 * @return The messages in order, empty if none arrived in time.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	List<Envelope> poll(int maxMessages, long maxWaitMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		while (true) {
+			if (catchingUp) {
+				List<Envelope> logged = nextCatchUpBatch(maxMessages);
+				if (!logged.isEmpty()) {
+					cursor.commit(logged);
+					onDelivered.accept(logged);
+					return logged;
+				}
+			}
+			List<Envelope> batch = new ArrayList<>(Math.min(maxMessages, pending.size() + 1));
+			Envelope first = closed ? null : pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (first == null) {
+				return batch;
+			}
+			batch.add(first);
+			pending.drainTo(batch, maxMessages - 1);
+			takeBatch(batch);
+			if (pending.isEmpty()) {
+				overflowing = false;
+			}
+			reconcile(batch);
+			if (!batch.isEmpty()) {
+				DurableCursor durable = cursor;
+				if (durable != null) {
+					durable.commit(batch);
+				}
+				onDelivered.accept(batch);
+				return batch;
+			}
+			// Everything fetched was already sent from the log, keep waiting for new messages
+		}
+	}
+
+	/**
+	 * Returns the number of undelivered messages.
+	 *
+	 * @return The messages waiting in the queue.
+	 */
+	int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the encoded size of the undelivered messages.
+	 *
+	 * @return The bytes waiting in the queue.
+	 */
+	long getPendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/**
+	 * Returns the sink this queue delivers to.
+	 *
+	 * @return The subscriber's sink, or null if the subscriber polls.
+	 */
+	MessageSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Returns whether the queue has stopped delivering.
+	 *
+	 * @return true once closed.
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stops delivery and discards any undelivered messages.
+	 */
+	void close() {
+		closed = true;
+		pending.clear();
+		for (int topicId : latest.keys()) {
+			latest.remove(topicId);
+		}
+		pendingBytes.set(0);
+	}
+
+	// Drain queued messages to the subscriber in order, one batch per remote call, after catching up from the log
+	@Override
+	public void run() {
+		if (catchingUp && !closed && sendCatchUpBatch()) {
+			executor.execute(this);  // Stay scheduled, but give other subscribers' queues a turn between batches
+			return;
+		}
+		if (!closed && lingerMillis > 0 && !lingering && pending.size() < maxBatch) {
+			lingering = true;
+			executor.schedule(this, lingerMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		lingering = false;
+		try {
+			List<Envelope> batch = new ArrayList<>(Math.min(maxBatch, pending.size() + 1));
+			while (!closed && !catchingUp && pending.drainTo(batch, maxBatch) > 0) {
+				takeBatch(batch);
+				reconcile(batch);
+				if (batch.isEmpty()) {
+					continue;
+				}
+				try {
+					sink.send(batch);
+					DurableCursor durable = cursor;
+					if (durable != null) {
+						durable.commit(batch);
+					}
+					onDelivered.accept(batch);
+				} catch (IOException e) {
+					System.out.println("Failed to deliver " + batch.size() + " message(s) to subscriber " + subName + ": " + e.getMessage());
+				}
+				batch.clear();
+			}
+			if (pending.isEmpty()) {
+				overflowing = false;
+			}
+		} finally {
+			scheduled.set(false);
+			// A message may have arrived after the last poll but before the flag was cleared
+			if (!closed && (catchingUp || !pending.isEmpty())) {
+				schedule();
+			}
+		}
+	}
+
+	// Send one batch of logged messages the subscriber missed, false once it has caught up
+	private boolean sendCatchUpBatch() {
+		List<Envelope> batch = nextCatchUpBatch(maxBatch);
+		if (batch.isEmpty()) {
+			return false;
+		}
+		try {
+			sink.send(batch);
+			cursor.commit(batch);
+			onDelivered.accept(batch);
+		} catch (IOException e) {
+			System.out.println("Failed to send " + batch.size() + " logged message(s) to subscriber " + subName + ", stopping catch-up: " + e.getMessage());
+			close();  // Offsets stay where they are, so the next resume starts from the same point
+			onClosed.accept(this);
+		}
+		return true;
+	}
+
+	// Read the next logged messages after the cursor's offsets, topic by topic, empty once caught up with every topic
+	private List<Envelope> nextCatchUpBatch(int maxMessages) {
+		while (catchUpIndex < catchUpTopics.length) {
+			int topicId = catchUpTopics[catchUpIndex];
+			long offset = cursor.getOffset(topicId);
+			if (offset >= 0) {  // Skip topics unsubscribed from meanwhile
+				try {
+					List<Envelope> batch = log.read(topicId, offset + 1, maxMessages);
+					if (!batch.isEmpty()) {
+						replayed += batch.size();
+						return batch;
+					}
+				} catch (IOException e) {
+					System.out.println("Failed to read log of topic " + topicId + " for subscriber " + subName + ": " + e.getMessage());
+				}
+			}
+			catchUpIndex++;
+		}
+		catchingUp = false;
+		DurableCursor durable = cursor;
+		removeQueued(message -> !durable.isNew(message));  // Make room for live messages by dropping those already sent from the log
+		if (replayed > 0) {
+			System.out.println("Subscriber " + subName + " caught up on " + replayed + " logged message(s), switching to live delivery.");
+		}
+		return new ArrayList<>();
+	}
+
+	// Queue a message if it fits within both limits, an empty queue takes any message so an oversized one is not dropped forever
+	private boolean offer(Envelope message, int size) {
+		if (maxBytes >= 0 && pendingBytes.get() + size > maxBytes && !pending.isEmpty()) {
+			return false;
+		}
+		if (!pending.offer(message)) {
+			return false;
+		}
+		pendingBytes.addAndGet(size);
+		return true;
+	}
+
+	// Apply the overflow policy to a message that did not fit, true if it was queued after all
+	private boolean overflow(Envelope message, int size) {
+		if (catchingUp) {
+			return false;  // The gap is filled from the log once caught up
+		}
+		if (!overflowing) {
+			overflowing = true;
+			System.out.println("Subscriber " + subName + " has fallen behind, its delivery queue is at its limit (" + pending.size() + " messages, " + pendingBytes.get() + " bytes). Applying " + policy.getName() + ".");
+		}
+		switch (policy) {
+		case DROP_OLDEST:
+			return dropOldestUntilQueued(message, size);
+		case CONFLATE:
+			int topicId = message.getTopicId();
+			counters.conflated(removeQueued(queued -> queued.getTopicId() == topicId));
+			return offer(message, size) || dropOldestUntilQueued(message, size);
+		case DISCONNECT:
+			disconnect(message);
+			return false;
+		default:
+			counters.droppedNewest();
+			return false;
+		}
+	}
+
+	// Drop messages from the head of the queue until the message fits
+	private boolean dropOldestUntilQueued(Envelope message, int size) {
+		int dropped = 0;
+		while (!closed && !offer(message, size)) {
+			Envelope oldest = pending.poll();
+			if (oldest != null) {
+				discard(oldest);
+				dropped++;
+			}
+		}
+		counters.droppedOldest(dropped);
+		return !closed;
+	}
+
+	// Close the queue and have the broker disconnect the subscriber, telling it why first if it has a sink
+	private void disconnect(Envelope message) {
+		if (!disconnecting.compareAndSet(false, true)) {
+			return;
+		}
+		counters.disconnected();
+		close();
+		System.out.println("Disconnecting subscriber " + subName + " for falling behind.");
+		Envelope notice = new Envelope(message.getTopicId(), Envelope.SYSTEM_PUBLISHER, 0, Envelope.now(),
+				"You have been disconnected by the broker for falling too far behind. Subscribe again to continue receiving messages.".getBytes(StandardCharsets.UTF_8));
+		executor.execute(() -> {
+			if (sink != null) {
+				try {
+					sink.send(Collections.singletonList(notice));
+				} catch (IOException e) {
+					// The subscriber is being disconnected either way
+				}
+			}
+			onDisconnect.run();
+		});
+	}
+
+	// Remove queued messages matching a filter, keeping the byte count in step
+	private int removeQueued(Predicate<Envelope> filter) {
+		int[] removed = new int[1];
+		pending.removeIf(message -> {
+			if (!filter.test(message)) {
+				return false;
+			}
+			discard(message);
+			removed[0]++;
+			return true;
+		});
+		return removed[0];
+	}
+
+	// Account for a message removed from the queue without being sent, along with the newer message of a conflated topic holding its place
+	private void discard(Envelope message) {
+		Envelope newest = conflating ? latest.remove(message.getTopicId()) : null;
+		pendingBytes.addAndGet(-(newest != null ? newest : message).encode().length);
+	}
+
+	// Swap each conflated topic's place in a batch taken off the queue for the topic's newest message, and subtract the batch from the byte count
+	private void takeBatch(List<Envelope> batch) {
+		long bytes = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			Envelope message = batch.get(i);
+			if (conflating && latest.get(message.getTopicId()) != null) {
+				Envelope newest = latest.remove(message.getTopicId());
+				if (newest != null) {
+					message = newest;
+					batch.set(i, newest);
+				}
+			}
+			bytes += message.encode().length;
+		}
+		pendingBytes.addAndGet(-bytes);
+	}
+
+	// Start sending from the log after the cursor's offsets
+	private void startCatchUp() {
+		catchUpTopics = cursor.getTopics();
+		catchUpIndex = 0;
+		replayed = 0;
+		catchingUp = true;
+	}
+
+	// Remove queued messages of durable topics that were already sent from the log, and those after a gap, which the catch-up sends instead
+	private void reconcile(List<Envelope> batch) {
+		DurableCursor durable = cursor;
+		if (durable == null || log == null) {
+			return;
+		}
+		int[] topics = new int[4];
+		long[] expected = new long[4];  // Next sequence number to hand over, per durable topic in the batch
+		int topicCount = 0;
+		boolean gap = false;
+		Iterator<Envelope> messages = batch.iterator();
+		while (messages.hasNext()) {
+			Envelope message = messages.next();
+			long offset = durable.getOffset(message.getTopicId());
+			if (offset < 0) {
+				continue;
+			}
+			int i = 0;
+			while (i < topicCount && topics[i] != message.getTopicId()) {
+				i++;
+			}
+			if (i == topicCount) {
+				if (topicCount == topics.length) {
+					topics = Arrays.copyOf(topics, topicCount * 2);
+					expected = Arrays.copyOf(expected, topicCount * 2);
+				}
+				topics[i] = message.getTopicId();
+				expected[i] = offset + 1;
+				topicCount++;
+			}
+			if (message.getSequence() == expected[i]) {
+				expected[i]++;
+			} else {
+				messages.remove();
+				gap |= message.getSequence() > expected[i];
+			}
+		}
+		if (gap) {
+			startCatchUp();
+		}
+	}
+
+	// Submit a drain task unless one is already scheduled
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks striped by topic ID. Operations on the same topic are
+ * serialized, which keeps messages of one topic in publish order across every
+ * subscriber and peer queue, while operations on unrelated topics usually take
+ * different locks and run in parallel.
+ */
+final class TopicLocks {
+
+	private final ReentrantLock[] locks;
+	private final int mask;
+
+	/**
+	 * Constructs the lock stripes, rounding the count up to a power of two.
+	 *
+	 * @param stripes The minimum number of stripes.
+	 */
+	TopicLocks(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the lock guarding a topic.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @return The lock for the topic's stripe.
+	 */
+	ReentrantLock forTopic(int topicId) {
+		int hash = topicId * 0x9E3779B9;  // Spread sequential IDs across stripes
+		return locks[(hash ^ (hash >>> 16)) & mask];
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import remote.Envelope;
+
+/**
+ * The append-only log of one topic, stored as a directory of {@link LogSegment} files.
+ * Messages are appended to the newest segment, which is rolled once it is full or
+ * older than the configured segment age. Messages are addressed by their sequence
+ * number, which the publishing broker assigns per topic, so the same message has the
+ * same position in the log of every broker that holds it. A message whose sequence
+ * number is not past the last one logged, such as one forwarded again after a retry,
+ * is skipped. Old segments are removed by {@link #enforceRetention(long)}, while a
+ * read already under way keeps using their mappings until it finishes. The log records
+ * the creation stamp of the topic it was written for, since a topic created again with
+ * the same ID starts its sequence numbers over.
+ */
+class TopicLog {
+
+	// File in the topic's directory holding the creation stamp of the topic the log was written for
+	private static final String CREATION_FILE = "creation";
+
+	private final int topicId;
+	private final File dir;
+	private final TreeMap<Long, LogSegment> segments = new TreeMap<>();  // Keyed by base sequence number
+	private LogSegment active;  // Newest segment, null until the first append
+	private long lastSequence = -1;
+	private Long creationStamp;  // Null if no topic was recorded
+
+	/**
+	 * Opens the log of a topic, recovering any segments already in its directory.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param dir     The topic's log directory, created if missing.
+	 * @throws IOException If the directory cannot be created or a segment cannot be opened.
+	 */
+	TopicLog(int topicId, File dir) throws IOException {
+		this.topicId = topicId;
+		this.dir = dir;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create log directory " + dir);
+		}
+		File[] files = dir.listFiles((parent, name) -> name.endsWith(LogSegment.SUFFIX));
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				LogSegment segment = LogSegment.open(file);
+				segments.put(segment.getBaseSequence(), segment);
+				active = segment;
+				lastSequence = Math.max(lastSequence, segment.getLastSequence());
+			}
+		}
+		File creation = new File(dir, CREATION_FILE);
+		if (creation.isFile()) {
+			try {
+				creationStamp = Long.valueOf(new String(Files.readAllBytes(creation.toPath()), StandardCharsets.US_ASCII).trim());
+			} catch (NumberFormatException e) {
+				System.out.println("Ignoring unreadable creation stamp of topic " + topicId + " log");
+			}
+		}
+	}
+
+	/**
+	 * Appends a message, rolling to a new segment first if needed.
+	 *
+	 * @param message The message, which must belong to this topic.
+	 * @return true if the message was appended, false if it was already logged.
+	 * @throws IOException If a new segment cannot be created.
+	 */
+	synchronized boolean append(Envelope message) throws IOException {
+		if (message.getSequence() <= lastSequence) {
+			return false;
+		}
+		if (active == null || shouldRoll() || !active.append(message)) {
+			roll(message);
+			if (!active.append(message)) {
+				throw new IOException("Message " + message.getSequence() + " does not fit in a new segment of topic " + topicId);
+			}
+		}
+		lastSequence = message.getSequence();
+		return true;
+	}
+
+	/**
+	 * Reads logged messages in order, starting at the given sequence number or the first
+	 * message after it if that one is no longer held. The segments and their written sizes
+	 * are taken under the log's lock, but the records are copied out without it, so a long
+	 * read does not hold up appends to the topic.
+	 *
+	 * @param fromSequence The sequence number of the first message wanted.
+	 * @param maxMessages  The most messages to return.
+	 * @return The messages, empty if there are none from that sequence number on.
+	 */
+	List<Envelope> read(long fromSequence, int maxMessages) {
+		List<LogSegment> toRead;
+		int[] limits;
+		int start;
+		synchronized (this) {
+			Long first = segments.floorKey(fromSequence);
+			toRead = new ArrayList<>(segments.tailMap(first == null ? fromSequence : first).values());
+			limits = new int[toRead.size()];
+			for (int i = 0; i < limits.length; i++) {
+				limits[i] = toRead.get(i).size();
+			}
+			start = toRead.isEmpty() ? 0 : toRead.get(0).positionOf(fromSequence);
+		}
+		List<Envelope> messages = new ArrayList<>(Math.min(maxMessages, 256));
+		for (int i = 0; i < toRead.size() && messages.size() < maxMessages; i++) {
+			toRead.get(i).read(fromSequence, i == 0 ? start : 0, limits[i], maxMessages - messages.size(), messages);
+		}
+		return messages;
+	}
+
+	/**
+	 * Returns the sequence number of the last message logged.
+	 *
+	 * @return The last sequence number, or -1 if nothing has been logged.
+	 */
+	synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Returns whether the log was written for the topic with the given creation stamp.
+	 *
+	 * @param stamp The creation stamp of the topic.
+	 * @return true if the log records that stamp.
+	 */
+	synchronized boolean isCreation(long stamp) {
+		return creationStamp != null && creationStamp == stamp;
+	}
+
+	/**
+	 * Records the creation stamp of the topic the log is written for.
+	 *
+	 * @param stamp The creation stamp of the topic.
+	 * @throws IOException If the stamp cannot be written.
+	 */
+	synchronized void setCreation(long stamp) throws IOException {
+		Files.write(new File(dir, CREATION_FILE).toPath(), Long.toString(stamp).getBytes(StandardCharsets.US_ASCII));
+		creationStamp = stamp;
+	}
+
+	/**
+	 * Forces every segment appended to since the last flush to disk. The disk writes
+	 * happen outside the log's lock so appends are not held up by them.
+	 */
+	void flush() {
+		List<LogSegment> dirty = new ArrayList<>();
+		synchronized (this) {
+			for (LogSegment segment : segments.values()) {
+				if (segment.takeDirty()) {
+					dirty.add(segment);
+				}
+			}
+		}
+		for (LogSegment segment : dirty) {
+			segment.flush();
+		}
+	}
+
+	/**
+	 * Deletes the oldest segments while they are past the retention age or the log is
+	 * over the retention size. The active segment is never deleted.
+	 *
+	 * @param now The current time in milliseconds since the epoch.
+	 */
+	synchronized void enforceRetention(long now) {
+		long totalBytes = 0;
+		for (LogSegment segment : segments.values()) {
+			totalBytes += segment.size();
+		}
+		while (segments.size() > 1) {
+			Map.Entry<Long, LogSegment> oldest = segments.firstEntry();
+			LogSegment segment = oldest.getValue();
+			boolean expired = BrokerConfig.LOG_RETENTION_MILLIS >= 0 && now - segment.getLastAppendMillis() > BrokerConfig.LOG_RETENTION_MILLIS;
+			boolean oversized = BrokerConfig.LOG_RETENTION_BYTES >= 0 && totalBytes > BrokerConfig.LOG_RETENTION_BYTES;
+			if (!expired && !oversized) {
+				break;
+			}
+			segments.remove(oldest.getKey());
+			totalBytes -= segment.size();
+			segment.delete();
+		}
+	}
+
+	/**
+	 * Deletes every segment and the topic's log directory.
+	 */
+	synchronized void delete() {
+		for (LogSegment segment : segments.values()) {
+			segment.delete();
+		}
+		segments.clear();
+		active = null;
+		creationStamp = null;
+		File creation = new File(dir, CREATION_FILE);
+		if (creation.exists() && !creation.delete()) {
+			System.out.println("Failed to delete " + creation);
+		}
+		if (!dir.delete() && dir.exists()) {
+			System.out.println("Failed to delete log directory " + dir);
+		}
+	}
+
+	// Whether the active segment has reached its age limit, an empty segment is never rolled
+	private boolean shouldRoll() {
+		return active.size() > 0 && System.currentTimeMillis() - active.getCreatedMillis() > BrokerConfig.LOG_SEGMENT_MILLIS;
+	}
+
+	// Start a new segment holding the given message first, large enough for it even if it exceeds the usual size
+	private void roll(Envelope message) throws IOException {
+		int capacity = Math.max(BrokerConfig.LOG_SEGMENT_BYTES, message.encode().length + 8);
+		if (active != null && active.size() == 0) {
+			segments.remove(active.getBaseSequence());  // Never written to, replace it instead of leaving an empty file behind
+			active.delete();
+		}
+		active = LogSegment.create(dir, message.getSequence(), capacity);
+		segments.put(active.getBaseSequence(), active);
+	}
+}
@@ -6,10 +6,17 @@ package directory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.rmi.AlreadyBoundException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import metrics.MetricsRegistry;
+import metrics.RemoteCallMetrics;
 import remote.IRemoteTopic;
 import remote.IRemoteDir;
 
@@ -19,6 +26,8 @@ import remote.IRemoteDir;
  */
 public class Directory {
 	
+	private static final Map<Integer, Exported> EXPORTED = new ConcurrentHashMap<>();  // By registry port, RMI only weakly holds exported objects until a client in another JVM looks them up
+	
 	// Main method to create a directory registry and bind the topic remote object to it.
 	public static void main(String args[]) {
 		
@@ -33,12 +42,7 @@ public class Directory {
 			InetAddress inetAddress = InetAddress.getByName(ip);
 			int port = Integer.parseInt(args[1]);
 			
-			Registry registry = LocateRegistry.createRegistry(port);
-			IRemoteTopic topicList = new RemoteTopic(); 
-
-		    registry.bind("topics", topicList);
-		    IRemoteDir directory = new RemoteDir(); 
-		    registry.bind("directory", directory);
+			start(port);
 		    System.out.println("Directory service started at " + ip + ":" + port);
 		    
 		} catch (NumberFormatException e) {
@@ -55,4 +59,70 @@ public class Directory {
 		}
 		
 	}
+	
+	/**
+	 * Creates the directory's registry and binds the topic list and broker directory to it,
+	 * so brokers and clients in this or other JVMs can look them up. Both are bound behind
+	 * proxies that count and time their remote calls, and the directory's metrics are
+	 * exported over JMX.
+	 *
+	 * @param port The port of the registry.
+	 * @throws Exception If the registry cannot be created or the remote objects cannot be exported or bound.
+	 */
+	public static void start(int port) throws Exception {
+		Registry registry = LocateRegistry.createRegistry(port);
+		MetricsRegistry metrics = new MetricsRegistry("Directory", port);
+		RemoteCallMetrics calls = new RemoteCallMetrics(metrics);
+		RemoteTopic topicList = new RemoteTopic(); 
+
+	    Remote topics = calls.instrument(topicList, IRemoteTopic.class);
+	    RemoteDir directory = new RemoteDir(); 
+	    Remote dir = calls.instrument(directory, IRemoteDir.class);
+	    EXPORTED.put(port, new Exported(registry, metrics, topicList, topics, directory, dir));
+	    registry.bind("topics", UnicastRemoteObject.exportObject(topics, 0));
+	    registry.bind("directory", UnicastRemoteObject.exportObject(dir, 0));
+	    metrics.register(new DirectoryMetrics(topicList, directory));
+	    metrics.register("RemoteCalls", calls);
+	}
+	
+	/**
+	 * Stops a directory started in this JVM: stops notifying brokers of topic changes and
+	 * unexports its remote objects and registry.
+	 *
+	 * @param port The port of the directory's registry.
+	 * @throws NoSuchObjectException If the directory's remote objects were already unexported.
+	 */
+	public static void stop(int port) throws NoSuchObjectException {
+		Exported exported = EXPORTED.remove(port);
+		if (exported == null) {
+			return;
+		}
+		exported.topicList.close();
+		exported.metrics.close();
+		UnicastRemoteObject.unexportObject(exported.topics, true);
+		UnicastRemoteObject.unexportObject(exported.topicList, true);
+		UnicastRemoteObject.unexportObject(exported.dir, true);
+		UnicastRemoteObject.unexportObject(exported.directory, true);
+		UnicastRemoteObject.unexportObject(exported.registry, true);
+		System.out.println("Directory service on port " + port + " stopped");
+	}
+	
+	// What a directory started in this JVM exported
+	private static final class Exported {
+		final Registry registry;
+		final MetricsRegistry metrics;
+		final RemoteTopic topicList;
+		final Remote topics;
+		final RemoteDir directory;
+		final Remote dir;
+
+		Exported(Registry registry, MetricsRegistry metrics, RemoteTopic topicList, Remote topics, RemoteDir directory, Remote dir) {
+			this.registry = registry;
+			this.metrics = metrics;
+			this.topicList = topicList;
+			this.topics = topics;
+			this.directory = directory;
+			this.dir = dir;
+		}
+	}
 }
@@ -0,0 +1,78 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package directory;
+
+import java.util.Map;
+
+/**
+ * Metrics of the directory, read over JMX through {@link DirectoryMetricsMXBean}. Every
+ * value is read from the topic list and broker directory when asked for, so the
+ * directory's remote calls pay nothing for them.
+ */
+public class DirectoryMetrics implements DirectoryMetricsMXBean {
+
+	private final RemoteTopic topics;
+	private final RemoteDir brokers;
+
+	/**
+	 * Constructs the metrics of a directory.
+	 *
+	 * @param topics  The directory's topic list.
+	 * @param brokers The directory's broker registry.
+	 */
+	DirectoryMetrics(RemoteTopic topics, RemoteDir brokers) {
+		this.topics = topics;
+		this.brokers = brokers;
+	}
+
+	/**
+	 * Returns the number of topics.
+	 *
+	 * @return The topic count.
+	 */
+	@Override
+	public int getTopicCount() {
+		return topics.getTopicCount();
+	}
+
+	/**
+	 * Returns the number of subscribers subscribed to at least one topic.
+	 *
+	 * @return The subscriber count.
+	 */
+	@Override
+	public int getSubscriberCount() {
+		return topics.getSubscriberCount();
+	}
+
+	/**
+	 * Returns the number of subscribers of each topic, across all brokers.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	@Override
+	public Map<Integer, Integer> getTopicSubscriberCounts() {
+		return topics.getTopicSubscriberCounts();
+	}
+
+	/**
+	 * Returns the number of brokers registered with the directory.
+	 *
+	 * @return The broker count.
+	 */
+	@Override
+	public int getBrokerCount() {
+		return brokers.getBrokerCount();
+	}
+
+	/**
+	 * Returns the number of brokers listening for topic changes.
+	 *
+	 * @return The listener count.
+	 */
+	@Override
+	public int getTopicListenerCount() {
+		return topics.getListenerCount();
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package directory;
+
+import java.util.Map;
+
+/**
+ * Management interface of the directory's {@link DirectoryMetrics}, exported over JMX as
+ * "pubsub:type=Directory,port=&lt;directory port&gt;".
+ */
+public interface DirectoryMetricsMXBean {
+
+	/**
+	 * Returns the number of topics.
+	 *
+	 * @return The topic count.
+	 */
+	int getTopicCount();
+
+	/**
+	 * Returns the number of subscribers subscribed to at least one topic.
+	 *
+	 * @return The subscriber count.
+	 */
+	int getSubscriberCount();
+
+	/**
+	 * Returns the number of subscribers of each topic, across all brokers.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	Map<Integer, Integer> getTopicSubscriberCounts();
+
+	/**
+	 * Returns the number of brokers registered with the directory.
+	 *
+	 * @return The broker count.
+	 */
+	int getBrokerCount();
+
+	/**
+	 * Returns the number of brokers listening for topic changes.
+	 *
+	 * @return The listener count.
+	 */
+	int getTopicListenerCount();
+}
@@ -8,9 +8,10 @@ import java.net.UnknownHostException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import remote.IRemoteDir;
 
@@ -18,12 +19,14 @@ import remote.IRemoteDir;
  * The RemoteDir class represents a remote directory service in a distributed publish-subscribe system. 
  * This class provides methods for brokers to register themselves, query available brokers, and retrieve broker details. 
  * This class extends UnicastRemoteObject to allow for remote object transmission over RMI.
+ * Broker details are kept in a concurrent map, so clients can query without a lock.
+ * Registrations are serialized, so each broker is told about every broker registered
+ * before it and no two brokers registering at once miss each other.
  */
 public class RemoteDir extends UnicastRemoteObject implements IRemoteDir{
 	
-	private int brokerNumber;
-	private Map<Integer, String> brokerIps = new HashMap<>();
-	private Map<Integer, Integer> brokerPorts = new HashMap<>();
+	private final AtomicInteger brokerNumber = new AtomicInteger();
+	private final Map<Integer, String[]> brokerDetails = new ConcurrentHashMap<>(); // broker id to {ip, port}
 	
 	/**
 	 * Constructs a RemoteDir object, exporting it for RMI.
@@ -32,7 +35,6 @@ public class RemoteDir extends UnicastRemoteObject implements IRemoteDir{
 	 */
 	public RemoteDir() throws RemoteException {
 		super();
-		this.brokerNumber = 0;
 	}
 
 	/**
@@ -40,16 +42,20 @@ public class RemoteDir extends UnicastRemoteObject implements IRemoteDir{
      *
      * @param brokerIp The IP address of the broker.
      * @param brokerPort The port number of the broker.
-     * @return A list of currently registered broker ports.
+     * @return A list of the ports of brokers registered before this one.
      * @throws RemoteException If a remote communication error occurs.
      * @throws UnknownHostException If the broker's IP address cannot be determined.
      */
 	public List<Integer> registerBroker(String brokerIp, int brokerPort) throws RemoteException, UnknownHostException {
+		String hostAddress = InetAddress.getByName(brokerIp).getHostAddress();
 		List<Integer> res = new ArrayList<>();
-		res.addAll(brokerPorts.values());
-		int brokerId = ++brokerNumber;
-		brokerIps.put(brokerId, InetAddress.getByName(brokerIp).getHostAddress());
-		brokerPorts.put(brokerId, brokerPort);
+		synchronized (brokerDetails) {  // Of two brokers registering together, the later one must see the earlier
+			int brokerId = brokerNumber.incrementAndGet();
+			for (String[] details : brokerDetails.values()) {
+				res.add(Integer.parseInt(details[1]));
+			}
+			brokerDetails.put(brokerId, new String[] { hostAddress, String.valueOf(brokerPort) });
+		}
 		return res;
 	}
 
@@ -62,12 +68,25 @@ public class RemoteDir extends UnicastRemoteObject implements IRemoteDir{
 	public String queryBroker() throws RemoteException {
 		StringBuilder res = new StringBuilder();
 		res.append("Active brokers (ip:port):\n");
-		for (int i = 1; i <= brokerNumber; i++) {
-			res.append( "[" + i + "] " + brokerIps.get(i) + " : " + brokerPorts.get(i) + "\n");
+		int count = brokerNumber.get();
+		for (int i = 1; i <= count; i++) {
+			String[] details = brokerDetails.get(i);
+			if (details != null) {
+				res.append( "[" + i + "] " + details[0] + " : " + details[1] + "\n");
+			}
 		}
 		return res.toString();
 	}
 	
+	/**
+	 * Returns the number of brokers registered.
+	 *
+	 * @return The broker count.
+	 */
+	int getBrokerCount() {
+		return brokerDetails.size();
+	}
+	
 	/**
      * Retrieves the IP address and port of a specific broker by its ID.
      *
@@ -76,9 +95,10 @@ public class RemoteDir extends UnicastRemoteObject implements IRemoteDir{
      * @throws RemoteException If a remote communication error occurs.
      */
 	public String[] getBrokerDetails(int brokerId) throws RemoteException {
-		String[] res = new String[2];
-		res[0] = brokerIps.get(brokerId);
-		res[1] = String.valueOf(brokerPorts.get(brokerId));
-		return res;
+		String[] details = brokerDetails.get(brokerId);
+		if (details == null) {
+			return new String[] { null, "null" };
+		}
+		return details.clone();
 	}
 }
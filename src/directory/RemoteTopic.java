@@ -3,28 +3,40 @@
  */
 package directory;
 
+import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import remote.IRemoteSub;
 import remote.IRemoteTopic;
+import remote.IRemoteTopicListener;
+import util.IntHashSet;
+import util.IntObjectHashMap;
 
 /**
  * The RemoteTopicList class implements the IRemoteTopicList interface, providing methods for managing topics and 
  * their subscribers in a distributed publish-subscribe system. This class handles operations such as adding and 
  * deleting topics, managing subscribers, and retrieving topic information.
+ * All state is held in concurrent maps and sets so RMI threads from many brokers can
+ * update it safely and readers never take a lock. Topic IDs are kept unboxed in
+ * int-keyed maps and int sets. Subscriptions are indexed both ways, topic to subscribers
+ * and subscriber to topics, and both sides are updated together, so deleting a topic only
+ * touches its own subscribers and disconnecting a subscriber only touches its own topics.
  */
 public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	
-	private static List<Topic> topics = new ArrayList<>();
-	private static Map<Integer,Topic> topicIdList = new HashMap<>();
-	private static Map<Integer, List<String>> topicSubscriber = new HashMap<>(); // to keep track of remote subscribers for message broadcasting
-	private static Map<String, Set<Integer>> subTopicList = new HashMap<>();
+	private static IntObjectHashMap<Topic> topicIdList = new IntObjectHashMap<>();
+	private static IntObjectHashMap<Set<String>> topicSubscriber = new IntObjectHashMap<>(); // to keep track of remote subscribers for message broadcasting
+	private static Map<String, IntHashSet> subTopicList = new ConcurrentHashMap<>();
+	private static Map<IRemoteTopicListener, ExecutorService> listeners = new HashMap<>(); // each listener is notified in order on its own thread
 
 	 /**
      * Constructs a RemoteTopicList object, exporting it for RMI.
@@ -35,15 +47,21 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	}
 	
 	/**
-     * Adds a new topic to the list and updates the relevant mappings.
+     * Adds a new topic to the list and updates the relevant mappings, unless a topic with
+     * the same ID already exists.
      * @param topic The topic to be added.
+     * @return true if the topic was added, false if its ID is taken.
      */
 	@Override
-	public void addTopic(Topic topic) {
-		topics.add(topic);
-		topicIdList.put(topic.getId(),topic);
+	public boolean addTopic(Topic topic) {
+		synchronized (listeners) {
+			if (topicIdList.putIfAbsent(topic.getId(), topic) != null) {
+				return false;
+			}
+			notifyListeners(listener -> listener.topicAdded(topic));
+		}
 	    System.out.println("Topic added for publisher "+ topic.getPubName());
-		
+		return true;
 	}
 	
 	/**
@@ -53,15 +71,20 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	 */
 	@Override
 	public void deleteTopic(int topicId) {
-		Topic topic = topicIdList.get(topicId);
-		topics.remove(topic);
-		topicIdList.remove(topicId);
-	    topicSubscriber.remove(topicId);
-		for (Set<Integer> topics : subTopicList.values()) {
-			if (topics.contains(topicId)) {
-				topics.remove(topicId);
-			}
+		synchronized (listeners) {
+			topicIdList.remove(topicId);
+			notifyListeners(listener -> listener.topicDeleted(topicId));
 		}
+		// Subscribers added after this point are rejected because the topic is gone
+	    Set<String> subscriberNames = topicSubscriber.remove(topicId);
+	    if (subscriberNames != null) {
+	    	for (String subName : subscriberNames) {
+	    		IntHashSet subscribedTopics = subTopicList.get(subName);
+	    		if (subscribedTopics != null) {
+	    			subscribedTopics.remove(topicId);
+	    		}
+	    	}
+	    }
 	    System.out.println("Topic id " + topicId + " deleted");
 	}
 	
@@ -73,18 +96,23 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	 */
 	@Override
 	public void addSubscriber(int topicId, String username) {
-		List<String> subscriberNames = topicSubscriber.getOrDefault(topicId, new ArrayList<String>());
-		subscriberNames.add(username);
-		topicSubscriber.put(topicId, subscriberNames);
+		// Both indexes are updated while the topic's entry is locked, so a concurrent deleteTopic sees either both or neither
+		topicSubscriber.compute(topicId, (id, subscriberNames) -> {
+			Topic topic = topicIdList.get(topicId);
+			if (topic == null) {
+				return subscriberNames;
+			}
+			if (subscriberNames == null) {
+				subscriberNames = ConcurrentHashMap.newKeySet();
+			}
+			if (subscriberNames.add(username)) {
+				topic.addSubCount();
+			}
+			subTopicList.computeIfAbsent(username, name -> new IntHashSet()).add(topicId);
+			return subscriberNames;
+		});
 		System.out.println("Subscriber added to topic id " + topicId);
 		
-		Set<Integer> subscribedTopics = subTopicList.getOrDefault(username, new HashSet<Integer>());
-		subscribedTopics.add(topicId);
-		subTopicList.put(username, subscribedTopics);
-		
-		Topic topic = topicIdList.get(topicId);
-		topic.addSubCount();
-		
 	}
 	
 	/**
@@ -95,22 +123,23 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
      */
 	@Override
 	public void removeSubscriber(int topicId, String subName) {
-		List<String> subscriberNames = topicSubscriber.get(topicId);
-
-		// Null check in case the topic does not have any subscribers
-		if (subscriberNames != null) {
-			subscriberNames.remove(subName);
-		}
-
-		// Decrease the subscriber count for the topic
-		Topic topic = topicIdList.get(topicId);
-		if (topic != null) {
-			topic.decreaseSubCount();
-		}
+		topicSubscriber.compute(topicId, (id, subscriberNames) -> {
+			// Null check in case the topic does not have any subscribers
+			if (subscriberNames != null && subscriberNames.remove(subName)) {
+				// Decrease the subscriber count for the topic
+				Topic topic = topicIdList.get(topicId);
+				if (topic != null) {
+					topic.decreaseSubCount();
+				}
+			}
 
-		// Remove the topic from the subscriber's list of subscribed topics
-		Set<Integer> subscribedTopics = subTopicList.getOrDefault(subName, new HashSet<>());
-		subscribedTopics.remove(topicId);
+			// Remove the topic from the subscriber's list of subscribed topics
+			IntHashSet subscribedTopics = subTopicList.get(subName);
+			if (subscribedTopics != null) {
+				subscribedTopics.remove(topicId);
+			}
+			return subscriberNames == null || subscriberNames.isEmpty() ? null : subscriberNames;
+		});
 	}
 	
 	/**
@@ -120,7 +149,7 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	 */
 	@Override
 	public void disconnectSubscriber(String subName) {
-		Set<Integer> topics = subTopicList.get(subName);
+		IntHashSet topics = subTopicList.remove(subName);
 	    
 	    // Null check to avoid any issues if subscriber is not found
 	    if (topics == null || topics.isEmpty()) {
@@ -128,10 +157,9 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	        return;
 	    }
 	    
-	    for (int topicId : topics) {
+	    for (int topicId : topics.toArray()) {
 	        removeSubscriber(topicId, subName);
 	    }
-	    subTopicList.remove(subName);
 	    System.out.println("Subscriber " + subName + " has been disconnected from all topics.");
 	}
 	
@@ -143,12 +171,9 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	 */
 	@Override
 	public List<String> getAllRemoteSubscribers(int topicId) {
-		if(topicSubscriber.containsKey(topicId)){
-			for (Map.Entry<Integer, List<String>> entry : topicSubscriber.entrySet()) {
-				System.out.println("Subscribers: " + entry.getValue());
-			}
-			return topicSubscriber.get(topicId);
-			
+		Set<String> subscriberNames = topicSubscriber.get(topicId);
+		if(subscriberNames != null){
+			return new ArrayList<>(subscriberNames);
 		}
 		return null;
 	}
@@ -160,17 +185,21 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
 	 */
 	@Override
 	public List<Topic> getAllTopics() {
+		List<Topic> topics = topicIdList.values();
+		topics.sort(Comparator.comparingInt(Topic::getId));
 		return topics;
 	}
 	
 	/**
-     * Retrieves a map of all topics subscribed to by each subscriber.
+     * Retrieves the IDs of the topics a subscriber is subscribed to.
      * 
-     * @return A map of all topics subscribed to by each subscriber.
+     * @param subName The name of the subscriber.
+     * @return The subscribed topic IDs, empty if there are none.
      */
 	@Override
-	public Map<String, Set<Integer>> getSubTopicList() {
-		return subTopicList;
+	public int[] getSubscribedTopics(String subName) {
+		IntHashSet topics = subTopicList.get(subName);
+		return topics == null ? new int[0] : topics.toArray();
 	}
 	
 	/**
@@ -181,13 +210,120 @@ public class RemoteTopic extends UnicastRemoteObject implements IRemoteTopic{
      */
 	@Override
 	public Topic getTopic(int id) {
-		if(topicIdList.containsKey(id)){
-			return topicIdList.get(id);
+		return topicIdList.get(id);
+	}
+	
+	/**
+	 * Registers a listener for topic changes. The listener is first sent every existing
+	 * topic, then each later addition and deletion in order.
+	 * 
+	 * @param listener The listener to notify.
+	 */
+	@Override
+	public void addTopicListener(IRemoteTopicListener listener) {
+		synchronized (listeners) {
+			ExecutorService notifier = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "topic-listener-" + listeners.size());
+				thread.setDaemon(true);
+				return thread;
+			});
+			ExecutorService previous = listeners.put(listener, notifier);
+			if (previous != null) {
+				previous.shutdownNow();
+			}
+			for (Topic topic : topicIdList.values()) {
+				send(listener, notifier, l -> l.topicAdded(topic));
+			}
 		}
-		else {
-            return null;
-        }
+		System.out.println("Topic listener registered");
 	}
 	
+	/**
+	 * Returns the number of topics.
+	 *
+	 * @return The topic count.
+	 */
+	int getTopicCount() {
+		return topicIdList.size();
+	}
 	
+	/**
+	 * Returns the number of subscribers subscribed to at least one topic.
+	 *
+	 * @return The subscriber count.
+	 */
+	int getSubscriberCount() {
+		int count = 0;
+		for (IntHashSet topics : subTopicList.values()) {
+			if (!topics.isEmpty()) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of subscribers of each topic, across all brokers.
+	 *
+	 * @return The counts, keyed by topic ID.
+	 */
+	Map<Integer, Integer> getTopicSubscriberCounts() {
+		Map<Integer, Integer> counts = new TreeMap<>();
+		for (Topic topic : topicIdList.values()) {
+			Set<String> subscriberNames = topicSubscriber.get(topic.getId());
+			counts.put(topic.getId(), subscriberNames == null ? 0 : subscriberNames.size());
+		}
+		return counts;
+	}
+	
+	/**
+	 * Returns the number of brokers listening for topic changes.
+	 *
+	 * @return The listener count.
+	 */
+	int getListenerCount() {
+		synchronized (listeners) {
+			return listeners.size();
+		}
+	}
+	
+	/**
+	 * Stops notifying every registered listener, once the directory has stopped.
+	 */
+	void close() {
+		synchronized (listeners) {
+			for (ExecutorService notifier : listeners.values()) {
+				notifier.shutdownNow();
+			}
+			listeners.clear();
+		}
+	}
+	
+	// Queue a notification for every registered listener, must be called holding the listeners lock
+	private void notifyListeners(Notification notification) {
+		for (Map.Entry<IRemoteTopicListener, ExecutorService> entry : listeners.entrySet()) {
+			send(entry.getKey(), entry.getValue(), notification);
+		}
+	}
+	
+	// Queue a notification for one listener, dropping the listener if it can no longer be reached
+	private void send(IRemoteTopicListener listener, ExecutorService notifier, Notification notification) {
+		notifier.execute(() -> {
+			try {
+				notification.send(listener);
+			} catch (RemoteException e) {
+				System.out.println("Topic listener unreachable, removing: " + e.getMessage());
+				synchronized (listeners) {
+					if (listeners.remove(listener, notifier)) {
+						notifier.shutdownNow();
+					}
+				}
+			}
+		});
+	}
+	
+	// A topic change sent to a listener
+	private interface Notification {
+		void send(IRemoteTopicListener listener) throws RemoteException;
+	}
 }
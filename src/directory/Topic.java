@@ -7,12 +7,16 @@ package directory;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Topic class represents a topic in a publish-subscribe system.
  * Each topic has an ID, a name, a publisher name, and a count of current subscribers.
+ * A conflated topic only delivers its latest value: a message still waiting for a
+ * subscriber is replaced by the next one published.
+ * A topic deleted and created again keeps its ID but gets a new creation stamp, so
+ * brokers can tell what they kept of the earlier topic apart from the new one.
  * This class implements Serializable to allow for remote transmission over RMI.
  */
 public class Topic implements Serializable{
@@ -20,7 +24,9 @@ public class Topic implements Serializable{
 	private int id;
 	private String name;
 	private String pubName;
-	private int subCount;
+	private final boolean conflated;
+	private final long creationStamp = ThreadLocalRandom.current().nextLong();
+	private final AtomicInteger subCount = new AtomicInteger();
 
 	/**
 	 * Constructs a Topic object with the specified ID, name, and publisher name.
@@ -31,11 +37,23 @@ public class Topic implements Serializable{
 	 * @throws RemoteException If an error occurs during remote object construction.
 	 */
 	public Topic(int id, String name, String pubName) throws RemoteException{
+		this(id, name, pubName, false);
+	}
+
+	/**
+	 * Constructs a Topic object that may be conflated.
+	 * 
+	 * @param id        The ID of the topic.
+	 * @param name      The name of the topic.
+	 * @param pubName   The name of the publisher.
+	 * @param conflated Whether subscribers only need the latest message of the topic.
+	 * @throws RemoteException If an error occurs during remote object construction.
+	 */
+	public Topic(int id, String name, String pubName, boolean conflated) throws RemoteException{
 		this.id = id;
 		this.name = name;
 		this.pubName = pubName;
-		this.subCount = 0;
-
+		this.conflated = conflated;
 	}
 
 	/**
@@ -65,18 +83,36 @@ public class Topic implements Serializable{
 		return pubName;
 	}
 	
+	/**
+	 * Returns whether undelivered messages of the topic are replaced by newer ones.
+	 * 
+	 * @return true if the topic is conflated.
+	 */
+	public boolean isConflated() {
+		return conflated;
+	}
+	
+	/**
+	 * Returns the stamp that tells this topic apart from other topics created with the same ID.
+	 * 
+	 * @return The creation stamp of the topic.
+	 */
+	public long getCreationStamp() {
+		return creationStamp;
+	}
+	
 	/**
 	 * Increases the subscriber count of the topic by 1.
 	 */
 	public void addSubCount() {
-		this.subCount++;
+		subCount.incrementAndGet();
 	}
 	
 	/**
 	 * Decrements the subscriber count by one.
 	 */
 	public void decreaseSubCount() {
-		this.subCount--;
+		subCount.decrementAndGet();
 	}
 	
 	/**
@@ -85,7 +121,7 @@ public class Topic implements Serializable{
 	 * @return The number of subscribers.
 	 */
 	public int getSubCount() {
-		return subCount;
+		return subCount.get();
 	}
 
 
@@ -0,0 +1,121 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package metrics;
+
+import java.beans.ConstructorProperties;
+
+import util.Histogram;
+
+/**
+ * The count, mean and usual percentiles of a latency histogram, in the unit the
+ * histogram was recorded in. MXBean attributes of this type are shown by JMX clients as
+ * composite data with one item per getter.
+ */
+public class LatencySummary {
+
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+	private final long max;
+
+	/**
+	 * Constructs a summary from its values.
+	 *
+	 * @param count The number of latencies counted.
+	 * @param mean  The mean latency.
+	 * @param p50   The median latency.
+	 * @param p90   The 90th percentile.
+	 * @param p99   The 99th percentile.
+	 * @param p999  The 99.9th percentile.
+	 * @param max   The largest latency.
+	 */
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+	public LatencySummary(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * Summarizes a histogram.
+	 *
+	 * @param histogram The latencies.
+	 * @return The summary of the values counted so far.
+	 */
+	public static LatencySummary of(Histogram histogram) {
+		return new LatencySummary(histogram.getCount(), histogram.getMean(), histogram.getValueAtPercentile(50),
+				histogram.getValueAtPercentile(90), histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+				histogram.getMax());
+	}
+
+	/**
+	 * Returns the number of latencies counted.
+	 *
+	 * @return The count.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean latency.
+	 *
+	 * @return The mean, 0 if nothing was counted.
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Returns the median latency.
+	 *
+	 * @return The 50th percentile.
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * Returns the 90th percentile latency.
+	 *
+	 * @return The 90th percentile.
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * Returns the 99th percentile latency.
+	 *
+	 * @return The 99th percentile.
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * Returns the 99.9th percentile latency.
+	 *
+	 * @return The 99.9th percentile.
+	 */
+	public long getP999() {
+		return p999;
+	}
+
+	/**
+	 * Returns the largest latency.
+	 *
+	 * @return The maximum.
+	 */
+	public long getMax() {
+		return max;
+	}
+}
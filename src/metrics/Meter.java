@@ -0,0 +1,76 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and estimates their recent rate. Marking an event only adds to a
+ * {@link LongAdder}, which spreads concurrent updates over separate cells, so threads
+ * marking the same meter do not contend. The rate is an exponentially weighted moving
+ * average over about a minute, updated by the {@link MetricsRegistry} that created the
+ * meter every {@link #TICK_SECONDS} seconds.
+ */
+public class Meter {
+
+	/**
+	 * Seconds between updates of the rate.
+	 */
+	static final int TICK_SECONDS = 5;
+	private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+	private final LongAdder count = new LongAdder();
+	private long ticked;  // Count at the last tick, only touched by the ticking thread
+	private boolean started;
+	private volatile double rate;
+
+	/**
+	 * Counts one event.
+	 */
+	public void mark() {
+		count.increment();
+	}
+
+	/**
+	 * Counts a number of events.
+	 *
+	 * @param events The number of events.
+	 */
+	public void mark(long events) {
+		count.add(events);
+	}
+
+	/**
+	 * Returns the number of events counted.
+	 *
+	 * @return The count since the meter was created.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the recent rate of events.
+	 *
+	 * @return Events per second, averaged over about the last minute.
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Folds the events counted since the last tick into the rate.
+	 */
+	void tick() {
+		long total = count.sum();
+		double instant = (double) (total - ticked) / TICK_SECONDS;
+		ticked = total;
+		if (started) {
+			rate += ALPHA * (instant - rate);
+		} else {
+			rate = instant;
+			started = true;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Exports the metrics of one broker or directory as MBeans on the platform MBean server,
+ * where JConsole, VisualVM or any JMX client can read them. Names are
+ * "pubsub:type=&lt;component&gt;,port=&lt;registry port&gt;" with a name key for each
+ * further MBean of the component, so several brokers in one JVM keep their metrics
+ * apart. Remote JMX clients need the JVM started with the usual
+ * -Dcom.sun.management.jmxremote.port settings.
+ * <p>
+ * The registry also owns the component's {@link Meter}s and updates their rates on a
+ * daemon thread.
+ */
+public class MetricsRegistry {
+
+	private static final String DOMAIN = "pubsub";
+
+	private final String component;
+	private final int port;
+	private final Set<Meter> meters = ConcurrentHashMap.newKeySet();
+	private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService ticker;
+
+	/**
+	 * Constructs the registry of a component.
+	 *
+	 * @param component The kind of component, such as Broker or Directory.
+	 * @param port      The component's registry port, which tells apart components of the same kind.
+	 */
+	public MetricsRegistry(String component, int port) {
+		this.component = component;
+		this.port = port;
+		this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-" + component.toLowerCase() + "-" + port);
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleAtFixedRate(this::tick, Meter.TICK_SECONDS, Meter.TICK_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Creates a meter whose rate this registry keeps up to date.
+	 *
+	 * @return The new meter.
+	 */
+	public Meter newMeter() {
+		Meter meter = new Meter();
+		meters.add(meter);
+		return meter;
+	}
+
+	/**
+	 * Stops updating a meter that is no longer used.
+	 *
+	 * @param meter The meter.
+	 */
+	public void removeMeter(Meter meter) {
+		meters.remove(meter);
+	}
+
+	/**
+	 * Registers the component's main MBean.
+	 *
+	 * @param mbean An MXBean implementation.
+	 */
+	public void register(Object mbean) {
+		register(null, mbean);
+	}
+
+	/**
+	 * Registers a further MBean of the component. Failures are logged rather than thrown,
+	 * the component works the same without its metrics.
+	 *
+	 * @param name  The MBean's name key, or null for the component's main MBean.
+	 * @param mbean An MXBean implementation.
+	 */
+	public void register(String name, Object mbean) {
+		String objectName = DOMAIN + ":type=" + component + ",port=" + port + (name == null ? "" : ",name=" + name);
+		try {
+			ObjectName mbeanName = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, mbeanName);
+			registered.add(mbeanName);
+		} catch (JMException e) {
+			System.out.println("Failed to register metrics " + objectName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Unregisters the component's MBeans and stops updating its meters, once the component has stopped.
+	 */
+	public void close() {
+		ticker.shutdownNow();
+		for (ObjectName mbeanName : registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (JMException e) {
+				System.out.println("Failed to unregister metrics " + mbeanName + ": " + e.getMessage());
+			}
+		}
+		registered.clear();
+	}
+
+	// Update the rate of every meter
+	private void tick() {
+		for (Meter meter : meters) {
+			meter.tick();
+		}
+	}
+}
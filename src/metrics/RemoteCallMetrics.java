@@ -0,0 +1,142 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times the remote method calls a component serves. The component binds
+ * the proxy returned by {@link #instrument(Remote, Class...)} in its registry in place of
+ * its remote object, and the proxy times each call before passing it on. Methods of the
+ * same name in different interfaces are counted together.
+ */
+public class RemoteCallMetrics implements RemoteCallMetricsMXBean {
+
+	private final MetricsRegistry registry;
+	private final Map<String, MethodStats> stats = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs call metrics whose rates are kept up to date by the given registry.
+	 *
+	 * @param registry The component's metrics registry.
+	 */
+	public RemoteCallMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Wraps a remote object so every call through the given interfaces is counted and timed.
+	 * The proxy is not exported, export it like any remote object before binding it.
+	 *
+	 * @param target     The remote object serving the calls.
+	 * @param interfaces The remote interfaces of the target the proxy implements.
+	 * @return A proxy implementing the interfaces.
+	 */
+	public Remote instrument(Remote target, Class<?>... interfaces) {
+		Map<Method, MethodStats> byMethod = new HashMap<>();  // Only read once built, so calls need no lock to find their counters
+		for (Class<?> type : interfaces) {
+			for (Method method : type.getMethods()) {
+				byMethod.put(method, stats.computeIfAbsent(method.getName(), name -> new MethodStats(registry.newMeter())));
+			}
+		}
+		InvocationHandler handler = (proxy, method, args) -> {
+			MethodStats methodStats = byMethod.get(method);
+			if (methodStats == null) {
+				return invoke(target, method, args);  // Object methods, such as hashCode
+			}
+			long start = System.nanoTime();
+			try {
+				return invoke(target, method, args);
+			} catch (Throwable e) {
+				methodStats.errors.increment();
+				throw e;
+			} finally {
+				methodStats.calls.mark();
+				methodStats.latency.record((System.nanoTime() - start) / 1000);
+			}
+		};
+		return (Remote) Proxy.newProxyInstance(interfaces[0].getClassLoader(), interfaces, handler);
+	}
+
+	/**
+	 * Returns the number of calls to each method.
+	 *
+	 * @return The calls since the component started.
+	 */
+	@Override
+	public Map<String, Long> getCallCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		stats.forEach((name, methodStats) -> counts.put(name, methodStats.calls.getCount()));
+		return counts;
+	}
+
+	/**
+	 * Returns the number of calls to each method that threw an exception.
+	 *
+	 * @return The failed calls since the component started.
+	 */
+	@Override
+	public Map<String, Long> getErrorCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		stats.forEach((name, methodStats) -> counts.put(name, methodStats.errors.sum()));
+		return counts;
+	}
+
+	/**
+	 * Returns the recent call rate of each method.
+	 *
+	 * @return Calls per second, averaged over about the last minute.
+	 */
+	@Override
+	public Map<String, Double> getCallRates() {
+		Map<String, Double> rates = new TreeMap<>();
+		stats.forEach((name, methodStats) -> rates.put(name, methodStats.calls.getRate()));
+		return rates;
+	}
+
+	/**
+	 * Returns the time each called method took to run, in microseconds.
+	 *
+	 * @return The latencies since the component started, for methods called at least once.
+	 */
+	@Override
+	public Map<String, LatencySummary> getLatencyMicros() {
+		Map<String, LatencySummary> latencies = new TreeMap<>();
+		stats.forEach((name, methodStats) -> {
+			if (methodStats.calls.getCount() > 0) {
+				latencies.put(name, LatencySummary.of(methodStats.latency.snapshot()));
+			}
+		});
+		return latencies;
+	}
+
+	// Call a method of the target, throwing what the method threw rather than the reflection wrapper
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	// Counters of one remote method
+	private static final class MethodStats {
+		final Meter calls;
+		final LongAdder errors = new LongAdder();
+		final StripedHistogram latency = new StripedHistogram();
+
+		MethodStats(Meter calls) {
+			this.calls = calls;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link RemoteCallMetrics}: calls to each remote method of a
+ * broker or the directory, keyed by method name.
+ */
+public interface RemoteCallMetricsMXBean {
+
+	/**
+	 * Returns the number of calls to each method.
+	 *
+	 * @return The calls since the component started.
+	 */
+	Map<String, Long> getCallCounts();
+
+	/**
+	 * Returns the number of calls to each method that threw an exception.
+	 *
+	 * @return The failed calls since the component started.
+	 */
+	Map<String, Long> getErrorCounts();
+
+	/**
+	 * Returns the recent call rate of each method.
+	 *
+	 * @return Calls per second, averaged over about the last minute.
+	 */
+	Map<String, Double> getCallRates();
+
+	/**
+	 * Returns the time each method took to run on the server, from the call reaching the
+	 * remote object to it returning, in microseconds.
+	 *
+	 * @return The latencies since the component started.
+	 */
+	Map<String, LatencySummary> getLatencyMicros();
+}
@@ -0,0 +1,68 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package metrics;
+
+import util.Histogram;
+
+/**
+ * A {@link Histogram} for values recorded by many threads at once, such as latencies
+ * measured on every delivery worker. Values that are close together land in the same
+ * bucket, so threads sharing one histogram would keep contending on the same counter.
+ * This keeps a power of two number of histograms, at least the number of processors up
+ * to a limit, and each thread records into the one its thread ID picks. Reading adds the
+ * stripes into a snapshot.
+ */
+public class StripedHistogram {
+
+	private static final int MAX_STRIPES = 8;
+
+	private final int precisionBits;
+	private final Histogram[] stripes;
+	private final int mask;
+
+	/**
+	 * Constructs a histogram reporting values within about 3% of their true value.
+	 */
+	public StripedHistogram() {
+		this(5);
+	}
+
+	/**
+	 * Constructs a histogram with the given precision.
+	 *
+	 * @param precisionBits Bits of each value kept, as for {@link Histogram#Histogram(int)}.
+	 */
+	public StripedHistogram(int precisionBits) {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+		int count = Integer.highestOneBit(processors) < processors ? Integer.highestOneBit(processors) << 1 : processors;
+		this.precisionBits = precisionBits;
+		this.stripes = new Histogram[count];
+		this.mask = count - 1;
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Histogram(precisionBits);
+		}
+	}
+
+	/**
+	 * Counts a value in the calling thread's stripe.
+	 *
+	 * @param value The value, negative values are counted as zero.
+	 */
+	public void record(long value) {
+		stripes[(int) Thread.currentThread().getId() & mask].record(value);
+	}
+
+	/**
+	 * Returns the values counted so far in one histogram.
+	 *
+	 * @return A new histogram holding the sum of the stripes.
+	 */
+	public Histogram snapshot() {
+		Histogram total = new Histogram(precisionBits);
+		for (Histogram stripe : stripes) {
+			total.add(stripe);
+		}
+		return total;
+	}
+}
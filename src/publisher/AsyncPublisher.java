@@ -0,0 +1,221 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package publisher;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import remote.IRemoteBPub;
+import remote.PublishBatch;
+
+/**
+ * Publishes without waiting for the broker between messages. Messages are collected
+ * into batches, sent with {@link IRemoteBPub#publishBatch(PublishBatch, String)} once a
+ * batch is full or has waited for the linger time, and each message's result completes
+ * its future when the batch's call returns. Up to maxInFlight batches may be waiting
+ * for the broker at once, each on its own RMI call. While the window is full, messages
+ * keep collecting and go out as soon as a batch returns; only a full batch makes
+ * publishing block. The broker publishes the batches in the order they were sent, so
+ * messages keep their publish order.
+ */
+public class AsyncPublisher implements AutoCloseable {
+
+	private final IRemoteBPub broker;
+	private final String username;
+	private final int maxBatch;
+	private final long lingerMillis;
+	private final long session = ThreadLocalRandom.current().nextLong();
+	private final Semaphore window;
+	private final ExecutorService senders;
+	private final ScheduledExecutorService lingerTimer;
+	private final Object lock = new Object();
+	private List<Integer> topicIds;  // Batch being filled, guarded by lock
+	private List<String> messages;
+	private List<CompletableFuture<String>> results;
+	private ScheduledFuture<?> lingerTask;  // Flushes the batch being filled, null while it is empty
+	private boolean due;  // The batch being filled is waiting only for room in the window
+	private long nextBatchId = 1;
+	private boolean closed;
+
+	/**
+	 * Constructs a publisher sending through the given broker.
+	 *
+	 * @param broker       The broker's publisher interface.
+	 * @param username     The username of the publisher.
+	 * @param maxBatch     The most messages sent in one call.
+	 * @param maxInFlight  The most batches waiting for the broker at once.
+	 * @param lingerMillis The time a partly filled batch waits for more messages, 0 sends it straight away.
+	 */
+	public AsyncPublisher(IRemoteBPub broker, String username, int maxBatch, int maxInFlight, long lingerMillis) {
+		this.broker = broker;
+		this.username = username;
+		this.maxBatch = maxBatch;
+		this.lingerMillis = lingerMillis;
+		this.window = new Semaphore(maxInFlight);
+		AtomicInteger count = new AtomicInteger();
+		this.senders = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+			Thread thread = new Thread(runnable, "publish-sender-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.lingerTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "publish-linger");
+			thread.setDaemon(true);
+			return thread;
+		});
+		startBatch();
+	}
+
+	/**
+	 * Adds a message to the current batch, sending the batch if it is now full. Blocks
+	 * while the window of batches in flight is full.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param message The message to publish.
+	 * @return Completes with the broker's result for the message, or exceptionally if the batch could not be sent.
+	 * @throws InterruptedException If interrupted while waiting for room in the window.
+	 */
+	public CompletableFuture<String> publish(int topicId, String message) throws InterruptedException {
+		CompletableFuture<String> result = new CompletableFuture<>();
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("Publisher is closed");
+			}
+			topicIds.add(topicId);
+			messages.add(message);
+			results.add(result);
+			if (messages.size() >= maxBatch) {
+				sendBatch(true);
+			} else if (lingerMillis <= 0) {
+				sendBatch(false);
+			} else if (lingerTask == null) {
+				lingerTask = lingerTimer.schedule(this::lingerExpired, lingerMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sends the current batch now, even if it is not full.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for room in the window.
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (lock) {
+			if (!messages.isEmpty()) {
+				sendBatch(true);
+			}
+		}
+	}
+
+	/**
+	 * Sends the current batch, waits for every batch in flight to return and stops the sender
+	 * threads. If interrupted it stops waiting, leaves the batches in flight to finish on
+	 * their own and keeps the thread's interrupt status set.
+	 */
+	@Override
+	public void close() {
+		try {
+			flush();
+			synchronized (lock) {
+				closed = true;
+			}
+			senders.shutdown();
+			senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			synchronized (lock) {
+				closed = true;
+			}
+			senders.shutdown();
+		} finally {
+			lingerTimer.shutdownNow();
+		}
+	}
+
+	// Send whatever has collected once the first message of the batch has waited out the linger time
+	private void lingerExpired() {
+		synchronized (lock) {
+			lingerTask = null;
+			due = true;
+			sendIfRoom();
+		}
+	}
+
+	// Send the batch being filled if it was held up by a full window
+	private void sendIfDue() {
+		synchronized (lock) {
+			if (due) {
+				sendIfRoom();
+			}
+		}
+	}
+
+	// Send the batch being filled if it is due and the window has room, caller holds lock
+	private void sendIfRoom() {
+		try {
+			if (!messages.isEmpty() && !closed) {
+				sendBatch(false);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();  // Not reached, sending without blocking is never interrupted
+		}
+	}
+
+	// Hand the current batch to a sender thread if the window has room, waiting for room if block is set, caller holds lock so batch numbers follow publish order
+	private boolean sendBatch(boolean block) throws InterruptedException {
+		if (block) {
+			window.acquire();
+		} else if (!window.tryAcquire()) {
+			due = true;  // Sent when a batch in flight returns
+			return false;
+		}
+		if (lingerTask != null) {
+			lingerTask.cancel(false);
+			lingerTask = null;
+		}
+		int[] ids = new int[topicIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = topicIds.get(i);
+		}
+		PublishBatch batch = new PublishBatch(session, nextBatchId, ids, messages.toArray(new String[0]));
+		List<CompletableFuture<String>> batchResults = results;
+		nextBatchId++;
+		startBatch();
+		senders.execute(() -> {
+			try {
+				String[] replies = broker.publishBatch(batch, username);
+				for (int i = 0; i < replies.length; i++) {
+					batchResults.get(i).complete(replies[i]);
+				}
+			} catch (RemoteException e) {
+				for (CompletableFuture<String> result : batchResults) {
+					result.completeExceptionally(e);
+				}
+			} finally {
+				window.release();
+				lingerTimer.execute(this::sendIfDue);  // Not under lock here, the batch publish is waiting for may be queued behind this thread
+			}
+		});
+		return true;
+	}
+
+	// Start filling an empty batch
+	private void startBatch() {
+		topicIds = new ArrayList<>(maxBatch);
+		messages = new ArrayList<>(maxBatch);
+		results = new ArrayList<>(maxBatch);
+		due = false;
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package publisher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import remote.Envelope;
+import remote.IRemoteBPub;
+import transport.DataClient;
+import transport.Frames;
+
+/**
+ * Drives load against a broker without a person at the console. A number of simulated
+ * publishers, each with its own username, create topics with consecutive IDs and publish
+ * to them at a fixed rate for a fixed time, then the throughput is printed. Topic i of
+ * the run belongs to publisher i modulo the publisher count. Each message starts with
+ * its send time in microseconds, so a load subscriber can measure the latency from
+ * publisher to subscriber, and is padded to the message size.
+ * The settings are read from system properties:
+ * <ul>
+ * <li>client.loadClients: simulated publishers, default 1.</li>
+ * <li>client.loadTopics: topics, default 1.</li>
+ * <li>client.loadTopicBase: ID of the first topic, default 1000.</li>
+ * <li>client.loadRate: messages per second for each publisher, default 1000, 0 publishes as fast as possible.</li>
+ * <li>client.loadSize: message size in bytes, default 100.</li>
+ * <li>client.loadDuration: seconds to publish for, default 30.</li>
+ * </ul>
+ * Messages are sent with the transport chosen for the interactive publisher: one RMI call
+ * each, an {@link AsyncPublisher} with -Dclient.async=true, or the data plane with
+ * -Dclient.transport=nio.
+ */
+class LoadPublisher {
+
+	private static final int CLIENTS = Integer.getInteger("client.loadClients", 1);
+	private static final int TOPICS = Integer.getInteger("client.loadTopics", 1);
+	private static final int TOPIC_BASE = Integer.getInteger("client.loadTopicBase", 1000);
+	private static final int RATE = Integer.getInteger("client.loadRate", 1000);
+	private static final int SIZE = Integer.getInteger("client.loadSize", 100);
+	private static final long DURATION = Long.getLong("client.loadDuration", 30L);
+	private static final int REPORT_INTERVAL = 5000;
+
+	private final IRemoteBPub broker;
+	private final String brokerIP;
+	private final boolean useDataPlane;
+	private final boolean async;
+	private final int batchSize;
+	private final int maxInFlight;
+	private final long lingerMillis;
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final List<String> usernames = new ArrayList<>();
+	private final AtomicLongArray lastAnswered = new AtomicLongArray(CLIENTS);  // Time the broker last answered each publisher, each answer renews its lease
+	private volatile boolean running = true;
+
+	/**
+	 * Constructs a load run against the given broker.
+	 *
+	 * @param broker       The broker's publisher interface.
+	 * @param username     The prefix of the simulated publishers' usernames.
+	 * @param brokerIP     The broker host, for data plane connections.
+	 * @param useDataPlane Whether to publish over the data plane.
+	 * @param async        Whether to publish through an AsyncPublisher.
+	 * @param batchSize    The AsyncPublisher batch size.
+	 * @param maxInFlight  The AsyncPublisher window.
+	 * @param lingerMillis The AsyncPublisher linger time.
+	 */
+	LoadPublisher(IRemoteBPub broker, String username, String brokerIP, boolean useDataPlane, boolean async,
+			int batchSize, int maxInFlight, long lingerMillis) {
+		this.broker = broker;
+		this.brokerIP = brokerIP;
+		this.useDataPlane = useDataPlane;
+		this.async = async;
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+		this.lingerMillis = lingerMillis;
+		for (int i = 0; i < CLIENTS; i++) {
+			usernames.add(username + "-" + i);
+		}
+	}
+
+	/**
+	 * Creates the topics, publishes for the configured time, prints the throughput and
+	 * disconnects the simulated publishers, which deletes their topics.
+	 *
+	 * @throws RemoteException If the broker cannot be reached.
+	 * @throws InterruptedException If interrupted while waiting for the publishers.
+	 */
+	void run() throws RemoteException, InterruptedException {
+		System.out.println("Load: " + CLIENTS + " publisher(s), " + TOPICS + " topic(s) from ID " + TOPIC_BASE + ", "
+				+ (RATE > 0 ? RATE + " msg/s each" : "unthrottled") + ", " + SIZE + " byte messages, " + DURATION + " s.");
+		if (CLIENTS > TOPICS) {
+			System.out.println("More publishers than topics, " + (CLIENTS - TOPICS) + " publisher(s) will stay idle.");
+		}
+		for (int t = 0; t < TOPICS; t++) {
+			String result = broker.create(TOPIC_BASE + t, "load-" + (TOPIC_BASE + t), usernames.get(t % CLIENTS));
+			if (!result.startsWith("SUCCESS")) {
+				System.out.print(result);
+			}
+		}
+		Thread heartbeat = startHeartbeat();
+		List<Thread> threads = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < CLIENTS; i++) {
+			int client = i;
+			Thread thread = new Thread(() -> publishLoop(client, start), "load-publisher-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+		long end = start + DURATION * 1_000_000_000L;
+		long lastSent = 0;
+		long lastReport = start;
+		while (System.nanoTime() < end) {
+			Thread.sleep(Math.min(REPORT_INTERVAL, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+			long now = System.nanoTime();
+			long total = sent.get();
+			System.out.printf("Sent %d (%.0f msg/s), %d failed%n", total, (total - lastSent) * 1e9 / (now - lastReport), failed.get());
+			lastSent = total;
+			lastReport = now;
+		}
+		running = false;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long total = succeeded.get();
+		System.out.printf("Published %d of %d messages in %.1f s: %.0f msg/s, %.2f MB/s, %d failed%n", total, sent.get(),
+				seconds, total / seconds, total * (double) SIZE / seconds / (1 << 20), failed.get());
+		heartbeat.interrupt();
+		for (String name : usernames) {
+			broker.pubDisconnect(name);
+		}
+	}
+
+	// Publish to the publisher's topics in turn at the configured rate until the run ends, then wait for every result
+	private void publishLoop(int client, long start) {
+		String name = usernames.get(client);
+		List<Integer> topics = new ArrayList<>();
+		for (int t = client; t < TOPICS; t += CLIENTS) {
+			topics.add(TOPIC_BASE + t);
+		}
+		if (topics.isEmpty()) {
+			return;
+		}
+		AsyncPublisher asyncPublisher = null;
+		DataClient dataClient = null;
+		List<CompletableFuture<String>> pending = new ArrayList<>();
+		try {
+			int dataPort = useDataPlane ? broker.getDataPort() : 0;
+			if (dataPort > 0) {
+				dataClient = new DataClient(brokerIP, dataPort, Frames.ROLE_PUBLISHER, name, null);
+			} else if (async) {
+				asyncPublisher = new AsyncPublisher(broker, name, batchSize, maxInFlight, lingerMillis);
+			}
+			long intervalNanos = RATE > 0 ? 1_000_000_000L / RATE : 0;
+			long next = start;
+			for (long n = 0; running; n++) {
+				if (intervalNanos > 0) {
+					next += intervalNanos;
+					long wait = next - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+				int topicId = topics.get((int) (n % topics.size()));
+				String message = newMessage();
+				sent.incrementAndGet();
+				if (dataClient != null) {
+					pending.add(count(client, dataClient.publishAsync(topicId, message.getBytes(StandardCharsets.UTF_8))));
+				} else if (asyncPublisher != null) {
+					pending.add(count(client, asyncPublisher.publish(topicId, message)));
+				} else {
+					String reply = broker.publish(topicId, message, name);
+					lastAnswered.set(client, System.currentTimeMillis());
+					countResult(reply, null);
+				}
+				if (pending.size() >= 4096) {
+					pending.removeIf(CompletableFuture::isDone);
+				}
+			}
+			if (asyncPublisher != null) {
+				asyncPublisher.flush();
+			}
+			for (CompletableFuture<String> result : pending) {
+				result.handle((reply, error) -> null).join();
+			}
+		} catch (IOException e) {
+			System.out.println("Publisher " + name + " stopped: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (asyncPublisher != null) {
+				asyncPublisher.close();
+			}
+			if (dataClient != null) {
+				dataClient.close();
+			}
+		}
+	}
+
+	// Message starting with the send time in microseconds, padded to the message size
+	private String newMessage() {
+		StringBuilder message = new StringBuilder(SIZE);
+		message.append(Envelope.now()).append(' ');
+		while (message.length() < SIZE) {
+			message.append('x');
+		}
+		return message.toString();
+	}
+
+	// Count the result of a publisher's asynchronous publish once it completes
+	private CompletableFuture<String> count(int client, CompletableFuture<String> result) {
+		return result.whenComplete((reply, error) -> {
+			if (error == null) {
+				lastAnswered.set(client, System.currentTimeMillis());
+			}
+			countResult(reply, error);
+		});
+	}
+
+	// Count one publish result
+	private void countResult(String reply, Throwable error) {
+		if (error == null && reply.startsWith("SUCCESS")) {
+			succeeded.incrementAndGet();
+		} else if (failed.getAndIncrement() == 0) {
+			System.out.print("First failed publish: " + (error == null ? reply : error.getMessage() + "\n"));
+		}
+	}
+
+	// Send heartbeats for the simulated publishers so the broker keeps their topics, one for each at once to start its lease, then only for those the broker has not answered for a heartbeat interval
+	private Thread startHeartbeat() {
+		Thread thread = new Thread(() -> {
+			try {
+				long[] lastSent = new long[CLIENTS];
+				for (int i = 0; i < CLIENTS; i++) {
+					broker.sendPubHeartbeat(usernames.get(i));
+					lastSent[i] = System.currentTimeMillis();
+				}
+				while (true) {
+					long now = System.currentTimeMillis();
+					long next = now + Publisher.HEARTBEAT_INTERVAL;
+					for (int i = 0; i < CLIENTS; i++) {
+						long due = Math.max(lastSent[i], lastAnswered.get(i)) + Publisher.HEARTBEAT_INTERVAL;
+						if (due <= now) {
+							broker.sendPubHeartbeat(usernames.get(i));
+							lastSent[i] = System.currentTimeMillis();
+							due = lastSent[i] + Publisher.HEARTBEAT_INTERVAL;
+						}
+						next = Math.min(next, due);
+					}
+					Thread.sleep(Math.max(1, next - System.currentTimeMillis()));
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (RemoteException e) {
+				System.out.println("Failed to send heartbeat: " + e.getMessage());
+			}
+		}, "load-heartbeat");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+}
@@ -11,9 +11,13 @@ import java.util.Scanner;
 import remote.IRemoteBroker;
 import remote.IRemoteDir;
 import remote.IRemoteBPub;
+import transport.DataClient;
+import transport.Frames;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -29,7 +33,16 @@ public class Publisher {
     private String username;
     private final static Scanner input = new Scanner(System.in);
     private static IRemoteBPub remoteInterface;
-    private final static int HEARTBEAT_INTERVAL = 5000;
+    final static int HEARTBEAT_INTERVAL = 5000;
+    private final static boolean USE_DATA_PLANE = "nio".equalsIgnoreCase(System.getProperty("client.transport", "rmi"));  // Publish over the broker's socket data plane
+    private final static boolean ASYNC = Boolean.getBoolean("client.async");  // Publish through an AsyncPublisher, printing results as they return
+    private final static int BATCH_SIZE = Integer.getInteger("client.batchSize", 256);
+    private final static int MAX_IN_FLIGHT = Integer.getInteger("client.maxInFlight", 4);
+    private final static long LINGER_MILLIS = Long.getLong("client.lingerMillis", 2L);
+    private final static boolean LOAD = Boolean.getBoolean("client.load");  // Run a LoadPublisher instead of reading commands
+    private DataClient dataClient;
+    private AsyncPublisher asyncPublisher;
+    private volatile long lastRequest;  // Time the broker last answered a request, each one renews the publisher's lease
 
 
 	/**
@@ -48,12 +61,13 @@ public class Publisher {
   
     //Prints the available commands for the publisher.
     private static void printCommandList(){
-        System.out.println("Please select command: create, publish, show, delete.");
+        System.out.println("Please select command: create, conflate, publish, show, delete.");
         System.out.println("1. Create topic (create topic_id topic_name)\n" +
-                "2. Publish message for existing topic (publish topic_id message)\n" +
-                "3. Show subscriber count for topic (show)\n" +
-                "4. Delete topic (delete topic_id)\n" +
-                "5. Quit\n");
+                "2. Create topic delivering only its latest message (conflate topic_id topic_name)\n" +
+                "3. Publish message for existing topic (publish topic_id message)\n" +
+                "4. Show subscriber count for topic (show)\n" +
+                "5. Delete topic (delete topic_id)\n" +
+                "6. Quit\n");
     }
     
     //Processes the logic for publisher commands based on user input.
@@ -61,8 +75,9 @@ public class Publisher {
     	String result = "";
     	switch(selectedCommand[0].toLowerCase()) {
 			case "create":
+			case "conflate":
 				if (selectedCommand.length < 3) {
-					System.out.println("Error: Invalid number of arguments for create command.");
+					System.out.println("Error: Invalid number of arguments for " + selectedCommand[0].toLowerCase() + " command.");
 					System.out.println();
 					break;
 				}
@@ -72,7 +87,11 @@ public class Publisher {
 					for (int i = 2; i < selectedCommand.length; i++) {
 						topic_name += selectedCommand[i] + " ";
 					}
-					result = remoteInterface.create(create_id, topic_name, username);
+					if (selectedCommand[0].equalsIgnoreCase("conflate")) {
+						result = remoteInterface.createConflated(create_id, topic_name, username);
+					} else {
+						result = remoteInterface.create(create_id, topic_name, username);
+					}
 					System.out.println(result);
 				} catch (NumberFormatException e) {
 					System.out.println("Error: Invalid topic ID. Please enter a valid number.\n");
@@ -97,12 +116,31 @@ public class Publisher {
 						System.out.println();
 						break;
 					}
-					result = remoteInterface.publish(publish_id, message, username);
+					if (asyncPublisher != null) {
+						asyncPublisher.publish(publish_id, message).whenComplete((reply, error) -> {
+							if (error == null) {
+								lastRequest = System.currentTimeMillis();
+							}
+							System.out.println(error == null ? reply : "Error: Failed to publish. " + error.getMessage());
+						});
+						break;
+					} else if (dataClient != null && !dataClient.isClosed()) {
+						result = dataClient.publish(publish_id, message.getBytes(StandardCharsets.UTF_8));
+					} else {
+						result = remoteInterface.publish(publish_id, message, username);
+					}
 					System.out.println(result);
 					System.out.println();
 				} catch (NumberFormatException e) {
 					System.out.println("Error: Invalid topic ID. Please enter a valid number.\n");
 					System.out.println();
+				} catch (RemoteException e) {
+					throw e;
+				} catch (IOException e) {
+					System.out.println("Error: Failed to publish over data connection. " + e.getMessage());
+					System.out.println();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 				}
 				break;
 			case "show":
@@ -129,16 +167,40 @@ public class Publisher {
 			default:
 				System.out.println("ERROR: Invalid command/input. Please try again.\n");
     	}
+    	if (!result.isEmpty()) {
+    		lastRequest = System.currentTimeMillis();  // The broker answered
+    	}
+    }
+    
+    //Opens a data-plane connection for publishing when selected with -Dclient.transport=nio, otherwise publishes go through RMI.
+    private void connectDataPlane(String brokerIP) throws RemoteException {
+    	int dataPort = remoteInterface.getDataPort();
+    	if (dataPort <= 0) {
+    		System.out.println("Broker does not run the data plane, publishing through RMI.");
+    		return;
+    	}
+    	try {
+    		dataClient = new DataClient(brokerIP, dataPort, Frames.ROLE_PUBLISHER, username, null);
+    	} catch (IOException e) {
+    		System.out.println("Failed to open data connection, publishing through RMI. " + e.getMessage());
+    	}
     }
     
-    //Starts the heartbeat thread to send heartbeats to the broker
+    //Starts the heartbeat thread to send heartbeats to the broker. Other requests renew the broker's lease too, so heartbeats are only sent once the publisher has been quiet for a heartbeat interval.
     private void startHeartbeat(String brokerIP, int brokerPort) {
         Thread heartbeatThread = new Thread(() -> {
             try {
+                remoteInterface.sendPubHeartbeat(username);  // Starts the broker's lease for this publisher
+                long lastSent = System.currentTimeMillis();
                 while (true) {
-                    Thread.sleep(HEARTBEAT_INTERVAL);
+                    long wait = Math.max(lastSent, lastRequest) + HEARTBEAT_INTERVAL - System.currentTimeMillis();
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                        continue;
+                    }
                     // Send heartbeat to broker
                     remoteInterface.sendPubHeartbeat(username);
+                    lastSent = System.currentTimeMillis();
                 }
             } catch (InterruptedException | RemoteException e) {
                 System.out.println("Failed to send heartbeat: " + e.getMessage());
@@ -147,6 +209,26 @@ public class Publisher {
         heartbeatThread.start();
     }
 
+    /**
+     * Connects a publisher to a broker: looks up the broker's publisher interface, then
+     * starts the heartbeat thread, whose first heartbeat starts the broker's lease on the
+     * publisher.
+     *
+     * @param username   The username of the publisher.
+     * @param brokerIP   The IP address of the broker.
+     * @param brokerPort The port number of the broker.
+     * @return The connected publisher.
+     * @throws RemoteException If the broker cannot be reached.
+     * @throws NotBoundException If the broker has not bound its publisher interface.
+     */
+    static Publisher connect(String username, String brokerIP, int brokerPort) throws RemoteException, NotBoundException {
+    	Publisher publisher = new Publisher(username, brokerIP, brokerPort);
+    	Registry registry = LocateRegistry.getRegistry(brokerPort);
+    	remoteInterface = (IRemoteBPub) registry.lookup("remotePub");
+    	publisher.startHeartbeat(brokerIP, brokerPort);  // Only once the broker has been looked up
+    	return publisher;
+    }
+
     //Main method for the Publisher class.
     public static void main(String[] args){
     	
@@ -165,16 +247,29 @@ public class Publisher {
 			Registry dirRegistry = LocateRegistry.getRegistry("localhost",dirPort);
 			IRemoteDir remoteDir = (IRemoteDir) dirRegistry.lookup("directory");
 			System.out.println(remoteDir.queryBroker());
-			System.out.print("Select broker number:");
-			int brokerNum = input.nextInt();
-			input.nextLine();
+			int brokerNum;
+			if (LOAD) {
+				brokerNum = Integer.getInteger("client.broker", 1);  // No one to ask in load mode
+			} else {
+				System.out.print("Select broker number:");
+				brokerNum = input.nextInt();
+				input.nextLine();
+			}
 			String brokerIP = remoteDir.getBrokerDetails(brokerNum)[0];
 			int brokerPort = Integer.parseInt(remoteDir.getBrokerDetails(brokerNum)[1]);
 			
-			Publisher publisher = new Publisher(username, brokerIP, brokerPort);
-			publisher.startHeartbeat(brokerIP, brokerPort);
-	        Registry registry = LocateRegistry.getRegistry(brokerPort);
-	        remoteInterface = (IRemoteBPub) registry.lookup("remotePub");
+	        if (LOAD) {
+	        	Registry registry = LocateRegistry.getRegistry(brokerPort);
+	        	remoteInterface = (IRemoteBPub) registry.lookup("remotePub");
+	        	new LoadPublisher(remoteInterface, username, brokerIP, USE_DATA_PLANE, ASYNC, BATCH_SIZE, MAX_IN_FLIGHT, LINGER_MILLIS).run();  // Sends its own heartbeats
+	        	System.exit(0);
+	        }
+	        Publisher publisher = connect(username, brokerIP, brokerPort);
+	        if (ASYNC) {
+	        	publisher.asyncPublisher = new AsyncPublisher(remoteInterface, username, BATCH_SIZE, MAX_IN_FLIGHT, LINGER_MILLIS);
+	        } else if (USE_DATA_PLANE) {
+	        	publisher.connectDataPlane(brokerIP);
+	        }
 	        printCommandList();
 	        System.out.print("Select command: ");
 	        String[] selectedCommand = input.nextLine().split(" ");
@@ -186,6 +281,9 @@ public class Publisher {
             	selectedCommand = input.nextLine().split(" ");	
 	        }
 	        
+	        if (publisher.asyncPublisher != null) {
+	        	publisher.asyncPublisher.close();  // Let batches still in flight finish before the topics are removed
+	        }
 			remoteInterface.pubDisconnect(username);
 	        System.out.println("Publisher exits.");
 	        System.exit(0);
@@ -201,6 +299,8 @@ public class Publisher {
 			System.out.println("Remote object not found: "+ e.getMessage());
 		} catch (UnknownHostException e) {
 			System.out.println("Unknown host exception occurred: "+ e.getMessage());
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted while waiting for messages to be published.");
 		}
 
     }
@@ -0,0 +1,209 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package remote;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A published message as it travels from the publishing broker to peer brokers and
+ * subscribers. Carries the topic ID, the ID of the publisher, a per-topic sequence
+ * number, the time it was published and the message payload.
+ * <p>
+ * The envelope is encoded into a compact binary form once, when it is created by the
+ * publishing broker or decoded from the wire. Every later hop and every subscriber
+ * write uses those same bytes, either serialized as they are or through read-only
+ * views from {@link #buffer()}. Layout (big-endian):
+ * topic ID (4) | publisher ID (4) | sequence (8) | origin time in microseconds (8) | payload length (4) | payload.
+ */
+public class Envelope implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Publisher ID used for notices generated by a broker, such as topic deletion. */
+	public static final int SYSTEM_PUBLISHER = 0;
+
+	/** Size of the fixed fields before the payload. */
+	public static final int HEADER_SIZE = 28;
+
+	// Offset between System.nanoTime() and the epoch, so timestamps are comparable across processes
+	private static final long EPOCH_OFFSET_NANOS = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+	private transient int topicId;
+	private transient int publisherId;
+	private transient long sequence;
+	private transient long originTime;
+	private transient byte[] payload;
+	private transient byte[] encoded;
+	private transient ByteBuffer view;  // Read-only view of encoded, duplicated for each write
+
+	/**
+	 * Constructs an envelope.
+	 *
+	 * @param topicId     The ID of the topic.
+	 * @param publisherId The ID of the publisher, or {@link #SYSTEM_PUBLISHER}.
+	 * @param sequence    The sequence number of the message within its topic.
+	 * @param originTime  The time the message was published, in microseconds since the epoch.
+	 * @param payload     The message content.
+	 */
+	public Envelope(int topicId, int publisherId, long sequence, long originTime, byte[] payload) {
+		this(topicId, publisherId, sequence, originTime, payload, null);
+	}
+
+	// Use the given encoding, or encode the fields if there is none
+	private Envelope(int topicId, int publisherId, long sequence, long originTime, byte[] payload, byte[] encoded) {
+		this.topicId = topicId;
+		this.publisherId = publisherId;
+		this.sequence = sequence;
+		this.originTime = originTime;
+		this.payload = payload;
+		this.encoded = encoded != null ? encoded : ByteBuffer.allocate(HEADER_SIZE + payload.length)
+				.putInt(topicId)
+				.putInt(publisherId)
+				.putLong(sequence)
+				.putLong(originTime)
+				.putInt(payload.length)
+				.put(payload)
+				.array();
+		this.view = ByteBuffer.wrap(this.encoded).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the current time in microseconds since the epoch, with sub-millisecond resolution.
+	 *
+	 * @return The current time in microseconds.
+	 */
+	public static long now() {
+		return (System.nanoTime() + EPOCH_OFFSET_NANOS) / 1000L;
+	}
+
+	/**
+	 * Decodes an envelope from its binary form.
+	 *
+	 * @param bytes The encoded envelope.
+	 * @return The envelope, which keeps the given bytes as its encoded form.
+	 */
+	public static Envelope decode(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int topicId = buffer.getInt();
+		int publisherId = buffer.getInt();
+		long sequence = buffer.getLong();
+		long originTime = buffer.getLong();
+		byte[] payload = new byte[buffer.getInt()];
+		buffer.get(payload);
+		return new Envelope(topicId, publisherId, sequence, originTime, payload, bytes);
+	}
+
+	/**
+	 * Decodes the envelope starting at the buffer's position and advances the position past it.
+	 *
+	 * @param buffer A buffer holding at least one complete encoded envelope.
+	 * @return The envelope.
+	 */
+	public static Envelope decode(ByteBuffer buffer) {
+		int length = HEADER_SIZE + buffer.getInt(buffer.position() + HEADER_SIZE - 4);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return decode(bytes);
+	}
+
+	/**
+	 * Returns the binary form of the envelope.
+	 * The returned array is shared and must not be modified.
+	 *
+	 * @return The encoded envelope.
+	 */
+	public byte[] encode() {
+		return encoded;
+	}
+
+	/**
+	 * Returns a read-only view of the binary form with its own position, for writing the
+	 * same encoding to many channels without copying it.
+	 *
+	 * @return A new view positioned at the start of the encoded envelope.
+	 */
+	public ByteBuffer buffer() {
+		return view.duplicate();
+	}
+
+	/**
+	 * Returns the ID of the topic.
+	 *
+	 * @return The ID of the topic.
+	 */
+	public int getTopicId() {
+		return topicId;
+	}
+
+	/**
+	 * Returns the ID of the publisher.
+	 *
+	 * @return The publisher ID, or {@link #SYSTEM_PUBLISHER} for broker notices.
+	 */
+	public int getPublisherId() {
+		return publisherId;
+	}
+
+	/**
+	 * Returns the sequence number of the message within its topic.
+	 *
+	 * @return The sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the time the message was published.
+	 *
+	 * @return The origin time in microseconds since the epoch.
+	 */
+	public long getOriginTime() {
+		return originTime;
+	}
+
+	/**
+	 * Returns the message content. The returned array is shared and must not be modified.
+	 *
+	 * @return The payload.
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Returns the message content decoded as UTF-8 text.
+	 *
+	 * @return The payload as a string.
+	 */
+	public String getPayloadText() {
+		return new String(payload, StandardCharsets.UTF_8);
+	}
+
+	// Write the encoded form so the fields are never serialized again
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		byte[] bytes = encoded;
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// Read the encoded form and keep it for the next hop
+	private void readObject(ObjectInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		Envelope decoded = decode(bytes);
+		topicId = decoded.topicId;
+		publisherId = decoded.publisherId;
+		sequence = decoded.sequence;
+		originTime = decoded.originTime;
+		payload = decoded.payload;
+		encoded = bytes;
+		view = decoded.view;
+	}
+}
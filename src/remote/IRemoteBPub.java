@@ -17,9 +17,13 @@ public interface IRemoteBPub extends Remote{
 	
 	
 	public String create(int id, String name,String pubUsername) throws RemoteException;
+	
+	public String createConflated(int id, String name, String pubUsername) throws RemoteException;  // Topic whose subscribers are only sent the latest undelivered message
 
 	public String publish(int id, String message, String pubUsername) throws RemoteException;
 	
+	public String[] publishBatch(PublishBatch batch, String pubUsername) throws RemoteException;  // One result per message, in batch order
+	
 	public String show(String pubUsername) throws RemoteException;
 	
 	public String delete(int id, String pubUsername) throws RemoteException;
@@ -28,5 +32,7 @@ public interface IRemoteBPub extends Remote{
 	
 	public void sendPubHeartbeat(String pubName) throws RemoteException;
 	
+	public int getDataPort() throws RemoteException;  // Port of the broker's socket data plane, or -1 if it only uses RMI
+	
 
 }
@@ -5,6 +5,7 @@ package remote;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Remote interface for subscriber operations in a distributed publish-subscribe system.
@@ -14,13 +15,23 @@ public interface IRemoteBSub extends Remote{
 
 	public String list() throws RemoteException;
 	
-	public String sub(int topicId, IRemoteSub remoteSub, String username) throws RemoteException;
+	public String sub(int topicId, IRemoteSub remoteSub, String username) throws RemoteException;  // remoteSub is null for a subscriber that polls
+	
+	public String subDurable(int topicId, IRemoteSub remoteSub, String username) throws RemoteException;  // Kept with its offset while the subscriber is away
+	
+	public int[] resume(IRemoteSub remoteSub, String username) throws RemoteException;  // Returns the topics of the durable subscriptions resumed
+	
+	public List<Envelope> poll(String username, int maxMessages, long maxWaitMillis) throws RemoteException;
 	
 	public String current(String subUsername) throws RemoteException;
 	
+	public String getTopicName(int topicId) throws RemoteException;
+	
 	public String unsub(int topicId, String username) throws RemoteException;
 	
 	public void subDisconnect(String subName) throws RemoteException;
 	
 	public void sendSubHeartbeat(String subName) throws RemoteException;
+	
+	public int getDataPort() throws RemoteException;  // Port of the broker's socket data plane, or -1 if it only uses RMI
 }
@@ -5,6 +5,7 @@ package remote;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Remote interface for broker-to-broker communication in a distributed publish-subscribe system.
@@ -12,8 +13,16 @@ import java.rmi.RemoteException;
  */
 public interface IRemoteBroker extends Remote{
 	
-	void receiveMessageFromBroker(int topicId, String message) throws RemoteException;
+	void receiveMessageFromBroker(Envelope message) throws RemoteException;
+	
+	void receiveMessagesFromBroker(List<Envelope> messages) throws RemoteException;
+	
+	void receiveRetained(List<Envelope> messages) throws RemoteException; //latest messages of topics the receiving broker has no subscribers for, kept as their retained values.
+	
+	void receiveInterest(int otherBrokerPort, int[] interested, int[] notInterested) throws RemoteException; //topics the other broker now has, or no longer has, local subscribers for.
 	
 	void receiveConnection(int otherBrokerPort) throws RemoteException, NotBoundException; //allow others to invoke method of other broker to send this.remoteObject to them when connected.
 	
+	int getDataPort() throws RemoteException; //port of the broker's socket data plane, or -1 if it only uses RMI.
+	
 }
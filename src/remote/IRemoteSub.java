@@ -5,6 +5,7 @@ package remote;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Remote interface for subscriber operations in a distributed publish-subscribe system.
@@ -12,7 +13,9 @@ import java.rmi.RemoteException;
  */
 public interface IRemoteSub extends Remote{
 
-	public void receiveMessage(String message) throws RemoteException;
+	public void receiveMessage(Envelope message) throws RemoteException;
+	
+	public void receiveMessages(List<Envelope> messages) throws RemoteException;
 		
 }
 
@@ -6,8 +6,6 @@ package remote;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import directory.Topic;
 
@@ -17,7 +15,7 @@ import directory.Topic;
  */
 public interface IRemoteTopic extends Remote{
 
-	void addTopic(Topic topic) throws RemoteException;
+	boolean addTopic(Topic topic) throws RemoteException;
 
 	void deleteTopic(int topicId) throws RemoteException;
 	
@@ -29,11 +27,13 @@ public interface IRemoteTopic extends Remote{
 
 	List<Topic> getAllTopics() throws RemoteException;
 	
-	Map<String, Set<Integer>> getSubTopicList() throws RemoteException;
+	int[] getSubscribedTopics(String subName) throws RemoteException;
 
 	Topic getTopic(int id) throws RemoteException;
 	
 	void disconnectSubscriber(String subName) throws RemoteException;
+	
+	void addTopicListener(IRemoteTopicListener listener) throws RemoteException;
 
 
 }
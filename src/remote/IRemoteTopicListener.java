@@ -0,0 +1,20 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package remote;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import directory.Topic;
+
+/**
+ * Remote interface for receiving topic change notifications from the directory.
+ * Brokers register with {@link IRemoteTopic#addTopicListener(IRemoteTopicListener)} to keep a local copy of the topic list.
+ */
+public interface IRemoteTopicListener extends Remote{
+
+	void topicAdded(Topic topic) throws RemoteException;
+
+	void topicDeleted(int topicId) throws RemoteException;
+}
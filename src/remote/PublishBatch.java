@@ -0,0 +1,88 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package remote;
+
+import java.io.Serializable;
+
+/**
+ * Messages sent to a broker in one {@link IRemoteBPub#publishBatch(PublishBatch, String)}
+ * call, possibly for several topics. A publisher may have several batches in flight at
+ * once over separate RMI calls, so each batch carries the publisher's session and a
+ * batch number counting up from 1. The broker publishes the batches of a session in
+ * batch number order, whatever order the calls arrive in.
+ */
+public class PublishBatch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long session;
+	private final long batchId;
+	private final int[] topicIds;
+	private final String[] messages;
+
+	/**
+	 * Constructs a batch.
+	 *
+	 * @param session  Identifies the sender, unique for each publisher connection.
+	 * @param batchId  The number of the batch within the session, starting at 1.
+	 * @param topicIds The topic of each message.
+	 * @param messages The messages, in publish order.
+	 */
+	public PublishBatch(long session, long batchId, int[] topicIds, String[] messages) {
+		if (topicIds.length != messages.length) {
+			throw new IllegalArgumentException("Every message needs a topic ID");
+		}
+		this.session = session;
+		this.batchId = batchId;
+		this.topicIds = topicIds;
+		this.messages = messages;
+	}
+
+	/**
+	 * Returns the session the batch belongs to.
+	 *
+	 * @return The session ID.
+	 */
+	public long getSession() {
+		return session;
+	}
+
+	/**
+	 * Returns the number of the batch within its session.
+	 *
+	 * @return The batch number, starting at 1.
+	 */
+	public long getBatchId() {
+		return batchId;
+	}
+
+	/**
+	 * Returns the number of messages in the batch.
+	 *
+	 * @return The message count.
+	 */
+	public int size() {
+		return messages.length;
+	}
+
+	/**
+	 * Returns the topic of a message.
+	 *
+	 * @param index The position of the message in the batch.
+	 * @return The ID of the topic.
+	 */
+	public int getTopicId(int index) {
+		return topicIds[index];
+	}
+
+	/**
+	 * Returns a message.
+	 *
+	 * @param index The position of the message in the batch.
+	 * @return The message text.
+	 */
+	public String getMessage(int index) {
+		return messages[index];
+	}
+}
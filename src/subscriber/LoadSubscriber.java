@@ -0,0 +1,214 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package subscriber;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remote.Envelope;
+import remote.IRemoteBSub;
+import remote.IRemoteSub;
+import transport.DataClient;
+import transport.Frames;
+import util.Histogram;
+
+/**
+ * Receives load without a person at the console. A number of simulated subscribers, each
+ * with its own username, subscribe to every topic of a load run, count what they receive
+ * for a fixed time and then print the throughput and the percentiles of the latency from
+ * publisher to subscriber. The latency is taken from the send time a load publisher puts
+ * at the start of each message, so it is only meaningful when both run on the same host;
+ * messages without one are counted but not timed. Topics the publishers have not created
+ * yet are retried until they exist.
+ * The settings are read from system properties:
+ * <ul>
+ * <li>client.loadClients: simulated subscribers, default 1.</li>
+ * <li>client.loadTopics: topics, default 1.</li>
+ * <li>client.loadTopicBase: ID of the first topic, default 1000.</li>
+ * <li>client.loadDuration: seconds to receive for once subscribed, default 30.</li>
+ * </ul>
+ * Messages are received through RMI callbacks, or over the data plane with -Dclient.transport=nio.
+ */
+class LoadSubscriber {
+
+	private static final int CLIENTS = Integer.getInteger("client.loadClients", 1);
+	private static final int TOPICS = Integer.getInteger("client.loadTopics", 1);
+	private static final int TOPIC_BASE = Integer.getInteger("client.loadTopicBase", 1000);
+	private static final long DURATION = Long.getLong("client.loadDuration", 30L);
+	private static final int REPORT_INTERVAL = 5000;
+	private static final int SUBSCRIBE_RETRY = 500;
+
+	private final IRemoteBSub broker;
+	private final String brokerIP;
+	private final boolean useDataPlane;
+	private final Histogram latency = new Histogram();  // Microseconds from publish to receipt
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final List<String> usernames = new ArrayList<>();
+	private final List<Receiver> receivers = new ArrayList<>();
+	private final List<DataClient> dataClients = new ArrayList<>();
+
+	/**
+	 * Constructs a load run against the given broker.
+	 *
+	 * @param broker       The broker's subscriber interface.
+	 * @param username     The prefix of the simulated subscribers' usernames.
+	 * @param brokerIP     The broker host, for data plane connections.
+	 * @param useDataPlane Whether to receive over the data plane.
+	 */
+	LoadSubscriber(IRemoteBSub broker, String username, String brokerIP, boolean useDataPlane) {
+		this.broker = broker;
+		this.brokerIP = brokerIP;
+		this.useDataPlane = useDataPlane;
+		for (int i = 0; i < CLIENTS; i++) {
+			usernames.add(username + "-" + i);
+		}
+	}
+
+	/**
+	 * Subscribes every simulated subscriber to every topic, receives for the configured
+	 * time, prints the throughput and latency and disconnects the subscribers.
+	 *
+	 * @throws IOException If the broker cannot be reached.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	void run() throws IOException, InterruptedException {
+		System.out.println("Load: " + CLIENTS + " subscriber(s), " + TOPICS + " topic(s) from ID " + TOPIC_BASE + ", " + DURATION + " s.");
+		int dataPort = useDataPlane ? broker.getDataPort() : 0;
+		for (String name : usernames) {
+			Receiver receiver = new Receiver();
+			if (dataPort > 0) {
+				dataClients.add(new DataClient(brokerIP, dataPort, Frames.ROLE_SUBSCRIBER, name, receiver::receiveMessages));
+			}
+			UnicastRemoteObject.exportObject(receiver, 0);
+			receivers.add(receiver);
+		}
+		Thread heartbeat = startHeartbeat();
+		subscribeAll();
+		long start = System.nanoTime();
+		long end = start + DURATION * 1_000_000_000L;
+		long lastReceived = 0;
+		long lastReport = start;
+		while (System.nanoTime() < end) {
+			Thread.sleep(Math.min(REPORT_INTERVAL, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+			long now = System.nanoTime();
+			long total = received.get();
+			System.out.printf("Received %d (%.0f msg/s)%n", total, (total - lastReceived) * 1e9 / (now - lastReport));
+			lastReceived = total;
+			lastReport = now;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long total = received.get();
+		System.out.printf("Received %d messages in %.1f s: %.0f msg/s, %.2f MB/s%n", total, seconds, total / seconds,
+				receivedBytes.get() / seconds / (1 << 20));
+		if (latency.getCount() > 0) {
+			System.out.println("Latency from publisher of " + latency.getCount() + " messages: " + latency.summary(1000.0, " ms"));
+		}
+		heartbeat.interrupt();
+		for (String name : usernames) {
+			broker.subDisconnect(name);
+		}
+		for (DataClient dataClient : dataClients) {
+			dataClient.close();
+		}
+		for (Receiver receiver : receivers) {
+			UnicastRemoteObject.unexportObject(receiver, true);
+		}
+	}
+
+	// Subscribe everyone to every topic, retrying topics that do not exist yet until they do or the run's time is up
+	private void subscribeAll() throws RemoteException, InterruptedException {
+		long giveUp = System.currentTimeMillis() + DURATION * 1000L;
+		for (int t = 0; t < TOPICS; t++) {
+			int topicId = TOPIC_BASE + t;
+			for (int i = 0; i < CLIENTS; i++) {
+				String result = broker.sub(topicId, receivers.get(i), usernames.get(i));
+				while (result.contains("does not exist") && System.currentTimeMillis() < giveUp) {
+					Thread.sleep(SUBSCRIBE_RETRY);
+					result = broker.sub(topicId, receivers.get(i), usernames.get(i));
+				}
+				if (!result.startsWith("SUCCESS")) {
+					System.out.print(result);
+				}
+			}
+		}
+	}
+
+	// Send heartbeats for the simulated subscribers so the broker keeps their subscriptions, one for each at once to start its lease, then only for those without a delivery for a heartbeat interval
+	private Thread startHeartbeat() {
+		Thread thread = new Thread(() -> {
+			try {
+				long[] lastSent = new long[CLIENTS];
+				for (int i = 0; i < CLIENTS; i++) {
+					broker.sendSubHeartbeat(usernames.get(i));
+					lastSent[i] = System.currentTimeMillis();
+				}
+				while (true) {
+					long now = System.currentTimeMillis();
+					long next = now + Subscriber.HEARTBEAT_INTERVAL;
+					for (int i = 0; i < CLIENTS; i++) {
+						long due = Math.max(lastSent[i], receivers.get(i).lastReceived) + Subscriber.HEARTBEAT_INTERVAL;
+						if (due <= now) {
+							broker.sendSubHeartbeat(usernames.get(i));
+							lastSent[i] = System.currentTimeMillis();
+							due = lastSent[i] + Subscriber.HEARTBEAT_INTERVAL;
+						}
+						next = Math.min(next, due);
+					}
+					Thread.sleep(Math.max(1, next - System.currentTimeMillis()));
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (RemoteException e) {
+				System.out.println("Failed to send heartbeat: " + e.getMessage());
+			}
+		}, "load-heartbeat");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	// Send time at the start of a load message in microseconds, or -1 if it has none
+	private static long sendTime(byte[] payload) {
+		long time = 0;
+		int i = 0;
+		while (i < payload.length && payload[i] >= '0' && payload[i] <= '9' && i < 19) {
+			time = time * 10 + (payload[i] - '0');
+			i++;
+		}
+		return i > 0 && i < payload.length && payload[i] == ' ' ? time : -1;
+	}
+
+	// Counts and times the messages delivered to one simulated subscriber
+	private class Receiver implements IRemoteSub {
+		private volatile long lastReceived;  // Time of the last delivery, each one renews the subscriber's lease on the broker
+
+		@Override
+		public void receiveMessage(Envelope message) {
+			receiveMessages(Collections.singletonList(message));
+		}
+
+		@Override
+		public void receiveMessages(List<Envelope> messages) {
+			long now = Envelope.now();
+			long bytes = 0;
+			for (Envelope message : messages) {
+				byte[] payload = message.getPayload();
+				bytes += payload.length;
+				long sent = sendTime(payload);
+				if (sent >= 0) {
+					latency.record(now - sent);
+				}
+			}
+			received.addAndGet(messages.size());
+			receivedBytes.addAndGet(bytes);
+			lastReceived = System.currentTimeMillis();
+		}
+	}
+}
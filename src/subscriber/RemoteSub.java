@@ -5,8 +5,11 @@
 package subscriber;
 
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import remote.Envelope;
 import remote.IRemoteSub;
 
 import java.time.LocalDateTime;
@@ -16,35 +19,84 @@ import java.time.format.DateTimeFormatter;
  * Implementation of the IRemoteSub interface, representing a remote subscriber
  * that can receive messages from a broker in a distributed publish-subscribe system.
  * When a message is received, the message and the timestamp are printed to the console.
+ * In push mode the subscriber exports this object so the broker can call it; in pull
+ * mode it stays local and is handed the batches the subscriber polls for.
  */
-public class RemoteSub extends UnicastRemoteObject implements IRemoteSub{
+public class RemoteSub implements IRemoteSub{
+	
+	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd/MM HH:mm:ss");
+	private final Map<Integer, String> topicNames = new ConcurrentHashMap<>();  // Names of subscribed topics, messages only carry the ID
+	private volatile long lastReceived;  // Time of the last delivery, each one renews the subscriber's lease on the broker
 	
 	/**
-     * Constructor for the RemoteSub class, which exports the object for RMI.
-     *
-     * @throws RemoteException If a remote communication error occurs.
+     * Constructor for the RemoteSub class. The object is not exported for RMI until the subscriber chooses push mode.
      */
-	protected RemoteSub() throws RemoteException {
-		super();
+	protected RemoteSub() {
+	}
+
+	/**
+	 * Records the name of a subscribed topic so its messages can be labelled.
+	 * Messages only carry the topic ID.
+	 *
+	 * @param topicId   the ID of the topic
+	 * @param topicName the name of the topic
+	 */
+	public void nameTopic(int topicId, String topicName) {
+		if (topicName != null) {
+			topicNames.put(topicId, topicName);
+		}
+	}
+
+	/**
+	 * Returns when messages were last received.
+	 *
+	 * @return the time in milliseconds, 0 if none have been received
+	 */
+	long getLastReceived() {
+		return lastReceived;
 	}
 
 	/**
 	 * Receives a message from a broker and prints it to the console.
 	 * 
-	 * @param topicId the ID of the topic the message is associated with
 	 * @param message the message to be printed
 	 */
 	@Override
-	public void receiveMessage(String message) throws RemoteException {
+	public void receiveMessage(Envelope message) throws RemoteException {
+		lastReceived = System.currentTimeMillis();
 		
         LocalDateTime now = LocalDateTime.now();
         
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM HH:mm:ss");
-        
-        String formattedDateTime = now.format(formatter);
+        String formattedDateTime = now.format(FORMATTER);
                 
-		System.out.println(formattedDateTime + " " + message + "\n");
+		System.out.println(formattedDateTime + " " + format(message) + "\n");
 	}
 	
+	/**
+	 * Receives a batch of messages from a broker and prints them to the console in order.
+	 * 
+	 * @param messages the messages to be printed
+	 */
+	@Override
+	public void receiveMessages(List<Envelope> messages) throws RemoteException {
+		lastReceived = System.currentTimeMillis();
+		
+		String formattedDateTime = LocalDateTime.now().format(FORMATTER);
+		
+		StringBuilder output = new StringBuilder();
+		for (Envelope message : messages) {
+			output.append(formattedDateTime + " " + format(message) + "\n\n");
+		}
+		System.out.print(output);
+	}
+	
+	// Label a message with its topic ID and, if known, the topic name
+	private String format(Envelope message) {
+		String topicName = topicNames.get(message.getTopicId());
+		if (topicName == null) {
+			return message.getTopicId() + ": " + message.getPayloadText();
+		}
+		return message.getTopicId() + ":" + topicName + ": " + message.getPayloadText();
+	}
 
 }
@@ -4,17 +4,22 @@
 
 package subscriber;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Scanner;
+import remote.Envelope;
 import remote.IRemoteBSub;
-import remote.IRemoteSub;
 import remote.IRemoteDir;
+import transport.DataClient;
+import transport.Frames;
 
 /**
  * The Subscriber class represents a subscriber in a distributed publish-subscribe system.
@@ -25,14 +30,22 @@ import remote.IRemoteDir;
 public class Subscriber {
 	
 	private String username;
-	private IRemoteSub remoteSub;
+	private RemoteSub remoteSub;
     private final static Scanner input = new Scanner(System.in);
 	private static IRemoteBSub remoteInterface;
-	private final static int HEARTBEAT_INTERVAL = 5000;
+	final static int HEARTBEAT_INTERVAL = 5000;
+	private final static boolean USE_DATA_PLANE = "nio".equalsIgnoreCase(System.getProperty("client.transport", "rmi"));  // Receive messages over the broker's socket data plane
+	private final static boolean PULL_MODE = "pull".equalsIgnoreCase(System.getProperty("client.delivery", "push"));  // Fetch messages with poll instead of receiving callbacks
+	private final static boolean DURABLE = Boolean.getBoolean("client.durable");  // Subscribe durably and resume missed messages on startup
+	private final static boolean LOAD = Boolean.getBoolean("client.load");  // Run a LoadSubscriber instead of reading commands
+	private final static int POLL_BATCH = 256;
+	private final static long POLL_WAIT = 5000;
+	private DataClient dataClient;
+	private volatile long lastPolled;  // Time of the last poll to return, each one renews the subscriber's lease on the broker
 
 	/**
      * Constructor for the Subscriber class, which initializes a new subscriber with the given username
-     * and exports the remote subscriber object.
+     * and, in push mode, exports the remote subscriber object.
      *
      * @param username The name of the subscriber.
      * @throws RemoteException If a remote communication error occurs.
@@ -40,6 +53,9 @@ public class Subscriber {
 	public Subscriber(String username) throws RemoteException {
 		this.username = username;
 		this.remoteSub = new RemoteSub();
+		if (!PULL_MODE) {
+			UnicastRemoteObject.exportObject(remoteSub, 0);
+		}
 	   
 	}
 	
@@ -59,7 +75,11 @@ public class Subscriber {
 				try {
 					int topicId = Integer.parseInt(command[1]);
 					String username = this.username;
-					result = remoteInterface.sub(topicId, remoteSub, username);
+					result = DURABLE ? remoteInterface.subDurable(topicId, PULL_MODE ? null : remoteSub, username)
+							: remoteInterface.sub(topicId, PULL_MODE ? null : remoteSub, username);
+					if (result.startsWith("SUCCESS")) {
+						remoteSub.nameTopic(topicId, remoteInterface.getTopicName(topicId));
+					}
 					System.out.println(result);
 				} catch (NumberFormatException e) {
 					System.out.println("ERROR: Invalid topic ID. Please enter a valid number.\n");
@@ -99,15 +119,79 @@ public class Subscriber {
                 "5. Quit\n");
     }
     
-    //Starts the heartbeat thread for the subscriber.
+    //Opens a data-plane connection for deliveries when selected with -Dclient.transport=nio, must happen before subscribing.
+    private void connectDataPlane(String brokerIP) throws RemoteException {
+    	int dataPort = remoteInterface.getDataPort();
+    	if (dataPort <= 0) {
+    		System.out.println("Broker does not run the data plane, receiving messages through RMI.");
+    		return;
+    	}
+    	try {
+    		dataClient = new DataClient(brokerIP, dataPort, Frames.ROLE_SUBSCRIBER, username, remoteSub::receiveMessages);
+    	} catch (IOException e) {
+    		System.out.println("Failed to open data connection, receiving messages through RMI. " + e.getMessage());
+    	}
+    }
+    
+    //Reattaches durable subscriptions kept by the broker since the last run, messages missed meanwhile are delivered first.
+    private void resumeDurable() throws RemoteException {
+    	int[] topicIds = remoteInterface.resume(PULL_MODE ? null : remoteSub, username);
+    	if (topicIds.length == 0) {
+    		return;
+    	}
+    	StringBuilder resumed = new StringBuilder("Resumed durable subscription(s) to topic(s):");
+    	for (int topicId : topicIds) {
+    		remoteSub.nameTopic(topicId, remoteInterface.getTopicName(topicId));
+    		resumed.append(" ").append(topicId);
+    	}
+    	System.out.println(resumed);
+    }
+    
+    //Starts the thread fetching messages in pull mode, each poll waits on the broker until messages arrive.
+    private void startPolling() {
+        Thread pollThread = new Thread(() -> {
+            while (true) {
+                try {
+                    long start = System.currentTimeMillis();
+                    List<Envelope> messages = remoteInterface.poll(username, POLL_BATCH, POLL_WAIT);
+                    lastPolled = System.currentTimeMillis();
+                    if (!messages.isEmpty()) {
+                        remoteSub.receiveMessages(messages);
+                    } else if (lastPolled - start < POLL_WAIT / 2) {
+                        Thread.sleep(POLL_WAIT);  // The broker answers at once while nothing is subscribed yet, don't spin
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RemoteException e) {
+                    System.out.println("Failed to poll for messages: " + e.getMessage());
+                    try {
+                        Thread.sleep(POLL_WAIT);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }, "poller");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+    
+    //Starts the heartbeat thread for the subscriber. Deliveries and polls renew the broker's lease too, so heartbeats are only sent once the subscriber has been quiet for a heartbeat interval.
     private void startHeartbeat(String brokerIP, int brokerPort) {
         Thread heartbeatThread = new Thread(() -> {
             try {
+                remoteInterface.sendSubHeartbeat(username);  // Starts the broker's lease for this subscriber
+                long lastSent = System.currentTimeMillis();
                 while (true) {
-                    Thread.sleep(HEARTBEAT_INTERVAL);
+                    long quietSince = Math.max(lastSent, Math.max(lastPolled, remoteSub.getLastReceived()));
+                    long wait = quietSince + HEARTBEAT_INTERVAL - System.currentTimeMillis();
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                        continue;
+                    }
                     // Send heartbeat to broker
                     remoteInterface.sendSubHeartbeat(username);
-                    
+                    lastSent = System.currentTimeMillis();
                 }
             } catch (InterruptedException | RemoteException e) {
                 System.out.println("Failed to send heartbeat: " + e.getMessage());
@@ -135,17 +219,34 @@ public class Subscriber {
 			Registry dirRegistry = LocateRegistry.getRegistry("localhost",dirPort);
 			IRemoteDir remoteDir = (IRemoteDir) dirRegistry.lookup("directory");
 			System.out.println(remoteDir.queryBroker());
-			System.out.print("Select broker number:");
-			int brokerNum = input.nextInt();
-			input.nextLine();
+			int brokerNum;
+			if (LOAD) {
+				brokerNum = Integer.getInteger("client.broker", 1);  // No one to ask in load mode
+			} else {
+				System.out.print("Select broker number:");
+				brokerNum = input.nextInt();
+				input.nextLine();
+			}
 			String brokerIP = remoteDir.getBrokerDetails(brokerNum)[0];
 			int brokerPort = Integer.parseInt(remoteDir.getBrokerDetails(brokerNum)[1]);
 			
-			subscriber = new Subscriber(username);
-			subscriber.startHeartbeat(brokerIP, brokerPort);
-			
 			Registry registry = LocateRegistry.getRegistry(brokerIP, brokerPort);
 			remoteInterface = (IRemoteBSub) registry.lookup("remoteSub");
+			if (LOAD) {
+				new LoadSubscriber(remoteInterface, username, brokerIP, USE_DATA_PLANE).run();
+				System.exit(0);
+			}
+			
+			subscriber = new Subscriber(username);
+			subscriber.startHeartbeat(brokerIP, brokerPort);
+			if (PULL_MODE) {
+				subscriber.startPolling();
+			} else if (USE_DATA_PLANE) {
+				subscriber.connectDataPlane(brokerIP);
+			}
+			if (DURABLE) {
+				subscriber.resumeDurable();  // After the data-plane connection is open, so catch-up uses it
+			}
 			printCommandList();
 			String[] selectedCommand = input.nextLine().split(" ");
 	        
@@ -169,7 +270,11 @@ public class Subscriber {
 			System.out.println("Remote object not found. "+ e.getMessage());
 		} catch (UnknownHostException e) {
 			System.out.println("Unknown host exception occurred. " + e.getMessage());
-		} 
+		} catch (IOException e) {
+			System.out.println("Failed to open data connection. " + e.getMessage());
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted while receiving load.");
+		}
 		
 	}
 }
@@ -0,0 +1,261 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * One client connection accepted by a {@link DataServer}. Incoming bytes are read and
+ * split into frames by the server's selector thread, and the frames are handled in
+ * order on the server's workers. Once too many frames are waiting for a worker the
+ * selector stops reading from the connection until they catch up. Outgoing frames may be sent from
+ * any thread: a frame is written straight to the socket if nothing is queued ahead of
+ * it, and whatever the socket does not take is queued and flushed by the selector
+ * thread. Senders other than the selector thread wait while too much is queued, so a
+ * slow reader pushes back on the threads delivering to it.
+ */
+public class Connection {
+
+	// Queued outbound bytes above which senders wait for the socket to drain
+	private static final int MAX_BACKLOG = Integer.getInteger("transport.maxBacklog", 4 << 20);
+
+	// Time in milliseconds a sender waits for the backlog to drain before giving up
+	private static final long SEND_TIMEOUT = Long.getLong("transport.sendTimeout", 10000L);
+
+	// Frames waiting for a worker above which the selector stops reading from the connection
+	private static final int MAX_PENDING_FRAMES = Integer.getInteger("transport.maxPendingFrames", 64);
+
+	private static final int INITIAL_READ_BUFFER = 64 * 1024;
+
+	private final DataServer server;
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final Queue<ByteBuffer[]> writeQueue = new ArrayDeque<>();
+	private long queuedBytes;  // Guarded by this
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);  // Only used by the selector thread
+	private final Queue<Runnable> tasks = new ArrayDeque<>();  // Handled frames waiting for a worker, guarded by itself
+	private boolean taskRunning;  // Whether a worker is running this connection's tasks, guarded by tasks
+	private volatile boolean readPaused;  // Only changed by the selector thread
+	private volatile boolean closed;
+	private volatile byte role;
+	private volatile String name;
+
+	Connection(DataServer server, SocketChannel channel, SelectionKey key) {
+		this.server = server;
+		this.channel = channel;
+		this.key = key;
+	}
+
+	/**
+	 * Returns the role the client announced in its HELLO frame.
+	 *
+	 * @return One of the Frames.ROLE_ constants, or 0 before the HELLO frame.
+	 */
+	public byte getRole() {
+		return role;
+	}
+
+	/**
+	 * Returns the name the client announced in its HELLO frame.
+	 *
+	 * @return The username or broker port, or null before the HELLO frame.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether the connection has been closed.
+	 *
+	 * @return true if closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Sends a frame, given as one or more buffers written back to back with a gathering
+	 * write. Frames are written in the order this method is called.
+	 *
+	 * @param frame The buffers of the frame, positioned for writing. Must not be modified afterwards.
+	 * @throws IOException If the connection is closed, or the backlog did not drain in time.
+	 */
+	public void send(ByteBuffer... frame) throws IOException {
+		synchronized (this) {
+			if (!server.inSelectorThread()) {
+				awaitBacklog();
+			}
+			if (closed) {
+				throw new IOException("Connection to " + name + " is closed");
+			}
+			if (writeQueue.isEmpty()) {
+				channel.write(frame);
+				if (Frames.remaining(frame) == 0) {
+					return;
+				}
+			}
+			writeQueue.add(frame);
+			queuedBytes += Frames.remaining(frame);
+		}
+		server.requestWrite(this);
+	}
+
+	/**
+	 * Closes the connection and discards any queued frames.
+	 *
+	 * @return true if this call closed the connection, false if it was already closed.
+	 */
+	public boolean close() {
+		synchronized (this) {
+			if (closed) {
+				return false;
+			}
+			closed = true;
+			writeQueue.clear();
+			queuedBytes = 0;
+			notifyAll();
+		}
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Already closed by the peer
+		}
+		return true;
+	}
+
+	void identify(byte role, String name) {
+		this.role = role;
+		this.name = name;
+	}
+
+	SelectionKey getKey() {
+		return key;
+	}
+
+	// Queue a frame's handling to run on the server's workers after this connection's earlier frames, caller is the selector thread
+	void submit(Runnable task) {
+		synchronized (tasks) {
+			tasks.add(task);
+			if (tasks.size() >= MAX_PENDING_FRAMES && !readPaused) {
+				readPaused = true;  // Frames already buffered wait too, until the workers catch up
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+			if (!taskRunning) {
+				taskRunning = true;
+				server.execute(this::runTasks);
+			}
+		}
+	}
+
+	// Start reading again once the workers have caught up, handling frames already buffered first, caller is the selector thread
+	void resumeReading() throws IOException {
+		if (!readPaused || closed) {
+			return;
+		}
+		readPaused = false;
+		key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		readBuffer.flip();
+		readFrames();
+	}
+
+	// Read what the socket has and hand every complete frame to the server, caller is the selector thread
+	void read() throws IOException {
+		if (channel.read(readBuffer) < 0) {
+			throw new EOFException("Connection closed by peer");
+		}
+		readBuffer.flip();
+		readFrames();
+	}
+
+	// Hand the complete frames in the flipped read buffer to the server, then compact it for the next read
+	private void readFrames() throws IOException {
+		while (!readPaused && readBuffer.remaining() >= 4) {
+			int length = readBuffer.getInt(readBuffer.position());
+			if (length < 1 || length > Frames.MAX_FRAME) {
+				throw new IOException("Invalid frame length " + length);
+			}
+			if (readBuffer.remaining() < 4 + length) {
+				if (4 + length > readBuffer.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocate(4 + length);
+					larger.put(readBuffer);
+					readBuffer = larger;
+					return;
+				}
+				break;
+			}
+			int end = readBuffer.position() + 4 + length;
+			readBuffer.position(readBuffer.position() + 4);
+			byte type = readBuffer.get();
+			ByteBuffer body = readBuffer.slice();
+			body.limit(length - 1);
+			server.frameReceived(this, type, body);
+			readBuffer.position(end);
+		}
+		readBuffer.compact();
+	}
+
+	// Write queued frames until the socket stops accepting, caller is the selector thread
+	void flush() throws IOException {
+		synchronized (this) {
+			ByteBuffer[] frame;
+			while ((frame = writeQueue.peek()) != null) {
+				queuedBytes -= channel.write(frame);
+				if (Frames.remaining(frame) > 0) {
+					break;
+				}
+				writeQueue.poll();
+			}
+			if (writeQueue.isEmpty() && key.isValid()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+			if (queuedBytes <= MAX_BACKLOG / 2) {
+				notifyAll();
+			}
+		}
+	}
+
+	// Run queued tasks in order until none are left, on a worker thread
+	private void runTasks() {
+		while (true) {
+			Runnable task;
+			int waiting;
+			synchronized (tasks) {
+				task = tasks.poll();
+				if (task == null) {
+					taskRunning = false;
+					return;
+				}
+				waiting = tasks.size();
+			}
+			task.run();
+			if (readPaused && waiting <= MAX_PENDING_FRAMES / 2) {
+				server.requestRead(this);
+			}
+		}
+	}
+
+	// Wait until the backlog has room, caller holds this connection's monitor
+	private void awaitBacklog() throws IOException {
+		long deadline = System.currentTimeMillis() + SEND_TIMEOUT;
+		while (queuedBytes > MAX_BACKLOG && !closed) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new IOException("Timed out waiting for " + name + " to read queued messages");
+			}
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sending to " + name);
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import remote.Envelope;
+
+/**
+ * Client end of a data-plane connection, used by publishers, subscribers and brokers
+ * forwarding to a peer. Frames are written with blocking writes by the calling thread,
+ * and a reader thread completes publish results, counts peer acknowledgements and
+ * passes delivered messages to the {@link MessageListener}.
+ */
+public class DataClient {
+
+	/**
+	 * Receives messages delivered over the connection, called on the reader thread in delivery order.
+	 */
+	public interface MessageListener {
+		void messagesReceived(List<Envelope> messages) throws IOException;
+	}
+
+	// Time in milliseconds to wait for the broker to answer a request
+	private static final long REPLY_TIMEOUT = Long.getLong("transport.replyTimeout", 10000L);
+
+	private final SocketChannel channel;
+	private final MessageListener listener;
+	private final Map<Long, CompletableFuture<String>> pendingResults = new ConcurrentHashMap<>();
+	private final AtomicLong nextRequestId = new AtomicLong(1);  // Request 0 is the HELLO
+	private final Object writeLock = new Object();
+	private final Object ackLock = new Object();
+	private long sentBatches;  // Guarded by ackLock
+	private long ackedBatches;  // Guarded by ackLock
+	private final Thread reader;
+	private volatile boolean closed;
+
+	/**
+	 * Connects to a broker's data port and identifies this client.
+	 *
+	 * @param host     The broker host.
+	 * @param port     The broker's data port.
+	 * @param role     One of the Frames.ROLE_ constants.
+	 * @param name     The publisher or subscriber username, or this broker's port.
+	 * @param listener Receives delivered messages, or null if none are expected.
+	 * @throws IOException If the connection fails or the broker rejects it.
+	 */
+	public DataClient(String host, int port, byte role, String name, MessageListener listener) throws IOException {
+		this.listener = listener;
+		this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		this.reader = new Thread(this::readLoop, "data-client-" + name);
+		this.reader.setDaemon(true);
+		this.reader.start();
+		CompletableFuture<String> hello = new CompletableFuture<>();
+		pendingResults.put(0L, hello);
+		write(Frames.hello(role, name));
+		String result = await(hello);
+		if (!result.startsWith("SUCCESS")) {
+			close();
+			throw new IOException("Broker refused data connection: " + result);
+		}
+	}
+
+	/**
+	 * Publishes a message without waiting for the broker's result. Results complete in publish order.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param payload The message content.
+	 * @return The result text the broker returns, as for an RMI publish.
+	 * @throws IOException If the message cannot be written.
+	 */
+	public CompletableFuture<String> publishAsync(int topicId, byte[] payload) throws IOException {
+		long requestId = nextRequestId.getAndIncrement();
+		CompletableFuture<String> result = new CompletableFuture<>();
+		pendingResults.put(requestId, result);
+		try {
+			write(Frames.publish(requestId, topicId, payload));
+		} catch (IOException e) {
+			pendingResults.remove(requestId);
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Publishes a message and waits for the broker's result.
+	 *
+	 * @param topicId The ID of the topic.
+	 * @param payload The message content.
+	 * @return The result text, as for an RMI publish.
+	 * @throws IOException If the message cannot be sent or no result arrives in time.
+	 */
+	public String publish(int topicId, byte[] payload) throws IOException {
+		return await(publishAsync(topicId, payload));
+	}
+
+	/**
+	 * Sends a batch of messages to a peer broker and waits until the peer has accepted it.
+	 *
+	 * @param messages The messages, in order.
+	 * @throws IOException If the batch cannot be sent or is not acknowledged in time.
+	 */
+	public void sendMessages(List<Envelope> messages) throws IOException {
+		long batch;
+		synchronized (writeLock) {
+			synchronized (ackLock) {
+				batch = ++sentBatches;
+			}
+			write(Frames.messages(messages));
+		}
+		long deadline = System.currentTimeMillis() + REPLY_TIMEOUT;
+		synchronized (ackLock) {
+			while (ackedBatches < batch) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (closed) {
+					throw new IOException("Data connection closed before the batch was acknowledged");
+				}
+				if (remaining <= 0) {
+					throw new IOException("Timed out waiting for acknowledgement");
+				}
+				try {
+					ackLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for acknowledgement");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the connection has been closed.
+	 *
+	 * @return true if closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the connection. Requests still waiting for a result fail.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Closing anyway
+		}
+		IOException cause = new IOException("Data connection closed");
+		for (CompletableFuture<String> result : pendingResults.values()) {
+			result.completeExceptionally(cause);
+		}
+		pendingResults.clear();
+		synchronized (ackLock) {
+			ackLock.notifyAll();
+		}
+	}
+
+	// Write a whole frame with gathering writes, frames from different threads are not interleaved
+	private void write(ByteBuffer... frame) throws IOException {
+		synchronized (writeLock) {
+			if (closed) {
+				throw new IOException("Data connection closed");
+			}
+			while (Frames.remaining(frame) > 0) {
+				channel.write(frame);
+			}
+		}
+	}
+
+	// Wait for a request's result
+	private static String await(CompletableFuture<String> result) throws IOException {
+		try {
+			return result.get(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (TimeoutException e) {
+			throw new IOException("Timed out waiting for the broker");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the broker");
+		}
+	}
+
+	// Read frames until the connection closes
+	private void readLoop() {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		try {
+			while (!closed) {
+				header.clear();
+				readFully(header);
+				int length = header.getInt(0);
+				if (length < 1 || length > Frames.MAX_FRAME) {
+					throw new IOException("Invalid frame length " + length);
+				}
+				ByteBuffer frame = ByteBuffer.allocate(length);
+				readFully(frame);
+				frame.flip();
+				byte type = frame.get();
+				switch (type) {
+					case Frames.RESULT:
+						long requestId = frame.getLong();
+						CompletableFuture<String> result = pendingResults.remove(requestId);
+						if (result != null) {
+							result.complete(Frames.readString(frame));
+						}
+						break;
+					case Frames.MESSAGES:
+						if (listener != null) {
+							listener.messagesReceived(Frames.readMessages(frame));
+						}
+						break;
+					case Frames.ACK:
+						synchronized (ackLock) {
+							ackedBatches++;
+							ackLock.notifyAll();
+						}
+						break;
+					default:
+						throw new IOException("Unknown frame type " + type);
+				}
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				System.out.println("Data connection lost: " + e.getMessage());
+			}
+		} finally {
+			close();
+		}
+	}
+
+	// Fill a buffer from the channel
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed by broker");
+			}
+		}
+	}
+}
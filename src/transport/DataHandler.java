@@ -0,0 +1,25 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package transport;
+
+import java.util.List;
+
+import remote.Envelope;
+
+/**
+ * Receives decoded frames from a {@link DataServer}. connected, publish and
+ * messagesReceived are called on the server's worker threads, one at a time per
+ * connection and in the order its frames arrived, so they may block without holding up
+ * other connections. disconnected may be called on the selector thread and must not block.
+ */
+public interface DataHandler {
+
+	void connected(Connection connection);
+
+	String publish(Connection connection, int topicId, byte[] payload);
+
+	void messagesReceived(Connection connection, List<Envelope> messages);
+
+	void disconnected(Connection connection);
+}
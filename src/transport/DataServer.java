@@ -0,0 +1,256 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import remote.Envelope;
+
+/**
+ * Non-blocking server for the data plane. A single selector thread accepts connections,
+ * reads and decodes frames, and flushes outbound frames the sending threads could not
+ * write straight away. Decoded frames are passed to a {@link DataHandler} on a pool of
+ * worker threads, in order per connection, and answered on the same connection: HELLO
+ * and PUBLISH with a RESULT, MESSAGES with an ACK. A handler call that waits, such as a
+ * publish behind a topic deletion, holds up the connection it came from and one worker;
+ * the pool is fixed, and a connection with too many frames waiting for a worker is not
+ * read until they have been handled.
+ */
+public class DataServer implements Runnable {
+
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final DataHandler handler;
+	private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+	private final Queue<Connection> pendingReads = new ConcurrentLinkedQueue<>();
+	private final ExecutorService workers;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	/**
+	 * Binds the server socket. Call {@link #start()} to begin accepting connections.
+	 *
+	 * @param port    The port to listen on, or 0 for any free port.
+	 * @param threads The number of worker threads handling frames.
+	 * @param handler The handler receiving decoded frames.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public DataServer(int port, int threads, DataHandler handler) throws IOException {
+		this.handler = handler;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.thread = new Thread(this, "data-server-" + getPort());
+		this.thread.setDaemon(true);
+		AtomicInteger workerCount = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread worker = new Thread(runnable, "data-worker-" + getPort() + "-" + workerCount.incrementAndGet());
+			worker.setDaemon(true);
+			return worker;
+		});
+	}
+
+	/**
+	 * Starts the selector thread.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Returns the port the server is listening on.
+	 *
+	 * @return The local port.
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the selector thread and closes every connection.
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	boolean inSelectorThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	// Ask the selector thread to flush a connection once its socket can take more
+	void requestWrite(Connection connection) {
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	// Ask the selector thread to read from a connection again once its workers have caught up
+	void requestRead(Connection connection) {
+		pendingReads.add(connection);
+		selector.wakeup();
+	}
+
+	// Run a connection's queued frames on a worker
+	void execute(Runnable task) {
+		workers.execute(task);
+	}
+
+	// Accept, read and write until closed
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				Connection pending;
+				while ((pending = pendingWrites.poll()) != null) {
+					SelectionKey key = pending.getKey();
+					if (key.isValid()) {
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				}
+				while ((pending = pendingReads.poll()) != null) {
+					try {
+						pending.resumeReading();
+					} catch (IOException | RuntimeException e) {
+						disconnect(pending, e);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+					} catch (IOException | RuntimeException e) {
+						disconnect(connection, e);  // Only this connection, the others carry on
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Data server on port " + getPort() + " stopped: " + e.getMessage());
+		} finally {
+			workers.shutdownNow();
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close();
+				}
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				// Closing anyway
+			}
+		}
+	}
+
+	// Decode one frame on the selector thread, then queue its handling and reply for a worker, the body is only valid during this call
+	void frameReceived(Connection connection, byte type, ByteBuffer body) throws IOException {
+		if (type != Frames.HELLO && connection.getRole() == 0) {
+			throw new IOException("Frame type " + type + " sent before HELLO");
+		}
+		switch (type) {
+			case Frames.HELLO:
+				Frames.require(body, 1);
+				byte role = body.get();
+				connection.identify(role, Frames.readString(body));  // Before any later frame is checked for it
+				handle(connection, () -> {
+					handler.connected(connection);
+					connection.send(Frames.result(0, "SUCCESS"));
+				});
+				break;
+			case Frames.PUBLISH:
+				Frames.require(body, 8 + 4);
+				long requestId = body.getLong();
+				int topicId = body.getInt();
+				byte[] payload = Frames.readBytes(body);
+				handle(connection, () -> connection.send(Frames.result(requestId, handler.publish(connection, topicId, payload))));
+				break;
+			case Frames.MESSAGES:
+				List<Envelope> messages = Frames.readMessages(body);
+				handle(connection, () -> {
+					handler.messagesReceived(connection, messages);
+					connection.send(Frames.ack(messages.size()));
+				});
+				break;
+			default:
+				throw new IOException("Unknown frame type " + type);
+		}
+	}
+
+	// Queue the handling of a decoded frame, skipped once the connection has closed since the client will not see its reply
+	private void handle(Connection connection, FrameTask task) {
+		connection.submit(() -> {
+			if (connection.isClosed()) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (IOException | RuntimeException e) {
+				disconnect(connection, e);
+			}
+		});
+	}
+
+	// Register a newly accepted client for reads
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(this, channel, key));
+	}
+
+	// Close a failed connection and tell the handler if the client had identified itself, called by the selector thread or a worker
+	private void disconnect(Connection connection, Exception cause) {
+		if (!connection.close()) {
+			return;  // Already closed and reported
+		}
+		String reason = cause instanceof IOException ? cause.getMessage() : cause.toString();  // An unexpected exception is a bug or a frame the checks missed, keep its type
+		if (connection.getRole() != 0) {
+			System.out.println("Data connection from " + connection.getName() + " closed: " + reason);
+			handler.disconnected(connection);
+		} else if (!(cause instanceof EOFException)) {
+			System.out.println("Data connection closed before HELLO: " + reason);
+		}
+	}
+
+	// Handling of one decoded frame, run on a worker
+	private interface FrameTask {
+		void run() throws IOException;
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import remote.Envelope;
+
+/**
+ * Frame layout of the data plane. Every frame is a four byte length, covering the
+ * type and body, followed by a one byte type and the body:
+ * <ul>
+ * <li>HELLO: role (1), name. First frame on every connection, answered with a RESULT of request 0.</li>
+ * <li>PUBLISH: request ID (8), topic ID (4), payload length (4), payload. Answered with a RESULT.</li>
+ * <li>RESULT: request ID (8), text. The same text the RMI method would have returned.</li>
+ * <li>MESSAGES: count (4), then that many encoded {@link Envelope}s. Used for forwarding and delivery.
+ * Written as a gathering write of a small header followed by each envelope's shared encoding.</li>
+ * <li>ACK: count (4). Sent by a broker once it has accepted a MESSAGES frame from a peer.</li>
+ * </ul>
+ * Strings are a four byte length followed by UTF-8 bytes. All numbers are big-endian.
+ * Readers check every length against the bytes left in the frame and throw an
+ * IOException for a malformed frame, so a bad client only loses its own connection.
+ */
+public final class Frames {
+
+	public static final byte HELLO = 1;
+	public static final byte PUBLISH = 2;
+	public static final byte RESULT = 3;
+	public static final byte MESSAGES = 4;
+	public static final byte ACK = 5;
+
+	public static final byte ROLE_PUBLISHER = 1;
+	public static final byte ROLE_SUBSCRIBER = 2;
+	public static final byte ROLE_BROKER = 3;
+
+	/** Largest accepted frame, a peer sending more is disconnected. */
+	public static final int MAX_FRAME = Integer.getInteger("transport.maxFrame", 16 << 20);
+
+	private Frames() {
+	}
+
+	/**
+	 * Builds a HELLO frame.
+	 *
+	 * @param role The role of the connecting side.
+	 * @param name The publisher or subscriber username, or the broker port.
+	 * @return The frame, ready to write.
+	 */
+	public static ByteBuffer hello(byte role, String name) {
+		byte[] text = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = start(HELLO, 1 + 4 + text.length);
+		frame.put(role);
+		frame.putInt(text.length).put(text);
+		return finish(frame);
+	}
+
+	/**
+	 * Builds a PUBLISH frame.
+	 *
+	 * @param requestId The ID matched against the RESULT.
+	 * @param topicId   The ID of the topic.
+	 * @param payload   The message content.
+	 * @return The frame, ready to write.
+	 */
+	public static ByteBuffer publish(long requestId, int topicId, byte[] payload) {
+		ByteBuffer frame = start(PUBLISH, 8 + 4 + 4 + payload.length);
+		frame.putLong(requestId).putInt(topicId).putInt(payload.length).put(payload);
+		return finish(frame);
+	}
+
+	/**
+	 * Builds a RESULT frame.
+	 *
+	 * @param requestId The ID of the request being answered.
+	 * @param text      The result text.
+	 * @return The frame, ready to write.
+	 */
+	public static ByteBuffer result(long requestId, String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = start(RESULT, 8 + 4 + bytes.length);
+		frame.putLong(requestId).putInt(bytes.length).put(bytes);
+		return finish(frame);
+	}
+
+	/**
+	 * Builds a MESSAGES frame from envelopes without copying them: a header buffer followed
+	 * by a read-only view of each envelope's encoding, for a gathering write.
+	 *
+	 * @param messages The messages, in delivery order.
+	 * @return The buffers making up the frame, ready to write in order.
+	 */
+	public static ByteBuffer[] messages(List<Envelope> messages) {
+		ByteBuffer[] frame = new ByteBuffer[messages.size() + 1];
+		int size = 4;
+		for (int i = 0; i < messages.size(); i++) {
+			frame[i + 1] = messages.get(i).buffer();
+			size += frame[i + 1].remaining();
+		}
+		ByteBuffer header = ByteBuffer.allocate(4 + 1 + 4);
+		header.putInt(1 + size).put(MESSAGES).putInt(messages.size());
+		frame[0] = finish(header);
+		return frame;
+	}
+
+	/**
+	 * Returns the number of bytes left to write in a frame made of several buffers.
+	 *
+	 * @param frame The buffers making up the frame.
+	 * @return The remaining bytes.
+	 */
+	public static long remaining(ByteBuffer[] frame) {
+		long remaining = 0;
+		for (ByteBuffer buffer : frame) {
+			remaining += buffer.remaining();
+		}
+		return remaining;
+	}
+
+	/**
+	 * Builds an ACK frame.
+	 *
+	 * @param count The number of messages accepted.
+	 * @return The frame, ready to write.
+	 */
+	public static ByteBuffer ack(int count) {
+		ByteBuffer frame = start(ACK, 4);
+		frame.putInt(count);
+		return finish(frame);
+	}
+
+	/**
+	 * Reads a string written by this class.
+	 *
+	 * @param body The frame body, positioned at the string.
+	 * @return The string.
+	 * @throws IOException If the frame ends before the string does.
+	 */
+	public static String readString(ByteBuffer body) throws IOException {
+		return new String(readBytes(body), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a four byte length followed by that many bytes, such as a PUBLISH payload.
+	 *
+	 * @param body The frame body, positioned at the length.
+	 * @return The bytes.
+	 * @throws IOException If the length is negative or longer than the rest of the frame.
+	 */
+	public static byte[] readBytes(ByteBuffer body) throws IOException {
+		require(body, 4);
+		int length = body.getInt();
+		if (length < 0 || length > body.remaining()) {
+			throw new IOException("Invalid length " + length + " with " + body.remaining() + " bytes left in frame");
+		}
+		byte[] bytes = new byte[length];
+		body.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads the envelopes of a MESSAGES frame.
+	 *
+	 * @param body The frame body.
+	 * @return The messages, in the order they were written.
+	 * @throws IOException If the count or an envelope does not fit in the frame.
+	 */
+	public static List<Envelope> readMessages(ByteBuffer body) throws IOException {
+		require(body, 4);
+		int count = body.getInt();
+		if (count < 0 || count > body.remaining() / Envelope.HEADER_SIZE) {
+			throw new IOException("Invalid message count " + count + " with " + body.remaining() + " bytes left in frame");
+		}
+		List<Envelope> messages = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			require(body, Envelope.HEADER_SIZE);
+			int payloadLength = body.getInt(body.position() + Envelope.HEADER_SIZE - 4);
+			if (payloadLength < 0 || payloadLength > body.remaining() - Envelope.HEADER_SIZE) {
+				throw new IOException("Invalid payload length " + payloadLength + " of message " + i);
+			}
+			messages.add(Envelope.decode(body));
+		}
+		return messages;
+	}
+
+	/**
+	 * Checks that a frame has at least the given number of bytes left.
+	 *
+	 * @param body  The frame body.
+	 * @param bytes The bytes about to be read.
+	 * @throws IOException If the frame is shorter.
+	 */
+	static void require(ByteBuffer body, int bytes) throws IOException {
+		if (body.remaining() < bytes) {
+			throw new IOException("Frame truncated, " + bytes + " bytes needed and " + body.remaining() + " left");
+		}
+	}
+
+	// Allocate a frame and write its length and type
+	private static ByteBuffer start(byte type, int bodySize) {
+		ByteBuffer frame = ByteBuffer.allocate(4 + 1 + bodySize);
+		frame.putInt(1 + bodySize).put(type);
+		return frame;
+	}
+
+	// Flip a completed frame for writing
+	private static ByteBuffer finish(ByteBuffer frame) {
+		frame.flip();
+		return frame;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative long values, such as latencies in microseconds,
+ * for reporting percentiles. Values are counted in log-linear buckets: values below
+ * 2^precisionBits are counted exactly, and larger values in buckets whose width is at
+ * most 1/2^(precisionBits-1) of their value, so a percentile is reported within that
+ * relative error whatever the range of values. Recording is a few shifts and one atomic
+ * increment, and the bucket array has a fixed size of a few thousand counters.
+ */
+public class Histogram {
+
+	private final int precisionBits;
+	private final int subBuckets;  // Buckets per power of two, exact below this value
+	private final int halfBuckets;
+	private final AtomicLongArray counts;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Constructs a histogram reporting values within about 1% of their true value.
+	 */
+	public Histogram() {
+		this(7);
+	}
+
+	/**
+	 * Constructs a histogram with the given precision.
+	 *
+	 * @param precisionBits Bits of each value kept, from 2 to 16, so the relative error is at most 1/2^(precisionBits-1).
+	 */
+	public Histogram(int precisionBits) {
+		if (precisionBits < 2 || precisionBits > 16) {
+			throw new IllegalArgumentException("Precision must be between 2 and 16 bits");
+		}
+		this.precisionBits = precisionBits;
+		this.subBuckets = 1 << precisionBits;
+		this.halfBuckets = subBuckets >> 1;
+		this.counts = new AtomicLongArray(subBuckets + (64 - precisionBits) * halfBuckets);
+	}
+
+	/**
+	 * Counts a value. Negative values, such as latencies measured across clocks that are
+	 * slightly apart, are counted as zero.
+	 *
+	 * @param value The value.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Adds the counts of another histogram of the same precision to this one.
+	 *
+	 * @param other The histogram to add.
+	 */
+	public void add(Histogram other) {
+		if (other.precisionBits != precisionBits) {
+			throw new IllegalArgumentException("Histograms differ in precision");
+		}
+		for (int i = 0; i < counts.length(); i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		long otherMax = other.max.get();
+		long current = max.get();
+		while (otherMax > current && !max.compareAndSet(current, otherMax)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of values counted.
+	 *
+	 * @return The count.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the largest value counted.
+	 *
+	 * @return The exact maximum, 0 if nothing was counted.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean of the values counted.
+	 *
+	 * @return The exact mean, 0 if nothing was counted.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of the counted values fall.
+	 *
+	 * @param percentile The percentage, from 0 to 100.
+	 * @return The highest value of the bucket holding that percentile, never above the maximum, 0 if nothing was counted.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueAt(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns the usual percentiles as one line of text.
+	 *
+	 * @param divisor Divides each value before printing, such as 1000 to print microseconds as milliseconds.
+	 * @param unit    The unit printed after each value.
+	 * @return The 50th, 90th, 99th and 99.9th percentiles and the maximum.
+	 */
+	public String summary(double divisor, String unit) {
+		return String.format("p50 %.3f%s, p90 %.3f%s, p99 %.3f%s, p99.9 %.3f%s, max %.3f%s",
+				getValueAtPercentile(50) / divisor, unit, getValueAtPercentile(90) / divisor, unit,
+				getValueAtPercentile(99) / divisor, unit, getValueAtPercentile(99.9) / divisor, unit,
+				getMax() / divisor, unit);
+	}
+
+	// Bucket of a value: exact below subBuckets, then halfBuckets buckets for each further power of two
+	private int indexOf(long value) {
+		if (value < subBuckets) {
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+		return subBuckets + (shift - 1) * halfBuckets + (int) (value >>> shift) - halfBuckets;
+	}
+
+	// Largest value counted in a bucket
+	private long highestValueAt(int index) {
+		if (index < subBuckets) {
+			return index;
+		}
+		int shift = (index - subBuckets) / halfBuckets + 1;
+		long mantissa = (index - subBuckets) % halfBuckets + halfBuckets;
+		long highest = ((mantissa + 1) << shift) - 1;
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread-safe set of primitive ints, used in place of {@code Set<Integer>} for topic IDs.
+ * Values are stored unboxed in an open-addressing table with linear probing, so each
+ * element costs four bytes of table space instead of a boxed Integer plus a hash node.
+ * Writers take an exclusive lock; {@link #contains(int)} uses an optimistic read and
+ * only falls back to a read lock if a write happened at the same time.
+ * Zero cannot mark an empty slot and a real value at once, so it is tracked by a flag.
+ */
+public class IntHashSet {
+
+	private static final int MIN_CAPACITY = 4;
+
+	private final StampedLock lock = new StampedLock();
+	private int[] keys;
+	private int size;  // Number of non-zero keys in the table
+	private boolean containsZero;
+
+	/**
+	 * Constructs an empty set.
+	 */
+	public IntHashSet() {
+		keys = new int[MIN_CAPACITY];
+	}
+
+	/**
+	 * Returns whether the set contains a value.
+	 *
+	 * @param value The value to look up.
+	 * @return true if the value is present.
+	 */
+	public boolean contains(int value) {
+		long stamp = lock.tryOptimisticRead();
+		boolean found = find(value);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				found = find(value);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Adds a value to the set.
+	 *
+	 * @param value The value to add.
+	 * @return true if the value was not already present.
+	 */
+	public boolean add(int value) {
+		long stamp = lock.writeLock();
+		try {
+			if (value == 0) {
+				boolean added = !containsZero;
+				containsZero = true;
+				return added;
+			}
+			int slot = slotOf(keys, value);
+			if (keys[slot] == value) {
+				return false;
+			}
+			keys[slot] = value;
+			if (++size * 4 > keys.length * 3) {
+				rehash(keys.length * 2);
+			}
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes a value from the set.
+	 *
+	 * @param value The value to remove.
+	 * @return true if the value was present.
+	 */
+	public boolean remove(int value) {
+		long stamp = lock.writeLock();
+		try {
+			if (value == 0) {
+				boolean removed = containsZero;
+				containsZero = false;
+				return removed;
+			}
+			int slot = slotOf(keys, value);
+			if (keys[slot] != value) {
+				return false;
+			}
+			deleteSlot(slot);
+			size--;
+			if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+				rehash(keys.length / 2);
+			}
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Returns the number of values in the set.
+	 *
+	 * @return The number of values.
+	 */
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return size + (containsZero ? 1 : 0);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns whether the set is empty.
+	 *
+	 * @return true if the set has no values.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns a snapshot of the values in the set, in no particular order.
+	 *
+	 * @return The values.
+	 */
+	public int[] toArray() {
+		long stamp = lock.readLock();
+		try {
+			int[] result = new int[size + (containsZero ? 1 : 0)];
+			int count = 0;
+			if (containsZero) {
+				result[count++] = 0;
+			}
+			for (int key : keys) {
+				if (key != 0) {
+					result[count++] = key;
+				}
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	// Probe for a value, tolerating a table that is being changed by an optimistic read
+	private boolean find(int value) {
+		if (value == 0) {
+			return containsZero;
+		}
+		int[] table = keys;
+		int mask = table.length - 1;
+		int slot = IntObjectHashMap.hash(value) & mask;
+		for (int probes = 0; probes <= mask; probes++) {
+			int key = table[slot];
+			if (key == value) {
+				return true;
+			}
+			if (key == 0) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	// Index of the value, or of the empty slot where it would be inserted
+	private static int slotOf(int[] table, int value) {
+		int mask = table.length - 1;
+		int slot = IntObjectHashMap.hash(value) & mask;
+		while (table[slot] != 0 && table[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	// Empty a slot and shift later entries of the same probe run back so lookups still find them
+	private void deleteSlot(int slot) {
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = slot;
+		keys[hole] = 0;
+		while (true) {
+			next = (next + 1) & mask;
+			int key = keys[next];
+			if (key == 0) {
+				return;
+			}
+			int home = IntObjectHashMap.hash(key) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = key;
+				keys[next] = 0;
+				hole = next;
+			}
+		}
+	}
+
+	// Move every value into a new table of the given power of two capacity
+	private void rehash(int capacity) {
+		int[] table = new int[Math.max(MIN_CAPACITY, capacity)];
+		for (int key : keys) {
+			if (key != 0) {
+				table[slotOf(table, key)] = key;
+			}
+		}
+		keys = table;
+	}
+}
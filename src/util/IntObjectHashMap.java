@@ -0,0 +1,413 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+/**
+ * A thread-safe map from primitive int keys to objects, used in place of
+ * {@code Map<Integer, V>} for topic-ID indexes. Keys are stored unboxed in
+ * open-addressing tables with linear probing, split into independently locked
+ * segments so writers to different segments do not contend. Lookups use an
+ * optimistic read and only take a read lock if a write happened at the same time.
+ * Null values are not allowed; a null value marks an empty slot.
+ *
+ * @param <V> The type of the values.
+ */
+public class IntObjectHashMap<V> {
+
+	/**
+	 * Computes a new value for a key from its current value, which may be null.
+	 * Returning null removes the entry.
+	 *
+	 * @param <V> The type of the values.
+	 */
+	public interface Remapper<V> {
+		V apply(int key, V value);
+	}
+
+	private static final int DEFAULT_SEGMENTS = 16;
+
+	private final Segment<V>[] segments;
+	private final int segmentShift;
+
+	/**
+	 * Constructs an empty map with the default number of segments.
+	 */
+	public IntObjectHashMap() {
+		this(DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * Constructs an empty map.
+	 *
+	 * @param concurrency The expected number of concurrent writers, rounded up to a power of two.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public IntObjectHashMap(int concurrency) {
+		int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<>();
+		}
+		segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+	}
+
+	/**
+	 * Spreads an int key so that sequential IDs fill a table evenly.
+	 *
+	 * @param key The key.
+	 * @return The mixed hash.
+	 */
+	static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the value mapped to a key.
+	 *
+	 * @param key The key.
+	 * @return The value, or null if there is none.
+	 */
+	public V get(int key) {
+		int h = hash(key);
+		return segmentFor(h).get(key, h);
+	}
+
+	/**
+	 * Returns whether a key is mapped.
+	 *
+	 * @param key The key.
+	 * @return true if the key has a value.
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key   The key.
+	 * @param value The value, must not be null.
+	 * @return The previous value, or null if there was none.
+	 */
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int h = hash(key);
+		return segmentFor(h).put(key, h, value, false);
+	}
+
+	/**
+	 * Maps a key to a value unless it already has one.
+	 *
+	 * @param key   The key.
+	 * @param value The value, must not be null.
+	 * @return The existing value, or null if the new value was stored.
+	 */
+	public V putIfAbsent(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int h = hash(key);
+		return segmentFor(h).put(key, h, value, true);
+	}
+
+	/**
+	 * Returns the value mapped to a key, creating and storing it first if there is none.
+	 *
+	 * @param key      The key.
+	 * @param function Creates the value, called at most once while the key's segment is locked.
+	 * @return The existing or created value.
+	 */
+	public V computeIfAbsent(int key, IntFunction<? extends V> function) {
+		V value = get(key);
+		if (value != null) {
+			return value;
+		}
+		return compute(key, (k, current) -> current != null ? current : function.apply(k));
+	}
+
+	/**
+	 * Atomically replaces the value of a key with the result of a function. The function runs
+	 * while the key's segment is locked, so it must be short and must not use this map.
+	 *
+	 * @param key      The key.
+	 * @param remapper Computes the new value from the current one; returning null removes the key.
+	 * @return The new value, or null if the key was removed.
+	 */
+	public V compute(int key, Remapper<V> remapper) {
+		int h = hash(key);
+		return segmentFor(h).compute(key, h, remapper);
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key The key.
+	 * @return The removed value, or null if there was none.
+	 */
+	public V remove(int key) {
+		int h = hash(key);
+		return segmentFor(h).remove(key, h);
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return The number of entries.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns whether the map has no entries.
+	 *
+	 * @return true if the map is empty.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns a snapshot of the keys, in no particular order.
+	 *
+	 * @return The keys.
+	 */
+	public int[] keys() {
+		int[] result = new int[0];
+		int count = 0;
+		for (Segment<V> segment : segments) {
+			long stamp = segment.readLock();
+			try {
+				if (count + segment.size > result.length) {
+					result = Arrays.copyOf(result, count + segment.size);
+				}
+				for (int i = 0; i < segment.keys.length; i++) {
+					if (segment.values[i] != null) {
+						result[count++] = segment.keys[i];
+					}
+				}
+			} finally {
+				segment.unlockRead(stamp);
+			}
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Returns a snapshot of the values, in no particular order.
+	 *
+	 * @return The values.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> result = new ArrayList<>();
+		for (Segment<V> segment : segments) {
+			long stamp = segment.readLock();
+			try {
+				for (Object value : segment.values) {
+					if (value != null) {
+						result.add((V) value);
+					}
+				}
+			} finally {
+				segment.unlockRead(stamp);
+			}
+		}
+		return result;
+	}
+
+	private Segment<V> segmentFor(int hash) {
+		return segments[segmentShift == 32 ? 0 : hash >>> segmentShift];
+	}
+
+	// One independently locked open-addressing table, the lock is the segment itself
+	@SuppressWarnings("serial")
+	private static final class Segment<V> extends StampedLock {
+
+		private static final int MIN_CAPACITY = 8;
+
+		private int[] keys = new int[MIN_CAPACITY];
+		private Object[] values = new Object[MIN_CAPACITY];
+		private int size;
+
+		@SuppressWarnings("unchecked")
+		V get(int key, int hash) {
+			long stamp = tryOptimisticRead();
+			Object value = find(key, hash);
+			if (!validate(stamp)) {
+				stamp = readLock();
+				try {
+					value = find(key, hash);
+				} finally {
+					unlockRead(stamp);
+				}
+			}
+			return (V) value;
+		}
+
+		@SuppressWarnings("unchecked")
+		V put(int key, int hash, V value, boolean onlyIfAbsent) {
+			long stamp = writeLock();
+			try {
+				int slot = slotOf(keys, values, key, hash);
+				Object current = values[slot];
+				if (current == null) {
+					insert(slot, key, value);
+				} else if (!onlyIfAbsent) {
+					values[slot] = value;
+				}
+				return (V) current;
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		V compute(int key, int hash, Remapper<V> remapper) {
+			long stamp = writeLock();
+			try {
+				int slot = slotOf(keys, values, key, hash);
+				V current = (V) values[slot];
+				V value = remapper.apply(key, current);
+				if (value == null) {
+					if (current != null) {
+						deleteSlot(slot);
+					}
+					return null;
+				}
+				if (current == null) {
+					insert(slot, key, value);
+				} else {
+					values[slot] = value;
+				}
+				return value;
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		V remove(int key, int hash) {
+			long stamp = writeLock();
+			try {
+				int slot = slotOf(keys, values, key, hash);
+				Object current = values[slot];
+				if (current != null) {
+					deleteSlot(slot);
+				}
+				return (V) current;
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		int size() {
+			long stamp = tryOptimisticRead();
+			int result = size;
+			if (!validate(stamp)) {
+				stamp = readLock();
+				try {
+					result = size;
+				} finally {
+					unlockRead(stamp);
+				}
+			}
+			return result;
+		}
+
+		// Probe for a key, tolerating a table that is being changed by an optimistic read
+		private Object find(int key, int hash) {
+			int[] k = keys;
+			Object[] v = values;
+			if (k.length != v.length) {
+				return null;  // Torn read during a resize, the caller retries under the read lock
+			}
+			int mask = k.length - 1;
+			int slot = hash & mask;
+			for (int probes = 0; probes <= mask; probes++) {
+				Object value = v[slot];
+				if (value == null) {
+					return null;
+				}
+				if (k[slot] == key) {
+					return value;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+
+		private void insert(int slot, int key, Object value) {
+			keys[slot] = key;
+			values[slot] = value;
+			if (++size * 4 > keys.length * 3) {
+				rehash(keys.length * 2);
+			}
+		}
+
+		// Index of the key, or of the empty slot where it would be inserted
+		private static int slotOf(int[] k, Object[] v, int key, int hash) {
+			int mask = k.length - 1;
+			int slot = hash & mask;
+			while (v[slot] != null && k[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		// Empty a slot and shift later entries of the same probe run back so lookups still find them
+		private void deleteSlot(int slot) {
+			int mask = keys.length - 1;
+			int hole = slot;
+			int next = slot;
+			values[hole] = null;
+			size--;
+			while (true) {
+				next = (next + 1) & mask;
+				Object value = values[next];
+				if (value == null) {
+					break;
+				}
+				int home = hash(keys[next]) & mask;
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					keys[hole] = keys[next];
+					values[hole] = value;
+					values[next] = null;
+					hole = next;
+				}
+			}
+			if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+				rehash(keys.length / 2);
+			}
+		}
+
+		// Move every entry into new tables of the given power of two capacity
+		private void rehash(int capacity) {
+			int[] k = new int[Math.max(MIN_CAPACITY, capacity)];
+			Object[] v = new Object[k.length];
+			for (int i = 0; i < keys.length; i++) {
+				if (values[i] != null) {
+					int slot = slotOf(k, v, keys[i], hash(keys[i]));
+					k[slot] = keys[i];
+					v[slot] = values[i];
+				}
+			}
+			keys = k;
+			values = v;
+		}
+	}
+}
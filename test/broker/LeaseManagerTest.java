@@ -0,0 +1,65 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link LeaseManager}: a client that goes silent after its first heartbeat is
+ * expired, while one whose requests keep touching its lease, one that never sent a
+ * heartbeat and one that disconnected are not.
+ */
+class LeaseManagerTest {
+
+	private static final long TIMEOUT = 300;
+	private static final long TICK = 10;
+
+	private final List<String> expired = new CopyOnWriteArrayList<>();
+	private final LeaseManager leases = new LeaseManager("test", TIMEOUT, TICK, expired::add);
+
+	/**
+	 * A publisher that sends one heartbeat and then nothing is expired about a timeout later.
+	 */
+	@Test
+	void expiresSilentPublisher() throws InterruptedException {
+		leases.start();
+		leases.renew("silent");
+		long start = System.currentTimeMillis();
+		while (expired.isEmpty() && System.currentTimeMillis() - start < 5 * TIMEOUT) {
+			Thread.sleep(TICK);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(1, expired.size());
+		assertEquals("silent", expired.get(0));
+		assertTrue(elapsed >= TIMEOUT - TICK, "Expired after " + elapsed + "ms");
+		assertEquals(0, leases.size());
+	}
+
+	/**
+	 * Requests renew a lease without heartbeats, clients without a lease are never expired,
+	 * and a cancelled lease does not expire.
+	 */
+	@Test
+	void keepsLeasesThatAreTouchedOrNeverStarted() throws InterruptedException {
+		leases.start();
+		leases.renew("busy");
+		leases.renew("disconnected");
+		leases.cancel("disconnected");
+		leases.touch("no-heartbeat");
+		long start = System.currentTimeMillis();
+		while (System.currentTimeMillis() - start < 3 * TIMEOUT) {
+			leases.touch("busy");
+			leases.touch("no-heartbeat");
+			Thread.sleep(TIMEOUT / 5);
+		}
+		assertTrue(expired.isEmpty(), "Expired " + expired);
+		assertEquals(1, leases.size());
+	}
+}
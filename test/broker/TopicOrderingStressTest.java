@@ -0,0 +1,214 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package broker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import directory.Directory;
+import remote.Envelope;
+import remote.IRemoteBPub;
+import remote.IRemoteBSub;
+import remote.IRemoteSub;
+
+/**
+ * Stress test of per-topic ordering under the striped topic locks. Several threads
+ * publish concurrently to each of a set of topics, some of which share a lock stripe
+ * and some of which do not, and subscribers on the publishing broker and on a peer
+ * broker check that every topic arrives in sequence order with nothing missing, and
+ * that each publishing thread's messages keep the order it sent them in.
+ */
+class TopicOrderingStressTest {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int SHARED_STRIPE_TOPICS = 3;
+	private static final int SEPARATE_STRIPE_TOPICS = 3;
+	private static final int THREADS_PER_TOPIC = 3;
+	private static final int MESSAGES_PER_THREAD = 400;
+	private static final long DELIVERY_TIMEOUT = 60000;
+
+	private static int directoryPort;
+	private static int publishingPort;
+	private static int peerPort;
+
+	/**
+	 * Starts a directory and two brokers in this JVM.
+	 */
+	@BeforeAll
+	static void startCluster() throws Exception {
+		directoryPort = freePort();
+		publishingPort = freePort();
+		peerPort = freePort();
+		Directory.start(directoryPort);
+		Broker.start(directoryPort, HOST, publishingPort);
+		Broker.start(directoryPort, HOST, peerPort);
+	}
+
+	/**
+	 * Stops the brokers and the directory.
+	 */
+	@AfterAll
+	static void stopCluster() throws Exception {
+		Broker.stop(publishingPort);
+		Broker.stop(peerPort);
+		Directory.stop(directoryPort);
+	}
+
+	/**
+	 * Publishes to every topic from several threads at once and checks the order each subscriber received them in.
+	 */
+	@Test
+	void keepsPublishOrderPerTopicAcrossStripes() throws Exception {
+		Registry publishing = LocateRegistry.getRegistry(HOST, publishingPort);
+		Registry peer = LocateRegistry.getRegistry(HOST, peerPort);
+		IRemoteBPub pub = (IRemoteBPub) publishing.lookup("remotePub");
+		IRemoteBSub localSub = (IRemoteBSub) publishing.lookup("remoteSub");
+		IRemoteBSub remoteSub = (IRemoteBSub) peer.lookup("remoteSub");
+
+		int[] topicIds = pickTopics();
+		Recorder local = new Recorder();
+		Recorder remote = new Recorder();
+		UnicastRemoteObject.exportObject(local, 0);
+		UnicastRemoteObject.exportObject(remote, 0);
+		for (int topicId : topicIds) {
+			assertTrue(pub.create(topicId, "stress-" + topicId, owner(topicId)).startsWith("SUCCESS"));
+			assertTrue(localSub.sub(topicId, local, "local-sub").startsWith("SUCCESS"));
+			assertTrue(remoteSub.sub(topicId, remote, "remote-sub").startsWith("SUCCESS"));
+		}
+
+		ExecutorService publishers = Executors.newFixedThreadPool(topicIds.length * THREADS_PER_TOPIC);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> results = new ArrayList<>();
+			for (int topicId : topicIds) {
+				for (int thread = 0; thread < THREADS_PER_TOPIC; thread++) {
+					int publisherThread = thread;
+					results.add(publishers.submit(() -> {
+						start.await();
+						for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+							String result = pub.publish(topicId, publisherThread + ":" + i, owner(topicId));
+							assertTrue(result.startsWith("SUCCESS"), result);
+						}
+						return null;
+					}));
+				}
+			}
+			start.countDown();
+			for (Future<?> result : results) {
+				result.get(DELIVERY_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+
+			int expected = topicIds.length * THREADS_PER_TOPIC * MESSAGES_PER_THREAD;
+			local.await(expected);
+			remote.await(expected);
+			local.check(topicIds);
+			remote.check(topicIds);
+		} finally {
+			publishers.shutdownNow();
+			UnicastRemoteObject.unexportObject(local, true);
+			UnicastRemoteObject.unexportObject(remote, true);
+		}
+	}
+
+	// A port no other socket is bound to
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	// Topics that all share one lock stripe, followed by topics each on a stripe of its own
+	private static int[] pickTopics() {
+		TopicLocks locks = new TopicLocks(BrokerConfig.LOCK_STRIPES);
+		List<ReentrantLock> used = new ArrayList<>();
+		int[] topicIds = new int[SHARED_STRIPE_TOPICS + SEPARATE_STRIPE_TOPICS];
+		int count = 0;
+		ReentrantLock shared = locks.forTopic(1);
+		for (int id = 1; count < SHARED_STRIPE_TOPICS; id++) {
+			if (locks.forTopic(id) == shared) {
+				topicIds[count++] = id;
+			}
+		}
+		used.add(shared);
+		for (int id = 1; count < topicIds.length; id++) {
+			ReentrantLock lock = locks.forTopic(id);
+			if (!used.contains(lock)) {
+				used.add(lock);
+				topicIds[count++] = id;
+			}
+		}
+		return topicIds;
+	}
+
+	// Name of the publisher owning a topic, every thread publishing to the topic uses it
+	private static String owner(int topicId) {
+		return "stress-pub-" + topicId;
+	}
+
+	// Subscriber recording the order messages arrive in
+	private static final class Recorder implements IRemoteSub {
+		private final Map<Integer, List<Envelope>> received = new HashMap<>();
+		private int count;
+
+		@Override
+		public synchronized void receiveMessage(Envelope message) {
+			received.computeIfAbsent(message.getTopicId(), id -> new ArrayList<>()).add(message);
+			count++;
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void receiveMessages(List<Envelope> messages) {
+			for (Envelope message : messages) {
+				receiveMessage(message);
+			}
+		}
+
+		// Wait until the expected number of messages has arrived
+		synchronized void await(int expected) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT;
+			while (count < expected) {
+				long remaining = deadline - System.currentTimeMillis();
+				assertTrue(remaining > 0, "Received " + count + " of " + expected + " messages");
+				wait(remaining);
+			}
+		}
+
+		// Check each topic arrived complete and in sequence, and each publishing thread's messages in the order sent
+		synchronized void check(int[] topicIds) {
+			for (int topicId : topicIds) {
+				List<Envelope> messages = received.get(topicId);
+				assertEquals(THREADS_PER_TOPIC * MESSAGES_PER_THREAD, messages.size(), "Messages of topic " + topicId);
+				int[] nextPerThread = new int[THREADS_PER_TOPIC];
+				for (int i = 0; i < messages.size(); i++) {
+					Envelope message = messages.get(i);
+					assertEquals(i + 1, message.getSequence(), "Sequence of topic " + topicId);
+					String[] parts = message.getPayloadText().split(":");
+					int thread = Integer.parseInt(parts[0]);
+					assertEquals(nextPerThread[thread]++, Integer.parseInt(parts[1]), "Order of thread " + thread + " on topic " + topicId);
+				}
+			}
+		}
+	}
+}
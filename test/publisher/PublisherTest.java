@@ -0,0 +1,101 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ */
+package publisher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import remote.IRemoteBPub;
+import remote.PublishBatch;
+
+/**
+ * Tests of {@link Publisher} startup against a broker that only records heartbeats.
+ */
+class PublisherTest {
+
+	/**
+	 * Connecting sends the first heartbeat to the broker straight away, so the broker's
+	 * lease on the publisher starts before any heartbeat interval has passed.
+	 */
+	@Test
+	void startsLeaseOnConnect() throws Exception {
+		int port = freePort();
+		Registry registry = LocateRegistry.createRegistry(port);
+		HeartbeatRecorder broker = new HeartbeatRecorder();
+		registry.bind("remotePub", UnicastRemoteObject.exportObject(broker, 0));
+		try {
+			Publisher.connect("lease-pub", "127.0.0.1", port);
+			assertEquals("lease-pub", broker.heartbeats.poll(Publisher.HEARTBEAT_INTERVAL / 2, TimeUnit.MILLISECONDS));
+		} finally {
+			UnicastRemoteObject.unexportObject(broker, true);
+			UnicastRemoteObject.unexportObject(registry, true);
+		}
+	}
+
+	// A port no other socket is bound to
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	// Broker that records the publishers it gets heartbeats from and answers nothing else
+	private static final class HeartbeatRecorder implements IRemoteBPub {
+		private final BlockingQueue<String> heartbeats = new LinkedBlockingQueue<>();
+
+		@Override
+		public void sendPubHeartbeat(String pubName) {
+			heartbeats.add(pubName);
+		}
+
+		@Override
+		public String create(int id, String name, String pubUsername) {
+			return "";
+		}
+
+		@Override
+		public String createConflated(int id, String name, String pubUsername) {
+			return "";
+		}
+
+		@Override
+		public String publish(int id, String message, String pubUsername) {
+			return "";
+		}
+
+		@Override
+		public String[] publishBatch(PublishBatch batch, String pubUsername) {
+			return new String[0];
+		}
+
+		@Override
+		public String show(String pubUsername) {
+			return "";
+		}
+
+		@Override
+		public String delete(int id, String pubUsername) {
+			return "";
+		}
+
+		@Override
+		public void pubDisconnect(String pubName) {
+		}
+
+		@Override
+		public int getDataPort() {
+			return -1;
+		}
+	}
+}